@@ -20,6 +20,10 @@ package com.songbook.android.activity;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 
 import android.content.Context;
 import android.content.Intent;
@@ -40,6 +44,9 @@ import com.songbook.android.framework.ViewMapper;
 import com.songbook.android.util.PreferencesManager;
 import com.songbook.android.util.SongListManager;
 import com.songbook.core.model.SongNode;
+import com.songbook.core.search.FuzzyTitleIndex;
+import com.songbook.core.search.SearchSession;
+import com.songbook.core.search.TrigramIndex;
 import com.songbook.core.util.StringUtil;
 import com.songbook.core.util.Transformer;
 import roboguice.activity.RoboActivity;
@@ -47,6 +54,10 @@ import roboguice.inject.InjectResource;
 import roboguice.inject.InjectView;
 
 public class SongListActivity extends RoboActivity {
+    private static final int MAX_TITLE_DISTANCE = 2;
+    private static final int MAX_SIMILAR_TITLES = 20;
+    private static final long SEARCH_DEBOUNCE_MILLIS = 150;
+
     @InjectResource(R.string.label_unknown)
     String labelUnknown;
 
@@ -66,6 +77,9 @@ public class SongListActivity extends RoboActivity {
     PreferencesManager preferencesManager;
 
     private ComplexListAdapter adapter;
+    private final ScheduledExecutorService searchExecutor = Executors.newSingleThreadScheduledExecutor();
+    private SearchSession searchSession;
+    private int[] matchingSongIds;   // Ascending ids of the songs found by the last search (null - no search)
 
 
     @Override
@@ -101,7 +115,9 @@ public class SongListActivity extends RoboActivity {
 
             @Override
             public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
-                refreshActivity();
+                if (searchSession != null) {
+                    searchSession.search(charSequence.toString());
+                }
             }
         });
     }
@@ -111,7 +127,34 @@ public class SongListActivity extends RoboActivity {
     protected void onStart() {
         super.onStart();
         searchEditText.setVisibility(preferencesManager.isSearchBoxEnabled() ? View.VISIBLE : View.GONE );
+
+        // Search session of the current song list (the list may be reloaded while the activity is stopped)
+        searchSession = new SearchSession(songListManager.getSongNodeList(),
+                new Supplier<TrigramIndex>() {
+                    @Override
+                    public TrigramIndex get() {
+                        return songListManager.getSearchIndex();
+                    }
+                },
+                searchExecutor,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        runOnUiThread(command);
+                    }
+                },
+                SEARCH_DEBOUNCE_MILLIS,
+                new SearchSession.Listener() {
+                    @Override
+                    public void searchFinished(String query, int[] songIds) {
+                        onSearchFinished(query, songIds);
+                    }
+                });
+        matchingSongIds = null;
         refreshActivity();
+        if (!"".equals(StringUtil.removeAccentsAndNonStandardCharacters(searchEditText.getText().toString()))) {
+            searchSession.search(searchEditText.getText().toString());
+        }
         listView.requestFocus();
     }
 
@@ -119,6 +162,22 @@ public class SongListActivity extends RoboActivity {
     @Override
     protected void onStop() {
         super.onStop();
+        searchSession.close();
+        searchSession = null;
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchExecutor.shutdownNow();
+    }
+
+
+    private void onSearchFinished(String query, int[] songIds) {
+        String searchText = StringUtil.removeAccentsAndNonStandardCharacters(query);
+        matchingSongIds = "".equals(searchText) ? null : (songIds.length == 0) ? findSimilarTitles(searchText) : songIds;
+        refreshActivity();
     }
 
     public void refreshActivity() {
@@ -144,16 +203,15 @@ public class SongListActivity extends RoboActivity {
             List<Object> groupedList = new ArrayList<Object>();
             List<Long> idMap = new ArrayList<Long>();
             String previousGroup = null;
-            String searchText = StringUtil.removeAccentsAndNonStandardCharacters(searchEditText.getText().toString());
-            boolean isSearchBoxEnabled = preferencesManager.isSearchBoxEnabled();
+            int[] matchingSongIds = preferencesManager.isSearchBoxEnabled() ? this.matchingSongIds : null;
+            int matchIndex = 0;
             long songNodeIndex = 0;
 
             for (SongNode songNode : songListManager.getSongNodeList()) {
-                // Verify search text
-                if (!isSearchBoxEnabled
-                    || (searchText == null)
-                    || ("".equals(searchText))
-                    || songNode.getSearchText().contains(searchText)) {
+                // Verify search text (the ids of the matching songs are ascending)
+                if (matchingSongIds == null
+                    || (matchIndex < matchingSongIds.length && matchingSongIds[matchIndex] == songNodeIndex)) {
+                    matchIndex++;
 
                     // Add group if necessary
                     if (groupTransformer != null) {
@@ -175,6 +233,18 @@ public class SongListActivity extends RoboActivity {
             adapter.setData(Arrays.asList(labelNoSongsLoaded));
         }
     }
+
+
+    /** @return Ascending ids of the songs with a title similar to the search text (used if no song contains the text). */
+    private int[] findSimilarTitles(String searchText) {
+        List<FuzzyTitleIndex.Match> matches = songListManager.getTitleIndex().search(searchText, MAX_TITLE_DISTANCE, MAX_SIMILAR_TITLES);
+        int[] songIds = new int[matches.size()];
+        for (int i = 0; i < songIds.length; i++) {
+            songIds[i] = matches.get(i).getSongId();
+        }
+        Arrays.sort(songIds);
+        return songIds;
+    }
     
     
     public void onItemClicked(int id) {
@@ -227,21 +227,21 @@ public class SongViewActivity extends RoboActivity implements PagingProvider {
             } else if ("FONT_SIZE".equals(tokenName)) {
                 matcher.appendReplacement(sb, Integer.toString(preferencesManager.getFontSize()));
             } else if ("SONG_BODY".equals(tokenName)) {
-                // Build SongHtml
-                StringBuffer songHtml = new StringBuffer();
+                // Build SongHtml (cached - flipping back and forth renders every song once)
+                String songHtml;
                 if (songNode != null) {
-                    songNode.accept(new HtmlBuilderVisitor(songHtml, transposition,
+                    songHtml = songListManager.getRenderCache().getHtml(songNode, transposition,
                             HtmlBuilderVisitor.Mode.TWO_LINE_TITLE,
                             HtmlBuilderVisitor.Mode.DISPLAY_TRANSPOSITION,
                             HtmlBuilderVisitor.Mode.HTML_ESCAPING,
                             HtmlBuilderVisitor.Mode.DISPLAY_SONG_INDEX,
-                            preferencesManager.isChordsOn() ? HtmlBuilderVisitor.Mode.CHORDS_ON : null));
+                            preferencesManager.isChordsOn() ? HtmlBuilderVisitor.Mode.CHORDS_ON : null);
                 } else {
-                    songHtml.append("<DIV class=\"text\">").append(labelNoSongsLoaded).append("</DIV>");
+                    songHtml = "<DIV class=\"text\">" + labelNoSongsLoaded + "</DIV>";
                 }
 
                 // Replace placeholder in the template
-                matcher.appendReplacement(sb, songHtml.toString());
+                matcher.appendReplacement(sb, songHtml);
             }
         }
         matcher.appendTail(sb);
@@ -24,14 +24,14 @@ import com.songbook.android.util.EventBroker;
 import com.songbook.android.util.PreferencesManager;
 import com.songbook.android.util.SongListManager;
 import com.songbook.core.model.SongNode;
-import com.songbook.core.parser.ChordProParser;
+import com.songbook.core.parser.ChordProFastParser;
 import com.songbook.core.parser.Parser;
 import com.songbook.core.util.SongNodeLoader;
 
 public class SongBookGuiceConfigModule extends AbstractModule {
     @Override
     protected void configure() {
-        bind(new TypeLiteral<Parser<SongNode>>(){}).toInstance(ChordProParser.createParser());
+        bind(new TypeLiteral<Parser<SongNode>>(){}).toInstance(ChordProFastParser.createParser());
 
         bind(SongNodeLoader.class).toProvider(SongNodeLoaderProvider.class).in(Singleton.class);
 
@@ -29,6 +29,7 @@ public class SongNodeLoaderProvider implements Provider<SongNodeLoader> {
 
     @Override
     public SongNodeLoader get() {
-        return new SongNodeLoader(parser);
+        // Song list only shows the titles - bodies are parsed when the song is displayed
+        return new SongNodeLoader(parser, true);
     }
 }
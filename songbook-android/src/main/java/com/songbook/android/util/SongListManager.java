@@ -18,32 +18,33 @@
 package com.songbook.android.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import com.google.inject.Inject;
 import com.songbook.android.event.OnSongBookDataChanged;
 import com.songbook.core.comparator.SongNodeIndexComparator;
 import com.songbook.core.comparator.SongNodeSubTitleComparator;
 import com.songbook.core.comparator.SongNodeTitleComparator;
 import com.songbook.core.model.SongNode;
+import com.songbook.core.search.FuzzyTitleIndex;
+import com.songbook.core.search.TrigramIndex;
 import com.songbook.core.util.SongNodeLoader;
+import com.songbook.core.util.TransposeStore;
+import com.songbook.core.visitor.RenderCache;
 
 public class SongListManager {
     public enum Status { LOCATION_DOES_NOT_EXIST_OR_IS_INVALID, LOADED, LOADING }
 
+    private static final int RENDER_CACHE_SIZE = 256 * 1024;
+
     private final Context context;
 
     private final EventBroker eventBroker;
@@ -58,8 +59,13 @@ public class SongListManager {
 
     private List<SongNode> songNodeList;
 
-    private String transposeMapFileName;
-    private final Map<String,Integer> transposeMap = new HashMap<String, Integer>();
+    private TransposeStore transposeStore;
+
+    private final RenderCache renderCache = new RenderCache(RENDER_CACHE_SIZE);
+
+    private TrigramIndex searchIndex;
+
+    private FuzzyTitleIndex titleIndex;
 
     @SuppressWarnings("FieldCanBeLocal")
     private SharedPreferences.OnSharedPreferenceChangeListener listener = new SharedPreferences.OnSharedPreferenceChangeListener() {
@@ -118,19 +124,13 @@ public class SongListManager {
     }
 
 
-    private void initializeTransposeMap(String fileName) {
-        // Clrear transpose map
-        transposeMap.clear();
-
-        // If fileName does not exist do nothing
-        List<String> internalFileList = Arrays.asList(context.fileList());
-        if (!internalFileList.contains(fileName)) {
-            return;
+    private void initializeTransposeStore(String fileName) {
+        if (transposeStore != null) {
+            transposeStore.close();
+            transposeStore = null;
         }
-        try {
-            transposeMap.putAll(songNodeLoader.loadTransposeMap(context.openFileInput(fileName)));
-        } catch (FileNotFoundException ex) {
-            throw new RuntimeException("Transpose map file not found - " + fileName, ex);
+        if (fileName != null) {
+            transposeStore = new TransposeStore(context.getFileStreamPath(fileName));
         }
     }
 
@@ -140,15 +140,14 @@ public class SongListManager {
         Comparator<SongNode> comparator = buildComparatorFromPreferences();
         Charset fileEncoding = preferencesManager.getFileEncoding();
         String location = preferencesManager.getSongBookLocation();
-        transposeMapFileName = null;
 
         try {
             // Load from internal storage
             if (location.startsWith("internal://")) {
                 String internalFileName = location.replace("internal://", "");
-                FileInputStream inputStream = context.openFileInput(internalFileName);                
-                setSongNodeList(songNodeLoader.loadSongNodesFromZip(inputStream, fileEncoding), comparator);
-                transposeMapFileName = internalFileName + ".transpose";
+                File internalFile = context.getFileStreamPath(internalFileName);
+                setSongNodeList(songNodeLoader.loadSongNodesFromZip(internalFile, fileEncoding), comparator);
+                initializeTransposeStore(internalFileName + ".transpose");
                 status = Status.LOADED;
                 return;
             }
@@ -159,22 +158,22 @@ public class SongListManager {
             if (locationFile.isDirectory()) {
                 List<SongNode> songNodes = songNodeLoader.loadSongNodesFromDirectory(locationFile, fileEncoding);
                 setSongNodeList(songNodes, comparator);
-                transposeMapFileName = locationFile.getName() + ".transpose";
+                initializeTransposeStore(locationFile.getName() + ".transpose");
                 status = Status.LOADED;
                 return;
             }
 
             // Load from ZIP file
             if (locationFile.isFile() && locationFile.getAbsolutePath().endsWith(".zip")) {
-                setSongNodeList(songNodeLoader.loadSongNodesFromZip(new FileInputStream(location), fileEncoding), comparator);
-                transposeMapFileName = locationFile.getName() + ".transpose";
+                setSongNodeList(songNodeLoader.loadSongNodesFromZip(locationFile, fileEncoding), comparator);
+                initializeTransposeStore(locationFile.getName() + ".transpose");
                 status = Status.LOADED;
                 return;
             }
 
             // Invalid location
             setSongNodeList(Collections.unmodifiableList(new ArrayList<SongNode>()), comparator);
-            initializeTransposeMap(transposeMapFileName);
+            initializeTransposeStore(null);
             status = Status.LOCATION_DOES_NOT_EXIST_OR_IS_INVALID;
         } catch (Exception ex) {
             // Invalid location
@@ -185,29 +184,13 @@ public class SongListManager {
 
 
     public int getTransposition(String songFileName) {
-        Integer transposition = transposeMap.get(songFileName);
-        return (transposition != null) ? transposition : 0;
+        return (transposeStore != null) ? transposeStore.getTransposition(songFileName) : 0;
     }
 
     public void saveTransposition(String songFileName, int transposition) {
-        // Update transpose map
-        if (transposition != 0) {
-           transposeMap.put(songFileName, transposition);
-        } else {
-            transposeMap.remove(songFileName);
-        }
-
-        // Save transpose map
-        if (transposeMap.size() == 0) {
-            context.deleteFile(transposeMapFileName);
-        } else {
-            OutputStream out;
-            try {
-                out = context.openFileOutput(transposeMapFileName, Context.MODE_WORLD_READABLE);
-                songNodeLoader.saveTransposeMap(out, transposeMap);
-            } catch (FileNotFoundException ex) {
-                throw new RuntimeException("Failed to save transpose map !", ex);
-            }
+        // Appends the change to the transpose journal
+        if (transposeStore != null) {
+            transposeStore.setTransposition(songFileName, transposition);
         }
     }
 
@@ -235,11 +218,37 @@ public class SongListManager {
     }
 
 
-    public void setSongNodeList(List<SongNode> songList, Comparator<SongNode> comparator) {
+    /** @return Search index of the song list (built on the first call after the list was set). */
+    public synchronized TrigramIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new TrigramIndex(songNodeList, AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return searchIndex;
+    }
+
+
+    /** @return Typo-tolerant title index of the song list (built on the first call after the list was set). */
+    public synchronized FuzzyTitleIndex getTitleIndex() {
+        if (titleIndex == null) {
+            titleIndex = new FuzzyTitleIndex(songNodeList);
+        }
+        return titleIndex;
+    }
+
+
+    /** @return Cache of the renderings of the songs shared by the activities. */
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+
+    public synchronized void setSongNodeList(List<SongNode> songList, Comparator<SongNode> comparator) {
         if (comparator != null) {
             Collections.sort(songList, comparator);
         }
         this.songNodeList = songList;
+        this.searchIndex = null;
+        this.titleIndex = null;
         this.selectedIndex = (songList.size() > 0) ? 0 : -1;
     }
 }
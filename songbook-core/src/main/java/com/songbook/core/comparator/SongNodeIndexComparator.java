@@ -21,12 +21,15 @@ import java.text.Collator;
 import java.util.Comparator;
 import java.util.Locale;
 
+import com.songbook.core.model.CompactSongBook;
 import com.songbook.core.model.SongNode;
 
 public class SongNodeIndexComparator implements Comparator<SongNode> {
+    private final Locale locale;
     private final Collator collator;
 
     public SongNodeIndexComparator(Locale locale) {
+        this.locale = locale;
         this.collator = Collator.getInstance(locale);
     }
 
@@ -35,7 +38,9 @@ public class SongNodeIndexComparator implements Comparator<SongNode> {
         if (song1.getIndex() == null) {
             if (song2.getIndex() == null) {
                 // If both indexes are null => compare by title
-                return collator.compare(song1.getTitleNode().getTitle(), song2.getTitleNode().getTitle());
+                // (songs of a snapshot are compared by the sort keys of its title index)
+                Integer result = CompactSongBook.compareTitles(song1, song2, locale);
+                return (result != null) ? result : collator.compare(song1.getTitleNode().getTitle(), song2.getTitleNode().getTitle());
             } else {
                 return 1;
             }
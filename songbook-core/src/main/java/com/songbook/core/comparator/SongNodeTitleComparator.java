@@ -21,17 +21,22 @@ import java.text.Collator;
 import java.util.Comparator;
 import java.util.Locale;
 
+import com.songbook.core.model.CompactSongBook;
 import com.songbook.core.model.SongNode;
 
 public class SongNodeTitleComparator implements Comparator<SongNode> {
+    private final Locale locale;
     private final Collator collator;
 
     public SongNodeTitleComparator(Locale locale) {
+        this.locale = locale;
         this.collator = Collator.getInstance(locale);
     }
 
     @Override
     public int compare(SongNode song1, SongNode song2) {
-        return collator.compare(song1.getTitleNode().getTitle(), song2.getTitleNode().getTitle());
+        // Songs of a snapshot are compared by the sort keys of its title index
+        Integer result = CompactSongBook.compareTitles(song1, song2, locale);
+        return (result != null) ? result : collator.compare(song1.getTitleNode().getTitle(), song2.getTitleNode().getTitle());
     }
 }
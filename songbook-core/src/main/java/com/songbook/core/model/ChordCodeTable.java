@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Table of the chord suffixes used to encode the chords into ints - e.g. for the clients which transpose
+ * the chords without parsing them.
+ * <p>
+ * The code of a known chord has bits 0-3 root index, 4-15 suffix id, 16-19 bass root index (15 if there is no bass)
+ * and 20-31 bass suffix id. Root index is the index to {@link ChordSymbol#getRootNames()} (C = 0), suffix id is
+ * the index to {@link #getSuffixes()}. The suffixes are sorted, so the codes depend only on the encoded songs
+ * (not on the order in which the chords were parsed). Immutable - it may be shared by any threads.
+ * @author Tomas Janecek
+ */
+public final class ChordCodeTable {
+    /** Code of the chords which can not be encoded (unknown root or suffix not in the table). */
+    public static final int UNKNOWN_CODE = -1;
+
+    private static final int NO_BASS = 15;
+    private static final int MAX_SUFFIXES = 1 << 12;
+
+    private final List<String> suffixes;
+    private final Map<String, Integer> suffixIds = new HashMap<String, Integer>();
+
+
+    /**
+     * Constructor - creates the table of the suffixes.
+     * @param suffixes Suffixes of the encoded chords - sorted, the empty suffix is always included (only the first
+     *                 {@value #MAX_SUFFIXES} suffixes are kept, chords with the others are not encoded).
+     */
+    public ChordCodeTable(Collection<String> suffixes) {
+        TreeSet<String> sortedSuffixes = new TreeSet<String>(suffixes);
+        sortedSuffixes.add("");
+        List<String> suffixList = new ArrayList<String>(sortedSuffixes);
+        this.suffixes = Collections.unmodifiableList(suffixList.subList(0, Math.min(suffixList.size(), MAX_SUFFIXES)));
+        for (int id = 0; id < this.suffixes.size(); id++) {
+            suffixIds.put(this.suffixes.get(id), id);
+        }
+    }
+
+
+    /**
+     * Creates the table of the suffixes of all the chords of the songs.
+     * @param songList Songs to be encoded.
+     * @return Table of the suffixes.
+     */
+    public static ChordCodeTable of(List<? extends SongNode> songList) {
+        Collection<String> suffixes = new TreeSet<String>();
+        for (SongNode songNode : songList) {
+            for (VerseNode verseNode : songNode.getVerseList()) {
+                for (LineNode lineNode : verseNode.getLineNodes()) {
+                    for (Node node : lineNode.getContentList()) {
+                        if (node instanceof ChordNode && ((ChordNode) node).getSymbol().isKnown()) {
+                            suffixes.add(((ChordNode) node).getSymbol().getSuffix());
+                            suffixes.add(((ChordNode) node).getSymbol().getBassSuffix());
+                        }
+                    }
+                }
+            }
+        }
+        return new ChordCodeTable(suffixes);
+    }
+
+
+    /** @return Chord suffixes by the suffix id. */
+    public List<String> getSuffixes() {
+        return suffixes;
+    }
+
+
+    /**
+     * Encodes the chord.
+     * @param symbol Chord.
+     * @return Code of the chord (see the class description) or {@link #UNKNOWN_CODE}.
+     */
+    public int encode(ChordSymbol symbol) {
+        if (!symbol.isKnown()) {
+            return UNKNOWN_CODE;
+        }
+        Integer suffixId = suffixIds.get(symbol.getSuffix());
+        Integer bassSuffixId = suffixIds.get(symbol.getBassSuffix());
+        if (suffixId == null || bassSuffixId == null) {
+            return UNKNOWN_CODE;
+        }
+        int bassRoot = symbol.hasBass() ? symbol.getBassRoot() : NO_BASS;
+        return symbol.getRoot() | (suffixId << 4) | (bassRoot << 16) | (bassSuffixId << 20);
+    }
+
+
+    /**
+     * Decodes the chord from the code.
+     * @param code Code of a known chord (see {@link #encode(ChordSymbol)}).
+     * @return Chord symbol (with the root names as used for the transposition - e.g. "Es" rather than "D#").
+     */
+    public ChordSymbol decode(int code) {
+        if (code == UNKNOWN_CODE) {
+            throw new IllegalArgumentException("Unknown chord can not be decoded");
+        }
+        List<String> rootNames = ChordSymbol.getRootNames();
+        int bassRoot = (code >>> 16) & 0xf;
+        String chord = rootNames.get(code & 0xf) + suffixes.get((code >>> 4) & 0xfff);
+        String bass = (bassRoot == NO_BASS) ? "" : rootNames.get(bassRoot) + suffixes.get(code >>> 20);
+        return ChordSymbol.of(chord, bass);
+    }
+}
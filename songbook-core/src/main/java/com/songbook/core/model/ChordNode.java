@@ -17,30 +17,14 @@
  */
 package com.songbook.core.model;
 
-import java.util.HashMap;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
- * Class representing the Chord in the Song.
+ * Class representing the Chord in the Song - the chord is parsed into the interned {@link ChordSymbol}
+ * when the node is created, so rendering of the (transposed) chord does not parse it again.
  * @author Tomas Janecek.
  */
 public class ChordNode implements Node {
-    private static final Logger logger = LoggerFactory.getLogger(ChordNode.class);
-
-    /** Exception thrown when an exception occurs during transposition. */
-    public static class TransposeException extends Exception {
-        public TransposeException(String msg) {
-            super(msg);
-        }
-    }
-
-    /** Main chord */
-    private final String chord1;
-
-    /** Addition bass chord (optional) */
-    private final String chord2;
+    /** Main chord and the optional bass chord. */
+    private final ChordSymbol symbol;
 
 
     /**
@@ -49,21 +33,35 @@ public class ChordNode implements Node {
      * @param chord2 Additional bass chord (optional)
      */
     public ChordNode(String chord1, String chord2) {
-        this.chord1 = chord1;
-        this.chord2 = chord2;
+        this.symbol = ChordSymbol.of(chord1, chord2);
+    }
+
+
+    /**
+     * Constructor - Creates a new instance of ChordNode for an already parsed chord.
+     * @param symbol Main chord and the optional bass chord.
+     */
+    public ChordNode(ChordSymbol symbol) {
+        this.symbol = symbol;
     }
 
 
     /** @return Type of the node (required for FreeMaker). */
     @SuppressWarnings("unused")
     public String getType() {
-        return "".equals(chord2) ? "SimpleChordNode" : "MultiChordNode";
+        return symbol.hasBass() ? "MultiChordNode" : "SimpleChordNode";
+    }
+
+
+    /** @return Parsed chord. */
+    public ChordSymbol getSymbol() {
+        return symbol;
     }
 
 
     /** @return Text representation of the chord. */
     public String getText() {
-        return "".equals(chord2) ? chord1 : chord1 + "/" + chord2;
+        return symbol.getText();
     }
     
 
@@ -73,9 +71,7 @@ public class ChordNode implements Node {
      * @return Text representation of the chords
      */
     public String getText(int transposition) {
-        return "".equals(chord2)
-                ? transposeChordWithFailBack(chord1, transposition)
-                : transposeChordWithFailBack(chord1, transposition) + "/" + transposeChordWithFailBack(chord2, transposition);
+        return symbol.getText(transposition);
     }
 
 
@@ -85,7 +81,7 @@ public class ChordNode implements Node {
      */
     @SuppressWarnings("unused")
     public String getChord1(int transposition) {
-        return transposeChordWithFailBack(chord1, transposition);
+        return symbol.getChord(transposition);
     }
 
 
@@ -95,7 +91,7 @@ public class ChordNode implements Node {
      */
     @SuppressWarnings("unused")
     public String getChord2(int transposition) {
-        return "".equals(chord2) ? "" : transposeChordWithFailBack(chord2, transposition);
+        return symbol.getBass(transposition);
     }
 
 
@@ -112,68 +108,21 @@ public class ChordNode implements Node {
 
     /** {@inheritDoc} */
     @Override
-    public String toString() {
-        return "ChordNode[ chord1=" + chord1 + " , chord2=" + chord2 + "]";
+    public boolean equals(Object obj) {
+        return obj instanceof ChordNode && symbol.equals(((ChordNode) obj).symbol);
     }
 
 
-    // === STATIC CONTEXT === //
-    /** Chord to Idx conversion map. */
-    private static HashMap<String, Integer> chordToIdx;
-
-    /** Idx to Chord conversation map. */
-    private static HashMap<Integer, String> idxToChord;
-
-
-    private static String transposeChord(String chord, int trans) throws TransposeException {
-        // Initialize hashMaps if necessary
-        if (chordToIdx == null) {
-            chordToIdx = new HashMap<String, Integer>();
-            idxToChord = new HashMap<Integer, String>();
-            chordToIdx.put("C" , 0 );   idxToChord.put(0 , "C" );
-            chordToIdx.put("C#", 1 );   idxToChord.put(1 , "C#");
-            chordToIdx.put("D" , 2 );   idxToChord.put(2 , "D" );
-            chordToIdx.put("D#", 3 );
-            chordToIdx.put("Es", 3 );   idxToChord.put(3 , "Es");
-            chordToIdx.put("E" , 4 );   idxToChord.put(4 , "E" );
-            chordToIdx.put("F" , 5 );   idxToChord.put(5 , "F" );
-            chordToIdx.put("F#", 6 );   idxToChord.put(6 , "F#");
-            chordToIdx.put("G" , 7 );   idxToChord.put(7 , "G" );
-            chordToIdx.put("G#", 8 );   idxToChord.put(8 , "G#");
-            chordToIdx.put("As", 8 );
-            chordToIdx.put("A" , 9 );   idxToChord.put(9 , "A" );
-            chordToIdx.put("A#", 10);
-            chordToIdx.put("B" , 10);   idxToChord.put(10, "B" );
-            chordToIdx.put("H" , 11);   idxToChord.put(11, "H" );
-        }
-
-
-        // Set base and Suffix
-        String base, suffix;
-
-        if (chord.length() > 1) {
-            base = ((chord.charAt(1) == 's') || (chord.charAt(1) == '#')) ? chord.substring(0, 2) : chord.substring(0, 1);
-            suffix = chord.replaceFirst(base, "");
-        } else {
-            base = chord;
-            suffix = "";
-        }
-
-        // Transpose base
-        Integer chordIdx = chordToIdx.get(base);
-        if (chordIdx == null) {
-            throw new TransposeException("Chord " + chord + " is not known !");
-        }
-
-        return idxToChord.get((chordIdx + 12 + (trans % 12)) % 12) + suffix;
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return symbol.hashCode();
     }
 
-    private static String transposeChordWithFailBack(String chord, int trans) {
-        try {
-            return transposeChord(chord, trans);
-        } catch (TransposeException ex) {
-            logger.error(ex.getMessage());
-            return chord;
-        }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ChordNode[ chord1=" + symbol.getChord() + " , chord2=" + symbol.getBass() + "]";
     }
 }
@@ -0,0 +1,239 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chord parsed once into the root, the suffix and the optional bass - e.g. "F#mi7/E".
+ * <p>
+ * The symbols are interned (see {@link #of(String, String)}) and the texts of all 12 transpositions are computed
+ * when the symbol is created, so the transposition is a table lookup. Chords with an unknown root are reported
+ * when they are parsed and never transposed.
+ * <p>
+ * The root of a known chord is the index to {@link #getRootNames()} (C = 0), the transposed chord is then
+ * (root + transposition) mod 12 with the same suffix. Chords are encoded into ints by {@link ChordCodeTable}.
+ * @author Tomas Janecek
+ */
+public final class ChordSymbol {
+    private static final Logger logger = LoggerFactory.getLogger(ChordSymbol.class);
+
+    private static final String[] ROOT_NAMES = { "C", "C#", "D", "Es", "E", "F", "F#", "G", "G#", "A", "B", "H" };
+    private static final List<String> ROOT_NAME_LIST = Collections.unmodifiableList(Arrays.asList(ROOT_NAMES));
+
+    /** Number of symbols interned at most (chords above the limit are not shared). */
+    private static final int MAX_INTERNED_SYMBOLS = 16 * 1024;
+
+    private static final Map<String, ChordSymbol> SYMBOLS = new ConcurrentHashMap<String, ChordSymbol>();
+
+    private final String chord;
+    private final String bass;
+    private final int root;
+    private final int bassRoot;
+    private final boolean known;
+    private final String[] chordTexts;
+    private final String[] bassTexts;
+    private final String[] texts;
+
+
+    private ChordSymbol(String chord, String bass) {
+        this.chord = chord;
+        this.bass = bass;
+
+        this.root = rootIndex(chord);
+        this.bassRoot = bass.isEmpty() ? -1 : rootIndex(bass);
+        this.known = root >= 0 && (bass.isEmpty() || bassRoot >= 0);
+        if (!known) {
+            logger.warn("Chord " + getText() + " is not known - it will not be transposed !");
+        }
+        this.chordTexts = transpositions(chord, root);
+        this.bassTexts = bass.isEmpty() ? null : transpositions(bass, bassRoot);
+        this.texts = new String[12];
+        for (int i = 0; i < 12; i++) {
+            texts[i] = bass.isEmpty() ? chordTexts[i] : chordTexts[i] + "/" + bassTexts[i];
+        }
+    }
+
+
+    /**
+     * Returns the interned symbol of the chord.
+     * @param chord Main chord (e.g. "F#mi7").
+     * @param bass  Bass chord (empty string if there is no bass).
+     * @return Chord symbol.
+     */
+    public static ChordSymbol of(String chord, String bass) {
+        String text = bass.isEmpty() ? chord : chord + "/" + bass;
+        ChordSymbol symbol = SYMBOLS.get(text);
+        if (symbol == null) {
+            symbol = new ChordSymbol(chord, bass);
+            if (SYMBOLS.size() < MAX_INTERNED_SYMBOLS) {
+                ChordSymbol previous = SYMBOLS.putIfAbsent(text, symbol);
+                symbol = (previous != null) ? previous : symbol;
+            }
+        }
+        return symbol;
+    }
+
+
+    /** @return Names of the roots by the root index (C = 0) - the names used in the transposed chords. */
+    public static List<String> getRootNames() {
+        return ROOT_NAME_LIST;
+    }
+
+
+    /** @return Main chord as written in the song. */
+    public String getChord() {
+        return chord;
+    }
+
+
+    /** @return Suffix of the main chord - the chord without the root (e.g. "mi7" for "F#mi7"). */
+    public String getSuffix() {
+        return chord.isEmpty() ? "" : chord.substring(rootLength(chord));
+    }
+
+
+    /** @return Index of the root of the main chord (C = 0) or -1 if the root is not known. */
+    public int getRoot() {
+        return root;
+    }
+
+
+    /** @return Bass chord as written in the song (empty string if there is no bass). */
+    public String getBass() {
+        return bass;
+    }
+
+
+    /** @return Suffix of the bass chord - the bass without the root (empty string if there is no bass). */
+    public String getBassSuffix() {
+        return bass.isEmpty() ? "" : bass.substring(rootLength(bass));
+    }
+
+
+    /** @return Index of the root of the bass chord (C = 0) or -1 if there is no bass or if its root is not known. */
+    public int getBassRoot() {
+        return bassRoot;
+    }
+
+
+    public boolean hasBass() {
+        return !bass.isEmpty();
+    }
+
+
+    /** @return False if the root of the chord or of the bass is not known (the chord is not transposed). */
+    public boolean isKnown() {
+        return known;
+    }
+
+
+    /** @return Chord as written in the song - e.g. "D", "F#/D". */
+    public String getText() {
+        return bass.isEmpty() ? chord : chord + "/" + bass;
+    }
+
+
+    /** @return Transposed chord - e.g. "D", "F#/D". */
+    public String getText(int transposition) {
+        return texts[Math.floorMod(transposition, 12)];
+    }
+
+
+    /** @return Transposed main chord. */
+    public String getChord(int transposition) {
+        return chordTexts[Math.floorMod(transposition, 12)];
+    }
+
+
+    /** @return Transposed bass chord (empty string if there is no bass). */
+    public String getBass(int transposition) {
+        return (bassTexts == null) ? "" : bassTexts[Math.floorMod(transposition, 12)];
+    }
+
+
+    /** Symbols are equal if they have the same chord and bass (symbols above the interning limit are not shared). */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof ChordSymbol && chord.equals(((ChordSymbol) obj).chord) && bass.equals(((ChordSymbol) obj).bass);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return chord.hashCode() * 31 + bass.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return "ChordSymbol[" + getText() + "]";
+    }
+
+
+    private static String[] transpositions(String chord, int root) {
+        String[] result = new String[12];
+        String suffix = (root < 0) ? null : chord.substring(rootLength(chord));
+        for (int i = 0; i < 12; i++) {
+            result[i] = (root < 0) ? chord : ROOT_NAMES[(root + i) % 12] + suffix;
+        }
+        return result;
+    }
+
+
+    /** @return Length of the root - the root is the first letter followed by the optional '#' or 's' (e.g. "Es"). */
+    private static int rootLength(String chord) {
+        return (chord.length() > 1 && (chord.charAt(1) == 's' || chord.charAt(1) == '#')) ? 2 : 1;
+    }
+
+
+    /** @return Index of the root (C = 0) or -1 if the root is not known. */
+    private static int rootIndex(String chord) {
+        if (chord.isEmpty()) {
+            return -1;
+        }
+        switch (chord.substring(0, rootLength(chord))) {
+            case "C":  return 0;
+            case "C#": return 1;
+            case "D":  return 2;
+            case "D#":
+            case "Es": return 3;
+            case "E":  return 4;
+            case "F":  return 5;
+            case "F#": return 6;
+            case "G":  return 7;
+            case "G#":
+            case "As": return 8;
+            case "A":  return 9;
+            case "A#":
+            case "B":  return 10;
+            case "H":  return 11;
+            default:   return -1;
+        }
+    }
+}
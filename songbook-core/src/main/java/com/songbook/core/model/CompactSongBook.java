@@ -0,0 +1,767 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * SongBook keeping the songs in a columnar form - all texts (titles, lyrics, source file paths, chords) in a single
+ * character pool and the structure of the songs in parallel int columns (verses of a song, lines of a verse,
+ * fragments of a line). Chords are interned, every distinct chord is kept as a single shared ChordNode.
+ * <p>
+ * The whole song book is then made of a few dozens of objects regardless of the number of songs, compared
+ * to about ten objects per lyric fragment of the SongNode tree. The songs returned by {@link #getSongNodeList()}
+ * are flyweight views which create the verses on every call of {@link SongNode#getVerseList()} (and therefore
+ * on every {@link SongNode#accept(Visitor)}) - the created nodes are short-lived and not retained.
+ * The source spans of the verses and lines are not kept. The content hashes of the songs (see
+ * {@link SongNode#getContentHash()}) are kept in a column, so they are available without creating the verses.
+ * <p>
+ * The columns are either arrays on the heap (song books created by the {@link Builder}) or views of a binary image
+ * written by {@link #writeImage(WritableByteChannel, Locale)} - typically a memory-mapped file, which is then used
+ * as it is without reading the songs. The image optionally contains the title index - the songs sorted by title
+ * for a locale and the rank of every title in that order used as its sort key.
+ * @author Tomas Janecek
+ */
+public class CompactSongBook extends SongBook {
+    /** Version of the binary image - incremented by every change of the layout. */
+    public static final int IMAGE_VERSION = 2;
+
+    /** Magic number at the start of the image ("SBCI"). */
+    private static final int IMAGE_MAGIC = 0x53424349;
+
+    /** Value of the index column for songs without the song book index. */
+    private static final int NO_INDEX = Integer.MIN_VALUE;
+
+    // Columns of the image in the order of their offsets in the header
+    private static final int TITLE_OFFSETS = 0;
+    private static final int TITLE_LENGTHS = 1;
+    private static final int SUB_TITLE_LENGTHS = 2;
+    private static final int SOURCE_PATH_OFFSETS = 3;
+    private static final int SOURCE_PATH_LENGTHS = 4;
+    private static final int INDEXES = 5;
+    private static final int SONG_VERSE_STARTS = 6;
+    private static final int VERSE_LINE_STARTS = 7;
+    private static final int LINE_FRAGMENT_STARTS = 8;
+    private static final int FRAGMENT_OFFSETS = 9;
+    private static final int FRAGMENT_CHORDS = 10;
+    private static final int CHORD_OFFSETS = 11;
+    private static final int CHORD_LENGTHS = 12;
+    private static final int BASS_LENGTHS = 13;
+    private static final int CONTENT_HASHES = 14;
+    private static final int TITLE_ORDER = 15;
+    private static final int TITLE_SORT_KEYS = 16;
+    private static final int CHARS = 17;
+    private static final int COLUMN_COUNT = 18;
+
+    /** Size of the image header in ints - magic, version, 6 counts, offset and length of the locale and the column offsets. */
+    private static final int HEADER_INTS = 10 + COLUMN_COUNT;
+
+    /** Pool of all texts. */
+    private final CharBuffer chars;
+
+    // Song columns (string columns hold the offset into the pool, a length of -1 stands for null)
+    private final int songCount;
+    private final IntBuffer titleOffsets;
+    private final IntBuffer titleLengths;
+    private final IntBuffer subTitleLengths;
+    private final IntBuffer sourcePathOffsets;
+    private final IntBuffer sourcePathLengths;
+    private final IntBuffer indexes;
+    /** Index of the first verse of every song (one more item for the end of the last song). */
+    private final IntBuffer songVerseStarts;
+    /** Content hash of every song as 4 ints (from the most significant). */
+    private final IntBuffer contentHashes;
+
+    /** Index of the first line of every verse (one more item for the end of the last verse). */
+    private final IntBuffer verseLineStarts;
+
+    /** Index of the first fragment of every line (one more item for the end of the last line). */
+    private final IntBuffer lineFragmentStarts;
+
+    /** Offset of the text of every text fragment in the pool. */
+    private final IntBuffer fragmentOffsets;
+
+    /** Index of the chord of every chord fragment in the chord table, bitwise complement of the length of text fragments. */
+    private final IntBuffer fragmentChords;
+
+    // Chord table (chord and bass texts in the pool)
+    private final IntBuffer chordOffsets;
+    private final IntBuffer chordLengths;
+    private final IntBuffer bassLengths;
+    private final ChordNode[] chordNodes;
+
+    /** Locale of the title index (null if the song book has no title index). */
+    private final Locale titleLocale;
+
+    /** Positions of the songs sorted by title (null if the song book has no title index). */
+    private final IntBuffer titleOrder;
+
+    /** Rank of the title of every song in the title order, songs with equal titles have equal ranks (null if no title index). */
+    private final IntBuffer titleSortKeys;
+
+    /** View of the songs. */
+    private final List<SongNode> songList = new SongListView();
+
+
+    /**
+     * Constructor - creates a new instance of CompactSongBook containing copies of the given songs.
+     * @param songList Songs to be copied (the verses of the songs are accessed once).
+     */
+    public CompactSongBook(Collection<? extends SongNode> songList) {
+        this(new Builder().addAll(songList));
+    }
+
+
+    private CompactSongBook(Builder builder) {
+        super(new ArrayList<SongNode>(0));
+        this.chars = CharBuffer.wrap(Arrays.copyOf(builder.chars, builder.charCount));
+        this.songCount = builder.songCount;
+        this.titleOffsets = IntBuffer.wrap(Arrays.copyOf(builder.titleOffsets, songCount));
+        this.titleLengths = IntBuffer.wrap(Arrays.copyOf(builder.titleLengths, songCount));
+        this.subTitleLengths = IntBuffer.wrap(Arrays.copyOf(builder.subTitleLengths, songCount));
+        this.sourcePathOffsets = IntBuffer.wrap(Arrays.copyOf(builder.sourcePathOffsets, songCount));
+        this.sourcePathLengths = IntBuffer.wrap(Arrays.copyOf(builder.sourcePathLengths, songCount));
+        this.indexes = IntBuffer.wrap(Arrays.copyOf(builder.indexes, songCount));
+        this.songVerseStarts = IntBuffer.wrap(Arrays.copyOf(builder.songVerseStarts, songCount + 1));
+        this.contentHashes = IntBuffer.wrap(Arrays.copyOf(builder.contentHashes, songCount * 4));
+        this.verseLineStarts = IntBuffer.wrap(Arrays.copyOf(builder.verseLineStarts, builder.verseCount + 1));
+        this.lineFragmentStarts = IntBuffer.wrap(Arrays.copyOf(builder.lineFragmentStarts, builder.lineCount + 1));
+        this.fragmentOffsets = IntBuffer.wrap(Arrays.copyOf(builder.fragmentOffsets, builder.fragmentCount));
+        this.fragmentChords = IntBuffer.wrap(Arrays.copyOf(builder.fragmentChords, builder.fragmentCount));
+        this.chordNodes = builder.chordNodes.toArray(new ChordNode[builder.chordNodes.size()]);
+        this.chordOffsets = IntBuffer.wrap(Arrays.copyOf(builder.chordOffsets, chordNodes.length));
+        this.chordLengths = IntBuffer.wrap(Arrays.copyOf(builder.chordLengths, chordNodes.length));
+        this.bassLengths = IntBuffer.wrap(Arrays.copyOf(builder.bassLengths, chordNodes.length));
+        this.titleLocale = null;
+        this.titleOrder = null;
+        this.titleSortKeys = null;
+    }
+
+
+    /**
+     * Constructor - creates a new instance of CompactSongBook using the given binary image as its columns.
+     * The image is not copied, only the chord table is created (a few hundreds of chords).
+     * @param image Image written by {@link #writeImage(WritableByteChannel, Locale)} (from its position to its limit).
+     * @throws IllegalArgumentException If the buffer does not contain a valid image.
+     */
+    public CompactSongBook(ByteBuffer image) {
+        super(new ArrayList<SongNode>(0));
+        ByteBuffer buffer = image.slice();
+        if (buffer.remaining() < HEADER_INTS * 4 || buffer.getInt(0) != IMAGE_MAGIC) {
+            throw new IllegalArgumentException("Not a song book image.");
+        }
+        if (buffer.getInt(4) != IMAGE_VERSION) {
+            throw new IllegalArgumentException("Unsupported version of the song book image " + buffer.getInt(4) + ".");
+        }
+        int[] counts = new int[6];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buffer.getInt(8 + i * 4);
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException("Corrupted song book image.");
+            }
+        }
+        this.songCount = counts[0];
+        int[] lengths = getColumnLengths(counts[0], counts[1], counts[2], counts[3], counts[4], counts[5], buffer.getInt(36) >= 0);
+        int[] offsets = getColumnOffsets(lengths);
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            if (buffer.getInt((10 + i) * 4) != offsets[i]) {
+                throw new IllegalArgumentException("Corrupted song book image.");
+            }
+        }
+        if ((long) offsets[CHARS] + lengths[CHARS] * 2L > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated song book image.");
+        }
+
+        this.titleOffsets = intColumn(buffer, offsets, lengths, TITLE_OFFSETS);
+        this.titleLengths = intColumn(buffer, offsets, lengths, TITLE_LENGTHS);
+        this.subTitleLengths = intColumn(buffer, offsets, lengths, SUB_TITLE_LENGTHS);
+        this.sourcePathOffsets = intColumn(buffer, offsets, lengths, SOURCE_PATH_OFFSETS);
+        this.sourcePathLengths = intColumn(buffer, offsets, lengths, SOURCE_PATH_LENGTHS);
+        this.indexes = intColumn(buffer, offsets, lengths, INDEXES);
+        this.songVerseStarts = intColumn(buffer, offsets, lengths, SONG_VERSE_STARTS);
+        this.verseLineStarts = intColumn(buffer, offsets, lengths, VERSE_LINE_STARTS);
+        this.lineFragmentStarts = intColumn(buffer, offsets, lengths, LINE_FRAGMENT_STARTS);
+        this.fragmentOffsets = intColumn(buffer, offsets, lengths, FRAGMENT_OFFSETS);
+        this.fragmentChords = intColumn(buffer, offsets, lengths, FRAGMENT_CHORDS);
+        this.chordOffsets = intColumn(buffer, offsets, lengths, CHORD_OFFSETS);
+        this.chordLengths = intColumn(buffer, offsets, lengths, CHORD_LENGTHS);
+        this.bassLengths = intColumn(buffer, offsets, lengths, BASS_LENGTHS);
+        this.contentHashes = intColumn(buffer, offsets, lengths, CONTENT_HASHES);
+        buffer.limit(offsets[CHARS] + lengths[CHARS] * 2).position(offsets[CHARS]);
+        this.chars = buffer.slice().asCharBuffer();
+
+        this.chordNodes = new ChordNode[counts[4]];
+        for (int i = 0; i < chordNodes.length; i++) {
+            int offset = chordOffsets.get(i);
+            String chord = getString(offset, chordLengths.get(i));
+            chordNodes[i] = new ChordNode(chord, getString(offset + chord.length(), bassLengths.get(i)));
+        }
+
+        String localeTag = getString(image.slice().getInt(32), image.slice().getInt(36));
+        this.titleLocale = (localeTag == null) ? null : Locale.forLanguageTag(localeTag);
+        this.titleOrder = (titleLocale == null) ? null : intColumn(image.slice(), offsets, lengths, TITLE_ORDER);
+        this.titleSortKeys = (titleLocale == null) ? null : intColumn(image.slice(), offsets, lengths, TITLE_SORT_KEYS);
+    }
+
+
+    /** @return List of flyweight views of the songs. */
+    @Override
+    public List<SongNode> getSongNodeList() {
+        return songList;
+    }
+
+
+    /** @return Locale of the title index (null if the song book has no title index). */
+    public Locale getTitleLocale() {
+        return titleLocale;
+    }
+
+
+    /** @return Songs sorted by title by the collator of the title locale (null if the song book has no title index). */
+    public List<SongNode> getSongNodeListByTitle() {
+        if (titleOrder == null) {
+            return null;
+        }
+        return new AbstractList<SongNode>() {
+            @Override
+            public SongNode get(int index) {
+                return songList.get(titleOrder.get(index));
+            }
+
+            @Override
+            public int size() {
+                return songCount;
+            }
+        };
+    }
+
+
+    /**
+     * Compares the titles of two songs using the title index, without comparing the titles themselves.
+     * @param song1  First song.
+     * @param song2  Second song.
+     * @param locale Locale of the collator by which the titles should be compared.
+     * @return Result of the comparison or null if the songs are not views of the same song book having
+     *         the title index for the locale.
+     */
+    public static Integer compareTitles(SongNode song1, SongNode song2, Locale locale) {
+        if (!(song1 instanceof CompactSongNode) || !(song2 instanceof CompactSongNode)) {
+            return null;
+        }
+        CompactSongBook songBook = ((CompactSongNode) song1).getBook();
+        if (songBook != ((CompactSongNode) song2).getBook() || !locale.equals(songBook.titleLocale)) {
+            return null;
+        }
+        int key1 = songBook.titleSortKeys.get(((CompactSongNode) song1).song);
+        int key2 = songBook.titleSortKeys.get(((CompactSongNode) song2).song);
+        return (key1 < key2) ? -1 : ((key1 == key2) ? 0 : 1);
+    }
+
+
+    /** @return Number of characters in the text pool. */
+    public int getCharCount() {
+        return chars.limit();
+    }
+
+
+    /** @return Number of distinct chords of the song book. */
+    public int getChordCount() {
+        return chordNodes.length;
+    }
+
+
+    /**
+     * Writes the binary image of the song book.
+     * @param channel     Channel to which the image is written.
+     * @param titleLocale Locale of the collator by which the title index is created (null for no title index).
+     * @throws IOException If the image could not be written.
+     */
+    public void writeImage(WritableByteChannel channel, Locale titleLocale) throws IOException {
+        int verseCount = songVerseStarts.get(songCount);
+        int lineCount = verseLineStarts.get(verseCount);
+        int fragmentCount = lineFragmentStarts.get(lineCount);
+        String localeTag = (titleLocale == null) ? null : titleLocale.toLanguageTag();
+        int charCount = chars.limit() + ((localeTag == null) ? 0 : localeTag.length());
+        int[] lengths = getColumnLengths(songCount, verseCount, lineCount, fragmentCount, chordNodes.length, charCount, localeTag != null);
+        int[] offsets = getColumnOffsets(lengths);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        IntBuffer header = IntBuffer.allocate(HEADER_INTS);
+        header.put(IMAGE_MAGIC).put(IMAGE_VERSION).put(songCount).put(verseCount).put(lineCount).put(fragmentCount)
+                .put(chordNodes.length).put(charCount)
+                .put(localeTag == null ? 0 : chars.limit()).put(localeTag == null ? -1 : localeTag.length())
+                .put(offsets);
+        header.flip();
+        writeInts(channel, buffer, header);
+        writeInts(channel, buffer, titleOffsets);
+        writeInts(channel, buffer, titleLengths);
+        writeInts(channel, buffer, subTitleLengths);
+        writeInts(channel, buffer, sourcePathOffsets);
+        writeInts(channel, buffer, sourcePathLengths);
+        writeInts(channel, buffer, indexes);
+        writeInts(channel, buffer, songVerseStarts);
+        writeInts(channel, buffer, verseLineStarts);
+        writeInts(channel, buffer, lineFragmentStarts);
+        writeInts(channel, buffer, fragmentOffsets);
+        writeInts(channel, buffer, fragmentChords);
+        writeInts(channel, buffer, chordOffsets);
+        writeInts(channel, buffer, chordLengths);
+        writeInts(channel, buffer, bassLengths);
+        writeInts(channel, buffer, contentHashes);
+        if (localeTag != null) {
+            int[][] titleIndex = createTitleIndex(titleLocale);
+            writeInts(channel, buffer, IntBuffer.wrap(titleIndex[0]));
+            writeInts(channel, buffer, IntBuffer.wrap(titleIndex[1]));
+        }
+        writeChars(channel, buffer, chars.duplicate());
+        if (localeTag != null) {
+            writeChars(channel, buffer, CharBuffer.wrap(localeTag));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    /** @return Title order and title sort keys of the songs. */
+    private int[][] createTitleIndex(Locale locale) {
+        Collator collator = Collator.getInstance(locale);
+        CollationKey[] keys = new CollationKey[songCount];
+        Integer[] order = new Integer[songCount];
+        for (int i = 0; i < songCount; i++) {
+            String title = getString(titleOffsets.get(i), titleLengths.get(i));
+            keys[i] = collator.getCollationKey(title == null ? "" : title);
+            order[i] = i;
+        }
+        Arrays.sort(order, (song1, song2) -> keys[song1].compareTo(keys[song2]));
+
+        int[] titleOrder = new int[songCount];
+        int[] titleSortKeys = new int[songCount];
+        for (int i = 0; i < songCount; i++) {
+            titleOrder[i] = order[i];
+            boolean sameTitle = i > 0 && keys[order[i]].compareTo(keys[order[i - 1]]) == 0;
+            titleSortKeys[order[i]] = sameTitle ? titleSortKeys[order[i - 1]] : i;
+        }
+        return new int[][] { titleOrder, titleSortKeys };
+    }
+
+
+    private static int[] getColumnLengths(int songCount, int verseCount, int lineCount, int fragmentCount, int chordCount,
+                                          int charCount, boolean hasTitleIndex) {
+        int[] lengths = new int[COLUMN_COUNT];
+        Arrays.fill(lengths, TITLE_OFFSETS, INDEXES + 1, songCount);
+        lengths[SONG_VERSE_STARTS] = songCount + 1;
+        lengths[VERSE_LINE_STARTS] = verseCount + 1;
+        lengths[LINE_FRAGMENT_STARTS] = lineCount + 1;
+        lengths[FRAGMENT_OFFSETS] = fragmentCount;
+        lengths[FRAGMENT_CHORDS] = fragmentCount;
+        Arrays.fill(lengths, CHORD_OFFSETS, BASS_LENGTHS + 1, chordCount);
+        lengths[CONTENT_HASHES] = songCount * 4;
+        lengths[TITLE_ORDER] = hasTitleIndex ? songCount : 0;
+        lengths[TITLE_SORT_KEYS] = hasTitleIndex ? songCount : 0;
+        lengths[CHARS] = charCount;
+        return lengths;
+    }
+
+
+    /** @return Offsets of the columns in bytes from the start of the image (the int columns precede the character pool). */
+    private static int[] getColumnOffsets(int[] lengths) {
+        int[] offsets = new int[COLUMN_COUNT];
+        long offset = HEADER_INTS * 4;
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            offsets[i] = (int) offset;
+            offset += lengths[i] * 4L;
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Song book image exceeds 2GB.");
+            }
+        }
+        return offsets;
+    }
+
+
+    private static IntBuffer intColumn(ByteBuffer buffer, int[] offsets, int[] lengths, int column) {
+        buffer.limit(offsets[column] + lengths[column] * 4).position(offsets[column]);
+        return buffer.slice().asIntBuffer();
+    }
+
+
+    private static void writeInts(WritableByteChannel channel, ByteBuffer buffer, IntBuffer column) throws IOException {
+        for (int i = column.position(); i < column.limit(); i++) {
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(column.get(i));
+        }
+    }
+
+
+    private static void writeChars(WritableByteChannel channel, ByteBuffer buffer, CharBuffer pool) throws IOException {
+        for (int i = pool.position(); i < pool.limit(); i++) {
+            if (buffer.remaining() < 2) {
+                flush(channel, buffer);
+            }
+            buffer.putChar(pool.get(i));
+        }
+    }
+
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    private String getString(int offset, int length) {
+        if (length < 0) {
+            return null;
+        }
+        if (chars.hasArray()) {
+            return new String(chars.array(), chars.arrayOffset() + offset, length);
+        }
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = chars.get(offset + i);
+        }
+        return new String(text);
+    }
+
+
+    private List<VerseNode> createVerseList(int song) {
+        int verseEnd = songVerseStarts.get(song + 1);
+        List<VerseNode> verseList = new ArrayList<VerseNode>(verseEnd - songVerseStarts.get(song));
+        for (int verse = songVerseStarts.get(song); verse < verseEnd; verse++) {
+            int lineEnd = verseLineStarts.get(verse + 1);
+            List<LineNode> lines = new ArrayList<LineNode>(lineEnd - verseLineStarts.get(verse));
+            for (int line = verseLineStarts.get(verse); line < lineEnd; line++) {
+                int fragmentEnd = lineFragmentStarts.get(line + 1);
+                List<Node> contentList = new ArrayList<Node>(fragmentEnd - lineFragmentStarts.get(line));
+                for (int fragment = lineFragmentStarts.get(line); fragment < fragmentEnd; fragment++) {
+                    int chord = fragmentChords.get(fragment);
+                    if (chord < 0) {
+                        contentList.add(new TextNode(getString(fragmentOffsets.get(fragment), ~chord)));
+                    } else {
+                        contentList.add(chordNodes[chord]);
+                    }
+                }
+                lines.add(new LineNode(contentList));
+            }
+            verseList.add(new VerseNode(lines));
+        }
+        return verseList;
+    }
+
+
+    /** Read-only list of the song views. */
+    private class SongListView extends AbstractList<SongNode> {
+        @Override
+        public SongNode get(int index) {
+            if (index < 0 || index >= songCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + songCount);
+            }
+            return new CompactSongNode(index);
+        }
+
+
+        @Override
+        public int size() {
+            return songCount;
+        }
+    }
+
+
+    /**
+     * Flyweight view of a song of the song book - the title is created on the first access. The source file
+     * and the index are read from the columns, except for the copies created by the {@code with*} methods.
+     */
+    private class CompactSongNode extends SongNode {
+        private final int song;
+        private final boolean columnMetadata;
+        private TitleNode titleNode;   // Racy single-check - TitleNode is immutable, so it is safely published
+
+
+        CompactSongNode(int song) {
+            super(null, new ArrayList<VerseNode>(0));
+            this.song = song;
+            this.columnMetadata = true;
+        }
+
+
+        private CompactSongNode(CompactSongNode songNode, File sourceFile, Integer index) {
+            super(songNode, sourceFile, index);
+            this.song = songNode.song;
+            this.columnMetadata = false;
+            this.titleNode = songNode.titleNode;
+        }
+
+
+        @Override
+        public TitleNode getTitleNode() {
+            TitleNode result = titleNode;
+            if (result == null) {
+                int offset = titleOffsets.get(song);
+                int length = titleLengths.get(song);
+                result = new TitleNode(getString(offset, length), getString(offset + Math.max(length, 0), subTitleLengths.get(song)));
+                titleNode = result;
+            }
+            return result;
+        }
+
+
+        @Override
+        public List<VerseNode> getVerseList() {
+            return createVerseList(song);
+        }
+
+
+        @Override
+        public ContentHash getContentHash() {
+            int offset = song * 4;
+            return new ContentHash(((long) contentHashes.get(offset) << 32) | (contentHashes.get(offset + 1) & 0xffffffffL),
+                    ((long) contentHashes.get(offset + 2) << 32) | (contentHashes.get(offset + 3) & 0xffffffffL));
+        }
+
+
+        @Override
+        protected ContentHash getComputedContentHash() {
+            return getContentHash();
+        }
+
+
+        @Override
+        public File getSourceFile() {
+            if (!columnMetadata) {
+                return super.getSourceFile();
+            }
+            String path = getString(sourcePathOffsets.get(song), sourcePathLengths.get(song));
+            return path == null ? null : new File(path);
+        }
+
+
+        @Override
+        public Integer getIndex() {
+            if (!columnMetadata) {
+                return super.getIndex();
+            }
+            int index = indexes.get(song);
+            return index == NO_INDEX ? null : Integer.valueOf(index);
+        }
+
+
+        @Override
+        protected SongNode copy(File sourceFile, Integer index) {
+            return new CompactSongNode(this, sourceFile, index);
+        }
+
+
+        /** Views of the same song are compared without creating their verses. */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof CompactSongNode && ((CompactSongNode) obj).getBook() == getBook() && ((CompactSongNode) obj).song == song) {
+                CompactSongNode other = (CompactSongNode) obj;
+                return Objects.equals(other.getIndex(), getIndex()) && Objects.equals(other.getSourceFile(), getSourceFile());
+            }
+            return super.equals(obj);
+        }
+
+
+        private CompactSongBook getBook() {
+            return CompactSongBook.this;
+        }
+    }
+
+
+    /**
+     * Builder of the CompactSongBook - the songs are copied to the columns one by one, so a large song book
+     * can be built directly from the loaded songs without keeping their trees (e.g. {@code builder::add}
+     * as the sink of the loader).
+     */
+    public static class Builder {
+        private char[] chars = new char[4096];
+        private int charCount;
+
+        private int songCount;
+        private int[] titleOffsets = new int[64];
+        private int[] titleLengths = new int[64];
+        private int[] subTitleLengths = new int[64];
+        private int[] sourcePathOffsets = new int[64];
+        private int[] sourcePathLengths = new int[64];
+        private int[] indexes = new int[64];
+        private int[] songVerseStarts = new int[65];
+        private int[] contentHashes = new int[256];
+
+        private int verseCount;
+        private int[] verseLineStarts = new int[256];
+
+        private int lineCount;
+        private int[] lineFragmentStarts = new int[1024];
+
+        private int fragmentCount;
+        private int[] fragmentOffsets = new int[4096];
+        private int[] fragmentChords = new int[4096];
+
+        private final List<ChordNode> chordNodes = new ArrayList<ChordNode>();
+        private final Map<ChordSymbol, Integer> chordIds = new HashMap<ChordSymbol, Integer>();
+        private int[] chordOffsets = new int[256];
+        private int[] chordLengths = new int[256];
+        private int[] bassLengths = new int[256];
+
+
+        /**
+         * Appends a copy of the song.
+         * @param songNode Song to be appended.
+         * @return This builder.
+         */
+        public synchronized Builder add(SongNode songNode) {
+            if (songCount == titleOffsets.length) {
+                int capacity = songCount * 2;
+                titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+                titleLengths = Arrays.copyOf(titleLengths, capacity);
+                subTitleLengths = Arrays.copyOf(subTitleLengths, capacity);
+                sourcePathOffsets = Arrays.copyOf(sourcePathOffsets, capacity);
+                sourcePathLengths = Arrays.copyOf(sourcePathLengths, capacity);
+                indexes = Arrays.copyOf(indexes, capacity);
+                songVerseStarts = Arrays.copyOf(songVerseStarts, capacity + 1);
+                contentHashes = Arrays.copyOf(contentHashes, capacity * 4);
+            }
+            TitleNode titleNode = songNode.getTitleNode();
+            titleOffsets[songCount] = charCount;
+            titleLengths[songCount] = appendString(titleNode.getTitle());
+            subTitleLengths[songCount] = appendString(titleNode.getSubTitle());
+            File sourceFile = songNode.getSourceFile();
+            sourcePathOffsets[songCount] = charCount;
+            sourcePathLengths[songCount] = appendString(sourceFile == null ? null : sourceFile.getPath());
+            Integer index = songNode.getIndex();
+            indexes[songCount] = index == null ? NO_INDEX : index;
+            ContentHash contentHash = songNode.getContentHash();
+            contentHashes[songCount * 4] = (int) (contentHash.getHigh() >>> 32);
+            contentHashes[songCount * 4 + 1] = (int) contentHash.getHigh();
+            contentHashes[songCount * 4 + 2] = (int) (contentHash.getLow() >>> 32);
+            contentHashes[songCount * 4 + 3] = (int) contentHash.getLow();
+
+            for (VerseNode verseNode : songNode.getVerseList()) {
+                for (LineNode lineNode : verseNode.getLineNodes()) {
+                    for (Node node : lineNode.getContentList()) {
+                        addFragment(node);
+                    }
+                    lineCount++;
+                    lineFragmentStarts = ensureCapacity(lineFragmentStarts, lineCount + 1);
+                    lineFragmentStarts[lineCount] = fragmentCount;
+                }
+                verseCount++;
+                verseLineStarts = ensureCapacity(verseLineStarts, verseCount + 1);
+                verseLineStarts[verseCount] = lineCount;
+            }
+            songCount++;
+            songVerseStarts[songCount] = verseCount;
+            return this;
+        }
+
+
+        /**
+         * Appends copies of the songs.
+         * @param songList Songs to be appended.
+         * @return This builder.
+         */
+        public Builder addAll(Collection<? extends SongNode> songList) {
+            for (SongNode songNode : songList) {
+                add(songNode);
+            }
+            return this;
+        }
+
+
+        /** @return New song book containing the songs appended so far. */
+        public synchronized CompactSongBook build() {
+            return new CompactSongBook(this);
+        }
+
+
+        private void addFragment(Node node) {
+            if (fragmentCount == fragmentOffsets.length) {
+                fragmentOffsets = Arrays.copyOf(fragmentOffsets, fragmentOffsets.length * 2);
+                fragmentChords = Arrays.copyOf(fragmentChords, fragmentOffsets.length);
+            }
+            if (node instanceof TextNode) {
+                fragmentOffsets[fragmentCount] = charCount;
+                fragmentChords[fragmentCount] = ~Math.max(appendString(((TextNode) node).getText()), 0);
+            } else if (node instanceof ChordNode) {
+                fragmentChords[fragmentCount] = getChordId(((ChordNode) node).getSymbol());
+            } else {
+                return;
+            }
+            fragmentCount++;
+        }
+
+
+        private int getChordId(ChordSymbol symbol) {
+            Integer chordId = chordIds.get(symbol);
+            if (chordId == null) {
+                chordId = chordNodes.size();
+                chordIds.put(symbol, chordId);
+                chordNodes.add(new ChordNode(symbol));
+                chordOffsets = ensureCapacity(chordOffsets, chordId + 1);
+                chordLengths = ensureCapacity(chordLengths, chordId + 1);
+                bassLengths = ensureCapacity(bassLengths, chordId + 1);
+                chordOffsets[chordId] = charCount;
+                chordLengths[chordId] = appendString(symbol.getChord());
+                bassLengths[chordId] = appendString(symbol.getBass());
+            }
+            return chordId;
+        }
+
+
+        /** @return Length of the appended string (-1 for null). */
+        private int appendString(String string) {
+            if (string == null) {
+                return -1;
+            }
+            int length = string.length();
+            if (charCount + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+            }
+            string.getChars(0, length, chars, charCount);
+            charCount += length;
+            return length;
+        }
+
+
+        private static int[] ensureCapacity(int[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(array.length * 2, size));
+        }
+    }
+}
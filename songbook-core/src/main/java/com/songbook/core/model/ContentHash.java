@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+/**
+ * 128-bit structural hash of the content of a node (see {@link SongNode#getContentHash()}).
+ * <p>
+ * The hash depends only on the content (texts and chords) and its structure, never on the identity of the objects,
+ * the JVM or the platform - it is stable across runs, so it may be persisted and compared with the hashes computed
+ * elsewhere (caches, exports). It is not a cryptographic hash.
+ * @author Tomas Janecek
+ */
+public final class ContentHash {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+
+    /**
+     * Constructor - creates a hash from its two halves (e.g. read from a persisted form).
+     * @param high Upper 64 bits of the hash.
+     * @param low  Lower 64 bits of the hash.
+     */
+    public ContentHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+
+    /** @return Upper 64 bits of the hash. */
+    public long getHigh() {
+        return high;
+    }
+
+
+    /** @return Lower 64 bits of the hash. */
+    public long getLow() {
+        return low;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ContentHash)) {
+            return false;
+        }
+        ContentHash other = (ContentHash) obj;
+        return other.high == high && other.low == low;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+
+    /** @return Hash as 32 hexadecimal digits. */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+
+    /**
+     * Incremental computation of the hash (mixing function of MurmurHash3 x64/128) - the values are hashed
+     * in the order in which they are put.
+     */
+    public static final class Hasher {
+        private long h1;
+        private long h2;
+        private long length;
+
+
+        /**
+         * Constructor - creates a hasher.
+         * @param kind Kind of the hashed node, so that the different kinds of nodes with the same content have different hashes.
+         */
+        public Hasher(int kind) {
+            this.h1 = kind;
+            this.h2 = kind;
+        }
+
+
+        public Hasher putLong(long value) {
+            long k1 = Long.rotateLeft(value * C1, 31) * C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            long k2 = Long.rotateLeft(value * C2, 33) * C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+
+            length++;
+            return this;
+        }
+
+
+        public Hasher putInt(int value) {
+            return putLong(value);
+        }
+
+
+        /**
+         * Puts the string - its length and its characters (4 characters per 64 bits).
+         * @param text String to be hashed (may be null).
+         * @return This hasher.
+         */
+        public Hasher putString(String text) {
+            if (text == null) {
+                return putLong(-1);
+            }
+            putLong(text.length());
+            for (int i = 0; i < text.length(); i += 4) {
+                long value = 0;
+                for (int j = Math.min(text.length(), i + 4) - 1; j >= i; j--) {
+                    value = (value << 16) | text.charAt(j);
+                }
+                putLong(value);
+            }
+            return this;
+        }
+
+
+        public Hasher putHash(ContentHash hash) {
+            return putLong(hash.high).putLong(hash.low);
+        }
+
+
+        /** @return Hash of the values put so far. */
+        public ContentHash hash() {
+            long r1 = h1 ^ length;
+            long r2 = h2 ^ length;
+            r1 += r2;
+            r2 += r1;
+            r1 = mix(r1);
+            r2 = mix(r2);
+            r1 += r2;
+            r2 += r1;
+            return new ContentHash(r1, r2);
+        }
+
+
+        private static long mix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Song whose body (verses) is parsed on the first access - only the title is known when the song is loaded.
+ * The parsed verses are kept, the body parser (and the song text it holds) is released after the parse.
+ * Thread-safe - the body is parsed at most once (also for the copies created by the {@code with*} methods,
+ * which share the body).
+ * @author Tomas Janecek
+ */
+public class LazySongNode extends SongNode {
+    /** Body of the song shared by the copies of the song. */
+    private final Body body;
+
+
+    /**
+     * Constructor - creates an instance of LazySongNode.
+     * @param titleNode  Title of the song.
+     * @param bodyParser Parser of the verses of the song (invoked once on the first access).
+     */
+    public LazySongNode(TitleNode titleNode, Supplier<List<VerseNode>> bodyParser) {
+        this(titleNode, bodyParser, null, null);
+    }
+
+
+    /**
+     * Constructor - creates an instance of LazySongNode.
+     * @param titleNode  Title of the song.
+     * @param bodyParser Parser of the verses of the song (invoked once on the first access).
+     * @param sourceFile Source file from which the song was created (may be null).
+     * @param index      Song book index determining the position in the song book (may be null).
+     */
+    public LazySongNode(TitleNode titleNode, Supplier<List<VerseNode>> bodyParser, File sourceFile, Integer index) {
+        super(titleNode, Collections.<VerseNode>emptyList(), sourceFile, index);
+        this.body = new Body(bodyParser);
+    }
+
+
+    private LazySongNode(LazySongNode songNode, File sourceFile, Integer index) {
+        super(songNode, sourceFile, index);
+        this.body = songNode.body;
+    }
+
+
+    /** @return True if the body of the song was already parsed. */
+    public boolean isBodyParsed() {
+        return body.verseList != null;
+    }
+
+
+    /** @return List of VerseNodes of the song (the body is parsed on the first call). */
+    @Override
+    public List<VerseNode> getVerseList() {
+        return body.get();
+    }
+
+
+    /** @return Structural hash of the title and the verses (the body is parsed on the first call). */
+    @Override
+    public ContentHash getContentHash() {
+        ContentHash result = body.contentHash;
+        if (result == null) {
+            result = hashOf(getTitleNode(), getVerseList());
+            body.contentHash = result;
+        }
+        return result;
+    }
+
+
+    /** @return Content hash or null if the body of the song is not parsed yet. */
+    @Override
+    protected ContentHash getComputedContentHash() {
+        return isBodyParsed() ? getContentHash() : null;
+    }
+
+
+    @Override
+    protected SongNode copy(File sourceFile, Integer index) {
+        return new LazySongNode(this, sourceFile, index);
+    }
+
+
+    /** Verses of the song parsed on the first access. */
+    private static class Body {
+        /** List of Verses of the song (null until the body is parsed). */
+        private volatile List<VerseNode> verseList;
+
+        /** Parser of the body (null once the body is parsed). */
+        private Supplier<List<VerseNode>> bodyParser;
+
+        /** Content hash of the song (null until computed). */
+        private volatile ContentHash contentHash;
+
+
+        Body(Supplier<List<VerseNode>> bodyParser) {
+            this.bodyParser = bodyParser;
+        }
+
+
+        List<VerseNode> get() {
+            List<VerseNode> result = verseList;
+            if (result == null) {
+                synchronized (this) {
+                    result = verseList;
+                    if (result == null) {
+                        result = Collections.unmodifiableList(bodyParser.get());
+                        verseList = result;
+                        bodyParser = null;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
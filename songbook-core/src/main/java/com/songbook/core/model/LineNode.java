@@ -17,6 +17,7 @@
  */
 package com.songbook.core.model;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -25,27 +26,68 @@ import java.util.List;
  * @author Tomas Janecek
  */
 public class LineNode implements Node {
+    /** Kinds of the line and of its fragments in the content hash. */
+    static final int HASH_KIND = 4;
+    private static final int TEXT_HASH_KIND = 5;
+    private static final int CHORD_HASH_KIND = 6;
+
     /** True if the line has chords. */
     private final boolean hasChords;
 
     /** List of fragments contained on the line (ChordNode or TextNode classes). */
     private final List<Node> contentList;
 
+    /** Offset of the first character of the line in the parsed text (-1 if not known). */
+    private final int sourceStart;
+
+    /** Offset after the last character of the line including its line terminators (-1 if not known). */
+    private final int sourceEnd;
+
+    /** Structural hash of the fragments (not including the source span). */
+    private final ContentHash contentHash;
+
     /**
      * Constructor - Creates the new instance of LineNode.
      * @param contentList List of fragments contained on the line (CharNode or TextNode classes).
      */
     public LineNode(List<Node> contentList) {
-        this.contentList = Collections.unmodifiableList(contentList);
+        this(contentList, -1, -1);
+    }
+
+
+    /**
+     * Constructor - Creates the new instance of LineNode parsed from the given part of the text.
+     * @param contentList List of fragments contained on the line (CharNode or TextNode classes) - the list is copied.
+     * @param sourceStart Offset of the first character of the line in the parsed text.
+     * @param sourceEnd   Offset after the last character of the line (including the line terminators).
+     */
+    public LineNode(List<Node> contentList, int sourceStart, int sourceEnd) {
+        this.contentList = Collections.unmodifiableList(new ArrayList<Node>(contentList));
+        this.sourceStart = sourceStart;
+        this.sourceEnd = sourceEnd;
 
         boolean hasChords = false;
-        for (Node node : contentList) {
+        ContentHash.Hasher hasher = new ContentHash.Hasher(HASH_KIND).putInt(this.contentList.size());
+        for (Node node : this.contentList) {
             if (node instanceof ChordNode) {
                 hasChords = true;
-                break;
+                ChordSymbol symbol = ((ChordNode) node).getSymbol();
+                hasher.putInt(CHORD_HASH_KIND).putString(symbol.getChord()).putString(symbol.getBass());
+            } else if (node instanceof TextNode) {
+                hasher.putInt(TEXT_HASH_KIND).putString(((TextNode) node).getText());
             }
         }
         this.hasChords = hasChords;
+        this.contentHash = hasher.hash();
+    }
+
+
+    private LineNode(LineNode lineNode, int delta) {
+        this.contentList = lineNode.contentList;
+        this.hasChords = lineNode.hasChords;
+        this.contentHash = lineNode.contentHash;
+        this.sourceStart = lineNode.sourceStart + delta;
+        this.sourceEnd = lineNode.sourceEnd + delta;
     }
 
 
@@ -61,6 +103,34 @@ public class LineNode implements Node {
     }
 
 
+    /** @return Structural hash of the fragments of the line (the source span is not included). */
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+
+    /** @return Offset of the first character of the line in the parsed text (-1 if not known). */
+    public int getSourceStart() {
+        return sourceStart;
+    }
+
+
+    /** @return Offset after the last character of the line including its line terminators (-1 if not known). */
+    public int getSourceEnd() {
+        return sourceEnd;
+    }
+
+
+    /**
+     * Creates a copy of the line moved by the given number of characters in the parsed text.
+     * @param delta Number of characters by which the line is moved.
+     * @return Moved line.
+     */
+    public LineNode shift(int delta) {
+        return new LineNode(this, delta);
+    }
+
+
     /**
      * Accepts the visitor (as per the Visitor design pattern).
      * @param visitor Visitor to be accepted.
@@ -83,6 +153,24 @@ public class LineNode implements Node {
     }
 
 
+    /** Lines are equal if they have equal fragments (the source spans are not compared). */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof LineNode && contentHash.equals(((LineNode) obj).contentHash)
+                && contentList.equals(((LineNode) obj).contentList);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return contentHash.hashCode();
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -18,30 +18,44 @@
 package com.songbook.core.model;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import com.songbook.core.visitor.SearchTextBuilderVisitor;
 
 /**
  * Class representing the Song.
+ * <p>
+ * The song is immutable - the source file and the song book index are set when the song is created
+ * (see {@link Builder}), the {@code with*} methods create modified copies sharing the verses.
+ * The derived data is computed once - the structural content hash (see {@link #getContentHash()}) when the song
+ * is created, the search text on the first access - and safely published, so the songs may be shared by any
+ * threads without synchronization.
  * @author Tomas Janecek
  */
 public class SongNode implements Node {
+    /** Kind of the node in the content hash. */
+    static final int HASH_KIND = 2;
+
     /** Title of the Song. */
     private final TitleNode titleNode;
 
     /** List of Verses of the song (represented by VerseNode classes). */
     private final List<VerseNode> verseList;
 
-    /** Text representation of the song used for full text search. */
-    private String searchText;
-
     /** Source file (may be null). */
-    private File sourceFile;
+    private final File sourceFile;
 
     /** SongBook Index (may be null). */
-    private Integer index;
+    private final Integer index;
+
+    /** Structural hash of the title and the verses. */
+    private final ContentHash contentHash;
+
+    /** Text representation of the song used for full text search (null until computed). */
+    private volatile String searchText;
 
 
     /**
@@ -50,18 +64,99 @@ public class SongNode implements Node {
      * @param verseList List of verses of the song (represented by VerseNode classes).
      */
     public SongNode(TitleNode titleNode, List<VerseNode> verseList) {
+        this(titleNode, verseList, null, null);
+    }
+
+
+    /**
+     * Constructor - creates an instance of SongNode.
+     * @param titleNode  Title of the song.
+     * @param verseList  List of verses of the song (represented by VerseNode classes) - the list is copied.
+     * @param sourceFile Source file from which the song was created (may be null).
+     * @param index      Song book index determining the position in the song book (may be null).
+     */
+    public SongNode(TitleNode titleNode, List<VerseNode> verseList, File sourceFile, Integer index) {
         this.titleNode = titleNode;
-        this.verseList = Collections.unmodifiableList(verseList);
+        this.verseList = Collections.unmodifiableList(new ArrayList<VerseNode>(verseList));
+        this.sourceFile = sourceFile;
+        this.index = index;
+        this.contentHash = hashOf(titleNode, this.verseList);
     }
 
 
+    /**
+     * Copy constructor for the subclasses - the copy shares the title and the verses of the song.
+     * @param songNode   Copied song.
+     * @param sourceFile Source file of the copy.
+     * @param index      Song book index of the copy.
+     */
+    protected SongNode(SongNode songNode, File sourceFile, Integer index) {
+        this.titleNode = songNode.titleNode;
+        this.verseList = songNode.verseList;
+        this.sourceFile = sourceFile;
+        this.index = index;
+        this.contentHash = songNode.contentHash;
+        this.searchText = songNode.searchText;
+    }
+
+
+    /** @return Text representation of the song used for full text search (computed once). */
     public String getSearchText() {
-        if (searchText == null) {
-            SearchTextBuilderVisitor visitor = new SearchTextBuilderVisitor();
-            this.accept(visitor);
-            searchText = visitor.getResult();
+        String result = searchText;
+        if (result == null) {
+            synchronized (this) {
+                result = searchText;
+                if (result == null) {
+                    SearchTextBuilderVisitor visitor = new SearchTextBuilderVisitor();
+                    this.accept(visitor);
+                    result = visitor.getResult();
+                    searchText = result;
+                }
+            }
         }
-        return searchText;
+        return result;
+    }
+
+
+    /**
+     * Returns the structural hash of the song - equal for the songs with equal titles and verses regardless
+     * of their source files, song book indexes and source spans, and stable across runs (see {@link ContentHash}).
+     * Subclasses which create the verses on demand override it.
+     * @return Structural hash of the title and the verses.
+     */
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+
+    /**
+     * Returns the content hash if it is available without creating or parsing the verses - used to tell apart
+     * the songs in {@link #equals(Object)} without parsing the lazily loaded ones.
+     * @return Content hash or null if it is not computed yet.
+     */
+    protected ContentHash getComputedContentHash() {
+        return contentHash;
+    }
+
+
+    /**
+     * Computes the structural hash of a song.
+     * @param titleNode Title of the song (may be null).
+     * @param verseList Verses of the song.
+     * @return Structural hash of the title and the verses.
+     */
+    protected static ContentHash hashOf(TitleNode titleNode, List<VerseNode> verseList) {
+        ContentHash.Hasher hasher = new ContentHash.Hasher(HASH_KIND);
+        if (titleNode == null) {
+            hasher.putInt(0);
+        } else {
+            hasher.putInt(TitleNode.HASH_KIND).putHash(titleNode.getContentHash());
+        }
+        hasher.putInt(verseList.size());
+        for (VerseNode verseNode : verseList) {
+            hasher.putHash(verseNode.getContentHash());
+        }
+        return hasher.hash();
     }
 
 
@@ -72,11 +167,12 @@ public class SongNode implements Node {
 
 
     /**
-     * Sets the source file.
-     * @param sourceFile Source file from which this node was created.
+     * Creates a copy of the song with the given source file.
+     * @param sourceFile Source file from which the song was created.
+     * @return Copy of the song (sharing the verses).
      */
-    public void setSourceFile(File sourceFile) {
-        this.sourceFile = sourceFile;
+    public SongNode withSourceFile(File sourceFile) {
+        return copy(sourceFile, getIndex());
     }
 
 
@@ -86,15 +182,42 @@ public class SongNode implements Node {
     }
 
 
-    /** Sets the song book index determining the position in the song book. */
-    public void setIndex(Integer index) {
-        this.index = index;
+    /**
+     * Creates a copy of the song with the given song book index.
+     * @param index Song book index determining the position in the song book (may be null).
+     * @return Copy of the song (sharing the verses).
+     */
+    public SongNode withIndex(Integer index) {
+        return copy(getSourceFile(), index);
+    }
+
+
+    /**
+     * Creates a copy of the song with the given source file and song book index.
+     * @param sourceFile Source file from which the song was created.
+     * @param index      Song book index determining the position in the song book (may be null).
+     * @return Copy of the song (sharing the verses).
+     */
+    public SongNode withSourceFileAndIndex(File sourceFile, Integer index) {
+        return copy(sourceFile, index);
+    }
+
+
+    /**
+     * Creates a copy of the song with the given source file and song book index - overridden by the subclasses
+     * so that the copy is of the same kind (e.g. a lazy song stays lazy).
+     * @param sourceFile Source file of the copy.
+     * @param index      Song book index of the copy.
+     * @return Copy of the song (sharing the verses).
+     */
+    protected SongNode copy(File sourceFile, Integer index) {
+        return new SongNode(this, sourceFile, index);
     }
 
 
     /** @return the title of the song. */
     public String getTitle() {
-        return titleNode.getFullTitle();
+        return getTitleNode().getFullTitle();
     }
 
 
@@ -117,8 +240,9 @@ public class SongNode implements Node {
     public void accept(Visitor visitor) {
         visitor.enterSongNode(this);
 
-        titleNode.accept(visitor);
+        getTitleNode().accept(visitor);
 
+        List<VerseNode> verseList = getVerseList();
         for (int i=0; i<verseList.size(); i++) {
             VerseNode verseNode = verseList.get(i);
             verseNode.accept(visitor, i==0, (i+1) == verseList.size() );
@@ -128,18 +252,115 @@ public class SongNode implements Node {
     }
 
 
+    /**
+     * Songs are equal if they have the same source file, song book index, title and verses - the source file, index
+     * and title are compared first, then the content hashes (only if both are computed - the lazily loaded songs are
+     * not parsed to tell them apart), the verses are compared last.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SongNode)) {
+            return false;
+        }
+        SongNode other = (SongNode) obj;
+        if (!Objects.equals(getSourceFile(), other.getSourceFile()) || !Objects.equals(getIndex(), other.getIndex())
+                || !Objects.equals(getTitleNode(), other.getTitleNode())) {
+            return false;
+        }
+        ContentHash contentHash = getComputedContentHash();
+        ContentHash otherContentHash = other.getComputedContentHash();
+        if (contentHash != null && otherContentHash != null && !contentHash.equals(otherContentHash)) {
+            return false;
+        }
+        return getVerseList().equals(other.getVerseList());
+    }
+
+
+    /** Hash code of the source file, index and title (the verses of the lazily loaded songs are not parsed). */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getSourceFile(), getIndex(), getTitleNode());
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
         out.append("SongNode[\n");
+        TitleNode titleNode = getTitleNode();
         if (titleNode != null) {
             out.append(titleNode.toString()).append("\n");
         }
-        for (VerseNode verseNode : verseList) {
+        for (VerseNode verseNode : getVerseList()) {
             out.append( verseNode.toString()).append(",\n");
         }
         out.append("]");
         return out.toString();
     }
+
+
+    /** Builder of the songs - collects the parts of the song, the song is then created at once. */
+    public static class Builder {
+        private TitleNode titleNode;
+        private List<VerseNode> verseList = new ArrayList<VerseNode>();
+        private File sourceFile;
+        private Integer index;
+
+
+        /** Creates a builder of a new song. */
+        public Builder() {
+        }
+
+
+        /**
+         * Creates a builder initialized with the parts of the given song.
+         * @param songNode Song whose title, verses, source file and index are used.
+         */
+        public Builder(SongNode songNode) {
+            this.titleNode = songNode.getTitleNode();
+            this.verseList = new ArrayList<VerseNode>(songNode.getVerseList());
+            this.sourceFile = songNode.getSourceFile();
+            this.index = songNode.getIndex();
+        }
+
+
+        public Builder setTitleNode(TitleNode titleNode) {
+            this.titleNode = titleNode;
+            return this;
+        }
+
+
+        public Builder setVerseList(List<VerseNode> verseList) {
+            this.verseList = new ArrayList<VerseNode>(verseList);
+            return this;
+        }
+
+
+        public Builder addVerse(VerseNode verseNode) {
+            verseList.add(verseNode);
+            return this;
+        }
+
+
+        public Builder setSourceFile(File sourceFile) {
+            this.sourceFile = sourceFile;
+            return this;
+        }
+
+
+        public Builder setIndex(Integer index) {
+            this.index = index;
+            return this;
+        }
+
+
+        /** @return New song. */
+        public SongNode build() {
+            return new SongNode(titleNode, verseList, sourceFile, index);
+        }
+    }
 }
@@ -17,6 +17,7 @@
  */
 package com.songbook.core.model;
 
+import java.util.Objects;
 
 /**
  * Class representing one text fragment in the line.
@@ -59,6 +60,20 @@ public class TextNode implements Node {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof TextNode && Objects.equals(text, ((TextNode) obj).text);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(text);
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -17,21 +17,29 @@
  */
 package com.songbook.core.model;
 
+import java.util.Objects;
+
 public class TitleNode implements Node {
+    /** Kind of the node in the content hash. */
+    static final int HASH_KIND = 1;
+
     private final String title;
     private final String subTitle;
+    private final ContentHash contentHash;
 
 
     public TitleNode(String rawTitle) {
         String[] titleParts = rawTitle.split("-");
         title = titleParts[0].trim();
         subTitle = (titleParts.length > 1) ? titleParts[1].trim() : null;
+        contentHash = new ContentHash.Hasher(HASH_KIND).putString(title).putString(subTitle).hash();
     }
 
 
     public TitleNode(String title, String subTitle) {
         this.title = title;
         this.subTitle = subTitle;
+        this.contentHash = new ContentHash.Hasher(HASH_KIND).putString(title).putString(subTitle).hash();
     }
 
 
@@ -50,6 +58,12 @@ public class TitleNode implements Node {
     }
 
 
+    /** @return Structural hash of the title and the sub-title. */
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+
     /**
      * Accepts the visitor (as per the Visitor design pattern).
      * @param visitor Visitor to be accepted.
@@ -59,6 +73,22 @@ public class TitleNode implements Node {
     }
 
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TitleNode)) {
+            return false;
+        }
+        TitleNode other = (TitleNode) obj;
+        return contentHash.equals(other.contentHash) && Objects.equals(title, other.title) && Objects.equals(subTitle, other.subTitle);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return contentHash.hashCode();
+    }
+
+
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
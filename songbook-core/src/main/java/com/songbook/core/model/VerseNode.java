@@ -17,6 +17,7 @@
  */
 package com.songbook.core.model;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -25,28 +26,62 @@ import java.util.List;
  * @author Tomas Janecek
  */
 public class VerseNode implements Node {
+    /** Kind of the node in the content hash. */
+    static final int HASH_KIND = 3;
+
     /** List of lines in a verse */
     private final List<LineNode> lines;
 
     /** Boolean flag indicating whether the song contains any chords. */
     private final boolean hasChords;
 
+    /** Offset of the first character of the verse in the parsed text (-1 if not known). */
+    private final int sourceStart;
+
+    /** Offset after the last character of the verse including its trailing line terminators (-1 if not known). */
+    private final int sourceEnd;
+
+    /** Structural hash of the lines (not including the source spans). */
+    private final ContentHash contentHash;
+
 
     /**
      * Constructor - Creates a new instance of verseNode representing a Verse.
      * @param lines List of lines in the verse (represented by LineNode classes).
      */
     public VerseNode(List<LineNode> lines) {
-        this.lines = Collections.unmodifiableList(lines);
+        this(lines, -1, -1);
+    }
+
+
+    /**
+     * Constructor - Creates a new instance of verseNode representing a Verse parsed from the given part of the text.
+     * @param lines       List of lines in the verse (represented by LineNode classes) - the list is copied.
+     * @param sourceStart Offset of the first character of the verse in the parsed text.
+     * @param sourceEnd   Offset after the last character of the verse (including the trailing line terminators).
+     */
+    public VerseNode(List<LineNode> lines, int sourceStart, int sourceEnd) {
+        this.lines = Collections.unmodifiableList(new ArrayList<LineNode>(lines));
+        this.sourceStart = sourceStart;
+        this.sourceEnd = sourceEnd;
 
         boolean hasChords = false;
-        for (LineNode lineNode : lines) {
-            if (lineNode.hasChords()) {
-                hasChords = true;
-                break;
-            }
+        ContentHash.Hasher hasher = new ContentHash.Hasher(HASH_KIND).putInt(this.lines.size());
+        for (LineNode lineNode : this.lines) {
+            hasChords |= lineNode.hasChords();
+            hasher.putHash(lineNode.getContentHash());
         }
         this.hasChords = hasChords;
+        this.contentHash = hasher.hash();
+    }
+
+
+    private VerseNode(VerseNode verseNode, List<LineNode> lines, int delta) {
+        this.lines = lines;
+        this.hasChords = verseNode.hasChords;
+        this.contentHash = verseNode.contentHash;
+        this.sourceStart = verseNode.sourceStart + delta;
+        this.sourceEnd = verseNode.sourceEnd + delta;
     }
 
 
@@ -62,6 +97,44 @@ public class VerseNode implements Node {
     }
 
 
+    /** @return Structural hash of the lines of the verse (the source spans are not included). */
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+
+    /** @return True if the position of the verse in the parsed text is known. */
+    public boolean hasSourceSpan() {
+        return sourceStart >= 0;
+    }
+
+
+    /** @return Offset of the first character of the verse in the parsed text (-1 if not known). */
+    public int getSourceStart() {
+        return sourceStart;
+    }
+
+
+    /** @return Offset after the last character of the verse including its trailing line terminators (-1 if not known). */
+    public int getSourceEnd() {
+        return sourceEnd;
+    }
+
+
+    /**
+     * Creates a copy of the verse moved by the given number of characters in the parsed text.
+     * @param delta Number of characters by which the verse (and its lines) is moved.
+     * @return Moved verse.
+     */
+    public VerseNode shift(int delta) {
+        List<LineNode> shiftedLines = new ArrayList<LineNode>(lines.size());
+        for (LineNode lineNode : lines) {
+            shiftedLines.add(lineNode.shift(delta));
+        }
+        return new VerseNode(this, Collections.unmodifiableList(shiftedLines), delta);
+    }
+
+
     /**
      * Accepts the visitor (as per the Visitor design pattern).
      * @param visitor Visitor to be accepted.
@@ -81,6 +154,24 @@ public class VerseNode implements Node {
     }
 
 
+    /** Verses are equal if they have equal lines (the source spans are not compared). */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof VerseNode && contentHash.equals(((VerseNode) obj).contentHash)
+                && lines.equals(((VerseNode) obj).lines);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return contentHash.hashCode();
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -0,0 +1,432 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TextNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.model.VerseNode;
+
+import static com.songbook.core.parser.ChordProLexer.CHORD_TEXT;
+import static com.songbook.core.parser.ChordProLexer.EOF;
+import static com.songbook.core.parser.ChordProLexer.EOL;
+import static com.songbook.core.parser.ChordProLexer.END_DIR;
+import static com.songbook.core.parser.ChordProLexer.LEFT_PAR;
+import static com.songbook.core.parser.ChordProLexer.RIGHT_PAR;
+import static com.songbook.core.parser.ChordProLexer.SLASH;
+import static com.songbook.core.parser.ChordProLexer.SUBTITLE_DIR;
+import static com.songbook.core.parser.ChordProLexer.TEXT;
+import static com.songbook.core.parser.ChordProLexer.TITLE_DIR;
+
+/**
+ * Recursive descent parser of the ChordPro format using the hand-written {@link ChordProLexer}.
+ * It accepts the same grammar and builds the same SongNode tree as the JavaCC generated {@link ChordProParser}
+ * but it does not allocate any Token objects - the only strings created are the slices of the input
+ * held by TitleNode, TextNode and ChordNode.
+ * <p>
+ * VerseNodes and LineNodes carry their source spans (offsets within the parsed text) which allow
+ * {@link IncrementalSongParser} to re-parse only the edited verses.
+ * <p>
+ * In the error-recovering mode ({@link #parseRecovering(Reader)}) the parser skips the rest of the line after
+ * a syntax error, the line is dropped and the parsing continues on the next line (an unparsable title is replaced
+ * by an empty one). The errors are collected as diagnostics without constructing any exceptions.
+ * <p>
+ * Unlike the JavaCC parser it does not interpret java unicode escapes (backslash-u sequences) in the input.
+ * The parser can be shared between threads (each thread reads the songs into its own reused buffer).
+ * @author Tomas Janecek
+ */
+public class ChordProFastParser implements Parser<SongNode> {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /** Largest read buffer kept for reuse - buffers grown for exceptionally long songs are released. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /** Read buffer of the current thread (parsed nodes hold copies of the text so the buffer can be reused). */
+    private static final ThreadLocal<char[]> THREAD_BUFFER = new ThreadLocal<char[]>();
+
+    /** Thrown in the error-recovering mode to abandon the current line (after the diagnostic was recorded). */
+    private static final LineRecovery LINE_RECOVERY = new LineRecovery();
+
+    /** Returns an instance of the Parser. */
+    public static Parser<SongNode> createParser() {
+        return new ChordProFastParser();
+    }
+
+
+    @Override
+    public SongNode parse(Reader reader) throws ParserException {
+        CharBuffer content = read(reader);
+        return parse(content.array(), 0, content.limit());
+    }
+
+
+    @Override
+    public ParseResult<SongNode> parseRecovering(Reader reader) {
+        CharBuffer content;
+        try {
+            content = read(reader);
+        } catch (ParserException ex) {
+            return new ParseResult<SongNode>(null, Collections.singletonList(new ParserDiagnostic(-1, -1, ex.getMessage())));
+        }
+        return parseRecovering(content.array(), 0, content.limit());
+    }
+
+
+    /** Reads the whole input into the read buffer of the current thread. */
+    private static CharBuffer read(Reader reader) throws ParserException {
+        try {
+            char[] buffer = THREAD_BUFFER.get();
+            if (buffer == null) {
+                buffer = new char[READ_BUFFER_SIZE];
+                THREAD_BUFFER.set(buffer);
+            }
+            int length = 0;
+            int count;
+            while ((count = reader.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+                        THREAD_BUFFER.set(buffer);
+                    }
+                }
+            }
+            return CharBuffer.wrap(buffer, 0, length);
+        } catch (IOException ex) {
+            throw new ParserException("Failed to read song - " + ex.getMessage(), ex);
+        }
+    }
+
+
+    /**
+     * Parses the song from the given String.
+     * @param content Song in the ChordPro format.
+     * @return Parsed SongNode.
+     * @throws ParserException If the content is not a valid song.
+     */
+    public SongNode parse(String content) throws ParserException {
+        return parse(content.toCharArray(), 0, content.length());
+    }
+
+
+    /**
+     * Parses the song from the given part of the buffer (the buffer is not modified nor retained).
+     * @param buffer Buffer containing the song in the ChordPro format.
+     * @param offset Offset of the first character of the song.
+     * @param length Number of characters of the song.
+     * @return Parsed SongNode.
+     * @throws ParserException If the content is not a valid song.
+     */
+    public SongNode parse(char[] buffer, int offset, int length) throws ParserException {
+        return start(new ChordProLexer(buffer, offset, length));
+    }
+
+
+    /**
+     * Parses only the title of the song (the title and the optional subtitle line) - the body is not scanned at all.
+     * @param content Song in the ChordPro format.
+     * @return Parsed TitleNode (the same as the title of the song parsed by {@link #parse(String)}).
+     * @throws ParserException If the title is not valid.
+     */
+    public TitleNode parseTitle(String content) throws ParserException {
+        int headerEnd = endOfLine(content, endOfLine(content, 0));
+        char[] header = new char[headerEnd];
+        content.getChars(0, headerEnd, header, 0);
+        return title(new ChordProLexer(header, 0, headerEnd));
+    }
+
+
+    /**
+     * Parses the song from the given String in the error-recovering mode.
+     * @param content Song in the ChordPro format.
+     * @return Parsed (possibly partial) SongNode and the list of syntax errors.
+     */
+    public ParseResult<SongNode> parseRecovering(String content) {
+        return parseRecovering(content.toCharArray(), 0, content.length());
+    }
+
+
+    /**
+     * Parses the song from the given part of the buffer in the error-recovering mode.
+     * @param buffer Buffer containing the song in the ChordPro format.
+     * @param offset Offset of the first character of the song.
+     * @param length Number of characters of the song.
+     * @return Parsed (possibly partial) SongNode and the list of syntax errors.
+     */
+    @Override
+    public ParseResult<SongNode> parseRecovering(char[] buffer, int offset, int length) {
+        List<ParserDiagnostic> diagnostics = new ArrayList<ParserDiagnostic>();
+        try {
+            SongNode songNode = start(new ChordProLexer(buffer, offset, length, 0, diagnostics));
+            return new ParseResult<SongNode>(songNode, diagnostics);
+        } catch (ParserException ex) {
+            throw new IllegalStateException("Parser failed in the error-recovering mode - " + ex.getMessage(), ex);
+        }
+    }
+
+
+    /**
+     * Parses the verses from the given part of the buffer.
+     * @param buffer         Buffer containing the verses in the ChordPro format.
+     * @param offset         Offset of the first character of the first verse.
+     * @param length         Number of characters of the verses.
+     * @param sourcePosition Position of the first character in the song text (base of the source spans).
+     * @return Parsed verses.
+     * @throws ParserException If the content is not a valid sequence of verses.
+     */
+    List<VerseNode> parseVerses(char[] buffer, int offset, int length, int sourcePosition) throws ParserException {
+        return verses(new ChordProLexer(buffer, offset, length, sourcePosition, null));
+    }
+
+
+    /**
+     * <pre>
+     * Start      ->  Title <EOL>+ VerseBlock* <EOF>
+     * </pre>
+     */
+    private SongNode start(ChordProLexer lexer) throws ParserException {
+        TitleNode titleNode;
+        try {
+            titleNode = title(lexer);
+        } catch (LineRecovery ex) {
+            lexer.skipLine();
+            titleNode = new TitleNode("", null);
+        }
+
+        try {
+            consume(lexer, EOL);
+        } catch (LineRecovery ex) {
+            // Missing empty line after the title - the body starts right away
+        }
+        while (lexer.kind() == EOL) {
+            lexer.next();
+        }
+
+        return new SongNode(titleNode, verses(lexer));
+    }
+
+
+    /**
+     * <pre>
+     * Verses     ->  VerseBlock* <EOF>
+     * </pre>
+     */
+    private List<VerseNode> verses(ChordProLexer lexer) throws ParserException {
+        List<VerseNode> verseNodes = new ArrayList<VerseNode>();
+        while (true) {
+            while (lexer.kind() == TEXT || lexer.kind() == LEFT_PAR) {
+                VerseNode verseNode = verseBlock(lexer);
+                if (verseNode != null) {
+                    verseNodes.add(verseNode);
+                }
+            }
+            try {
+                consume(lexer, EOF);
+                return verseNodes;
+            } catch (LineRecovery ex) {
+                lexer.skipLine();
+                while (lexer.kind() == EOL) {
+                    lexer.next();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * <pre>
+     * Title  ->   <TITLE_DIR> <TEXT> <END_DIR> <EOL> ( <SUBTITLE_DIR> <TEXT> <END_DIR> <EOL> )?
+     *             | <TEXT> <EOL>
+     * </pre>
+     */
+    private TitleNode title(ChordProLexer lexer) throws ParserException {
+        switch (lexer.kind()) {
+            case TITLE_DIR:
+                lexer.next();
+                String title = text(lexer, TEXT);
+                consume(lexer, END_DIR);
+                consume(lexer, EOL);
+                String subTitle = null;
+                if (lexer.kind() == SUBTITLE_DIR) {
+                    lexer.next();
+                    subTitle = text(lexer, TEXT);
+                    consume(lexer, END_DIR);
+                    consume(lexer, EOL);
+                }
+                return new TitleNode(title, subTitle);
+            case TEXT:
+                String rawTitle = text(lexer, TEXT);
+                consume(lexer, EOL);
+                return new TitleNode(rawTitle);
+            default:
+                throw error(lexer, ChordProLexer.describe(TITLE_DIR) + " or " + ChordProLexer.describe(TEXT));
+        }
+    }
+
+
+    /**
+     * <pre>
+     * VerseBlock -> LineBlock+ <EOL>*
+     * </pre>
+     * In the error-recovering mode the broken lines are dropped (null is returned if no line is left).
+     */
+    private VerseNode verseBlock(ChordProLexer lexer) throws ParserException {
+        int sourceStart = lexer.sourcePosition();
+        List<LineNode> lineNodes = new ArrayList<LineNode>();
+        do {
+            try {
+                lineNodes.add(lineBlock(lexer));
+            } catch (LineRecovery ex) {
+                // Skipped line terminator counts as the first of the (up to 2) terminators of the line
+                lexer.skipLine();
+                if (lexer.kind() == EOL) {
+                    lexer.next();
+                }
+            }
+        } while (isLineStart(lexer));
+
+        while (lexer.kind() == EOL) {
+            lexer.next();
+        }
+        return lineNodes.isEmpty() ? null : new VerseNode(lineNodes, sourceStart, lexer.sourcePosition());
+    }
+
+
+    /**
+     * <pre>
+     * LineBlock  -> (<TEXT> | Chord)+ <EOL>? <EOL>?
+     * </pre>
+     */
+    private LineNode lineBlock(ChordProLexer lexer) throws ParserException {
+        int sourceStart = lexer.sourcePosition();
+        List<Node> lineNodes = new ArrayList<Node>();
+        do {
+            switch (lexer.kind()) {
+                case TEXT:
+                    lineNodes.add(new TextNode(text(lexer, TEXT)));
+                    break;
+                case LEFT_PAR:
+                    lineNodes.add(chord(lexer));
+                    break;
+                default:
+                    throw error(lexer, ChordProLexer.describe(TEXT) + " or " + ChordProLexer.describe(LEFT_PAR));
+            }
+        } while (isLineStart(lexer));
+
+        if (lexer.kind() == EOL) {
+            lexer.next();
+        }
+        if (lexer.kind() == EOL) {
+            lexer.next();
+        }
+        return new LineNode(lineNodes, sourceStart, lexer.sourcePosition());
+    }
+
+
+    /**
+     * <pre>
+     * Chord     ->  <LEFT_PAR> <CHORD_TEXT> ( <SLASH> <CHORD_TEXT> )? <RIGHT_PAR>
+     * </pre>
+     */
+    private ChordNode chord(ChordProLexer lexer) throws ParserException {
+        consume(lexer, LEFT_PAR);
+        String chord1 = text(lexer, CHORD_TEXT);
+        String chord2 = "";
+        if (lexer.kind() == SLASH) {
+            lexer.next();
+            chord2 = text(lexer, CHORD_TEXT);
+        }
+        consume(lexer, RIGHT_PAR);
+        return new ChordNode(chord1, chord2);
+    }
+
+
+    /** @return Position after the line terminator of the line starting at the given position (or the end of the content). */
+    private static int endOfLine(String content, int start) {
+        for (int i = start; i < content.length(); i++) {
+            char ch = content.charAt(i);
+            if (ch == '\n') {
+                return i + 1;
+            }
+            if (ch == '\r') {
+                return (i + 1 < content.length() && content.charAt(i + 1) == '\n') ? i + 2 : i + 1;
+            }
+        }
+        return content.length();
+    }
+
+
+    /** Equivalent of LOOKAHEAD(2) of the JavaCC grammar - the line continues with a text or with a chord. */
+    private static boolean isLineStart(ChordProLexer lexer) {
+        return lexer.kind() == TEXT || (lexer.kind() == LEFT_PAR && lexer.peek() == CHORD_TEXT);
+    }
+
+
+    private static String text(ChordProLexer lexer, int kind) throws ParserException {
+        if (lexer.kind() != kind) {
+            throw error(lexer, ChordProLexer.describe(kind));
+        }
+        String image = lexer.image();
+        lexer.next();
+        return image;
+    }
+
+
+    private static void consume(ChordProLexer lexer, int kind) throws ParserException {
+        if (lexer.kind() != kind) {
+            throw error(lexer, ChordProLexer.describe(kind));
+        }
+        lexer.next();
+    }
+
+
+    /**
+     * Reports the syntax error at the current token.
+     * In the strict mode returns the exception to be thrown, in the error-recovering mode records
+     * the diagnostic and throws {@link LineRecovery} to abandon the current line.
+     */
+    private static ParserException error(ChordProLexer lexer, String expected) {
+        ParserDiagnostic diagnostic = lexer.diagnostic(expected);
+        if (lexer.diagnostics() == null) {
+            return new ParserException(diagnostic.getMessage());
+        }
+        lexer.diagnostics().add(diagnostic);
+        throw LINE_RECOVERY;
+    }
+
+
+    /** Control flow of the error-recovering mode - shared instance without the stack trace (it is never exposed). */
+    private static final class LineRecovery extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LineRecovery() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.util.List;
+
+/**
+ * Hand-written scanner of the ChordPro format (see chordpro.jj for the token definitions).
+ * Like the JavaCC token manager it has two lexical states - lyrics (DEFAULT) and chord (inside of [...]).
+ * Tokens are not materialized - the lexer only exposes the kind and the [start, end) offsets
+ * of the current token within the scanned buffer, strings are created by the parser as slices.
+ * @author Tomas Janecek
+ */
+final class ChordProLexer {
+    static final int EOF = 0;
+    static final int TITLE_DIR = 1;
+    static final int SUBTITLE_DIR = 2;
+    static final int END_DIR = 3;
+    static final int LEFT_PAR = 4;
+    static final int RIGHT_PAR = 5;
+    static final int SLASH = 6;
+    static final int EOL = 7;
+    static final int TEXT = 8;
+    static final int CHORD_TEXT = 9;
+    static final int ERROR = 10;
+
+    private static final String[] TOKEN_IMAGES = {
+            "<EOF>", "\"{title:\"", "\"{subtitle:\"", "\"}\"", "\"[\"", "\"]\"", "\"/\"", "<EOL>", "<TEXT>", "<CHORD_TEXT>", "<ERROR>" };
+
+    private static final char[] TITLE_DIR_IMAGE = "{title:".toCharArray();
+    private static final char[] SUBTITLE_DIR_IMAGE = "{subtitle:".toCharArray();
+
+    private final char[] buffer;
+    private final int offset;
+    private final int end;
+
+    /** Difference between the position in the source text and the position in the buffer. */
+    private final int sourceBase;
+
+    /** Syntax errors collected in the error-recovering mode (null in the strict mode). */
+    private final List<ParserDiagnostic> diagnostics;
+
+    /** Kind of the current token. */
+    private int kind;
+
+    /** Start offset (inclusive) of the current token. */
+    private int tokenStart;
+
+    /** End offset (exclusive) of the current token. */
+    private int tokenEnd;
+
+    /** Kind of the token found by the last call of {@link #scan(int)}. */
+    private int scannedKind;
+
+    /** True if the token following the current token is scanned in the chord state. */
+    private boolean inChord;
+
+    /** Position, line and column of the last computed diagnostic (errors are reported in the order of the input). */
+    private int linePosition;
+    private int line = 1;
+    private int column = 1;
+
+
+    /**
+     * Constructor - creates a lexer scanning the given part of the buffer.
+     * @param buffer Buffer to be scanned.
+     * @param offset Offset of the first character to be scanned.
+     * @param length Number of characters to be scanned.
+     */
+    ChordProLexer(char[] buffer, int offset, int length) {
+        this(buffer, offset, length, 0, null);
+    }
+
+
+    /**
+     * Constructor - creates a lexer scanning the given part of the buffer which starts at the given position of the source text.
+     * @param buffer         Buffer to be scanned.
+     * @param offset         Offset of the first character to be scanned.
+     * @param length         Number of characters to be scanned.
+     * @param sourcePosition Position of the first scanned character in the source text.
+     * @param diagnostics    List collecting the syntax errors in the error-recovering mode (null in the strict mode).
+     */
+    ChordProLexer(char[] buffer, int offset, int length, int sourcePosition, List<ParserDiagnostic> diagnostics) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.end = offset + length;
+        this.sourceBase = sourcePosition - offset;
+        this.diagnostics = diagnostics;
+        this.linePosition = offset;
+        this.tokenEnd = offset;
+        next();
+    }
+
+
+    /** Advances to the next token. */
+    void next() {
+        tokenStart = tokenEnd;
+        tokenEnd = scan(tokenStart);
+        kind = scannedKind;
+        if (kind == LEFT_PAR) {
+            inChord = true;
+        } else if (kind == RIGHT_PAR) {
+            inChord = false;
+        }
+    }
+
+
+    /** Skips the rest of the current line (including the line terminator) and advances to the first token of the next line. */
+    void skipLine() {
+        int pos = tokenStart;
+        while (pos < end && buffer[pos] != '\r' && buffer[pos] != '\n') {
+            pos++;
+        }
+        if (pos < end) {
+            pos = (buffer[pos] == '\r' && pos + 1 < end && buffer[pos + 1] == '\n') ? pos + 2 : pos + 1;
+        }
+        tokenEnd = pos;
+        inChord = false;
+        next();
+    }
+
+
+    /** @return Kind of the token following the current token (the lexer is not advanced). */
+    int peek() {
+        scan(tokenEnd);
+        return scannedKind;
+    }
+
+
+    int kind() {
+        return kind;
+    }
+
+
+    int tokenStart() {
+        return tokenStart;
+    }
+
+
+    int tokenEnd() {
+        return tokenEnd;
+    }
+
+
+    /** @return List collecting the syntax errors in the error-recovering mode (null in the strict mode). */
+    List<ParserDiagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+
+    /** @return Position of the current token in the source text. */
+    int sourcePosition() {
+        return tokenStart + sourceBase;
+    }
+
+
+    /** @return Text of the current token (the only place where the lexer allocates). */
+    String image() {
+        return new String(buffer, tokenStart, tokenEnd - tokenStart);
+    }
+
+
+    /**
+     * Scans one token starting at the given position.
+     * @param pos Position where the token starts.
+     * @return End position (exclusive) of the token, the kind is stored in scannedKind.
+     */
+    private int scan(int pos) {
+        if (pos >= end) {
+            scannedKind = EOF;
+            return pos;
+        }
+
+        return inChord ? scanChord(pos) : scanLyrics(pos);
+    }
+
+
+    private int scanChord(int pos) {
+        switch (buffer[pos]) {
+            case ']':
+                scannedKind = RIGHT_PAR;
+                return pos + 1;
+            case '/':
+                scannedKind = SLASH;
+                return pos + 1;
+            case '\r':
+            case '\n':
+            case '[':
+            case '{':
+            case '}':
+                scannedKind = ERROR;
+                return pos;
+            default:
+                int textEnd = pos + 1;
+                while (textEnd < end && isChordTextChar(buffer[textEnd])) {
+                    textEnd++;
+                }
+                scannedKind = CHORD_TEXT;
+                return textEnd;
+        }
+    }
+
+
+    private int scanLyrics(int pos) {
+        switch (buffer[pos]) {
+            case '[':
+                scannedKind = LEFT_PAR;
+                return pos + 1;
+            case ']':
+                scannedKind = ERROR;
+                return pos;
+            case '}':
+                scannedKind = END_DIR;
+                return pos + 1;
+            case '\n':
+                scannedKind = EOL;
+                return pos + 1;
+            case '\r':
+                scannedKind = EOL;
+                return (pos + 1 < end && buffer[pos + 1] == '\n') ? pos + 2 : pos + 1;
+            case '{':
+                if (matches(pos, TITLE_DIR_IMAGE)) {
+                    scannedKind = TITLE_DIR;
+                    return pos + TITLE_DIR_IMAGE.length;
+                }
+                if (matches(pos, SUBTITLE_DIR_IMAGE)) {
+                    scannedKind = SUBTITLE_DIR;
+                    return pos + SUBTITLE_DIR_IMAGE.length;
+                }
+                scannedKind = ERROR;
+                return pos;
+            default:
+                int textEnd = pos + 1;
+                while (textEnd < end && isTextChar(buffer[textEnd])) {
+                    textEnd++;
+                }
+                scannedKind = TEXT;
+                return textEnd;
+        }
+    }
+
+
+    private boolean matches(int pos, char[] image) {
+        if (pos + image.length > end) {
+            return false;
+        }
+        for (int i = 0; i < image.length; i++) {
+            if (buffer[pos + i] != image[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isTextChar(char ch) {
+        switch (ch) {
+            case '\r':
+            case '\n':
+            case '[':
+            case ']':
+            case '{':
+            case '}':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+
+    private static boolean isChordTextChar(char ch) {
+        return ch != '/' && isTextChar(ch);
+    }
+
+
+    /**
+     * Builds the diagnostic of the syntax error at the current token.
+     * Line and column are computed only here so that the happy path does not need to track them
+     * (the scan continues from the previous diagnostic so that many errors do not rescan the input).
+     * @param expected Description of the expected tokens.
+     * @return Diagnostic with the error message.
+     */
+    ParserDiagnostic diagnostic(String expected) {
+        if (tokenStart < linePosition) {
+            linePosition = offset;
+            line = 1;
+            column = 1;
+        }
+        for (; linePosition < tokenStart; linePosition++) {
+            char ch = buffer[linePosition];
+            if (ch == '\n' || (ch == '\r' && (linePosition + 1 >= end || buffer[linePosition + 1] != '\n'))) {
+                line++;
+                column = 1;
+            } else if (ch != '\r') {
+                column++;
+            }
+        }
+
+        String message;
+        if (kind == ERROR) {
+            message = "Lexical error at line " + line + ", column " + column + ".  Encountered: \"" + buffer[tokenStart] + "\"";
+        } else {
+            String encountered = (kind == TEXT || kind == CHORD_TEXT) ? TOKEN_IMAGES[kind] + " \"" + image() + "\"" : TOKEN_IMAGES[kind];
+            message = "Encountered " + encountered + " at line " + line + ", column " + column + ".\nWas expecting: " + expected;
+        }
+        return new ParserDiagnostic(line, column, message);
+    }
+
+
+    static String describe(int kind) {
+        return TOKEN_IMAGES[kind];
+    }
+}
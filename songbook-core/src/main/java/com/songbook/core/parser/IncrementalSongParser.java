@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+
+/**
+ * Parser re-parsing only the verses affected by an edit of the song text.
+ * <p>
+ * The previous SongNode must have been parsed by {@link ChordProFastParser} (or this class) from the previous text,
+ * its verses are then reused and only the region from the verse preceding the edit up to the verse following
+ * the edit is parsed again. Verse boundaries are determined by the runs of line terminators, the region therefore
+ * always contains at least one unchanged verse start before the edit and one unchanged complete verse after it.
+ * Whenever the region can not be used (edit of the title, missing source spans, syntax error) the whole text
+ * is parsed again, so the result (or the reported error) is always the same as of the full parse.
+ * @author Tomas Janecek
+ */
+public class IncrementalSongParser {
+    private final ChordProFastParser parser = new ChordProFastParser();
+
+
+    /**
+     * Parses the whole song.
+     * @param content Song in the ChordPro format.
+     * @return Parsed SongNode.
+     * @throws ParserException If the content is not a valid song.
+     */
+    public SongNode parse(String content) throws ParserException {
+        return parser.parse(content);
+    }
+
+
+    /**
+     * Re-parses the song after an edit - the edited range is determined as the difference
+     * of the common prefix and the common suffix of the texts.
+     * @param previous        SongNode parsed from the previous text.
+     * @param previousContent Previous text of the song.
+     * @param content         New text of the song.
+     * @return Parsed SongNode.
+     * @throws ParserException If the content is not a valid song.
+     */
+    public SongNode reparse(SongNode previous, String previousContent, String content) throws ParserException {
+        int maxLength = Math.min(previousContent.length(), content.length());
+        int prefix = 0;
+        while (prefix < maxLength && previousContent.charAt(prefix) == content.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxLength - prefix
+                && previousContent.charAt(previousContent.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return reparse(previous, content, prefix, previousContent.length() - prefix - suffix, content.length() - prefix - suffix);
+    }
+
+
+    /**
+     * Re-parses the song after an edit.
+     * @param previous       SongNode parsed from the previous text.
+     * @param content        New text of the song.
+     * @param editStart      Offset where the edit starts.
+     * @param removedLength  Number of characters removed from the previous text at editStart.
+     * @param insertedLength Number of characters inserted to the new text at editStart.
+     * @return Parsed SongNode.
+     * @throws ParserException If the content is not a valid song.
+     */
+    public SongNode reparse(SongNode previous, String content, int editStart, int removedLength, int insertedLength) throws ParserException {
+        List<VerseNode> verses = previous.getVerseList();
+        int previousLength = content.length() - insertedLength + removedLength;
+        if (verses.isEmpty()
+                || !verses.get(0).hasSourceSpan()
+                || editStart <= verses.get(0).getSourceStart()
+                || verses.get(verses.size() - 1).getSourceEnd() != previousLength) {
+            return parser.parse(content);
+        }
+
+        // Region from the start of the verse preceding the edit to the end of the verse following the edit
+        int firstIdx = indexOfVerse(verses, editStart - 1);
+        int lastIdx = Math.min(indexOfVerse(verses, editStart + removedLength) + 1, verses.size() - 1);
+        int delta = insertedLength - removedLength;
+        int regionStart = verses.get(firstIdx).getSourceStart();
+        int regionEnd = verses.get(lastIdx).getSourceEnd() + delta;
+
+        List<VerseNode> regionVerses;
+        try {
+            char[] buffer = new char[regionEnd - regionStart];
+            content.getChars(regionStart, regionEnd, buffer, 0);
+            regionVerses = parser.parseVerses(buffer, 0, buffer.length, regionStart);
+        } catch (ParserException ex) {
+            // Report the error (with the correct position) as the full parse would
+            return parser.parse(content);
+        }
+
+        List<VerseNode> newVerses = new ArrayList<VerseNode>(verses.size() - (lastIdx - firstIdx + 1) + regionVerses.size());
+        newVerses.addAll(verses.subList(0, firstIdx));
+        newVerses.addAll(regionVerses);
+        for (VerseNode verseNode : verses.subList(lastIdx + 1, verses.size())) {
+            newVerses.add(delta == 0 ? verseNode : verseNode.shift(delta));
+        }
+        return new SongNode(previous.getTitleNode(), newVerses, previous.getSourceFile(), previous.getIndex());
+    }
+
+
+    /** @return Index of the verse containing the given position (the last verse for positions after the end). */
+    private static int indexOfVerse(List<VerseNode> verses, int position) {
+        int low = 0;
+        int high = verses.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (verses.get(mid).getSourceEnd() <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of the error-recovering parse - the (possibly partial) parsed value and the list of syntax errors.
+ * @param <T> Type of the parsed value.
+ * @author Tomas Janecek
+ */
+public class ParseResult<T> {
+    /** Parsed value (null if nothing could be recovered). */
+    private final T value;
+
+    /** Syntax errors found by the parser (empty if the input is valid). */
+    private final List<ParserDiagnostic> diagnostics;
+
+
+    public ParseResult(T value, List<ParserDiagnostic> diagnostics) {
+        this.value = value;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+
+    /** @return Parsed value - partial if there are any diagnostics (null if nothing could be recovered). */
+    public T getValue() {
+        return value;
+    }
+
+
+    /** @return Syntax errors found by the parser (empty if the input is valid). */
+    public List<ParserDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+
+    /** @return True if the input contained any syntax errors. */
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+}
@@ -17,8 +17,39 @@
  */
 package com.songbook.core.parser;
 
+import java.io.CharArrayReader;
 import java.io.Reader;
+import java.util.Collections;
 
 public interface Parser<T> {
     T parse(Reader reader) throws ParserException;
+
+
+    /**
+     * Parses the input without throwing on syntax errors - the errors are returned as diagnostics
+     * together with whatever could be recovered from the input.
+     * The default implementation recovers nothing (the value is null if the input is not valid).
+     * @param reader Reader of the input.
+     * @return Parsed (possibly partial) value and the list of syntax errors.
+     */
+    default ParseResult<T> parseRecovering(Reader reader) {
+        try {
+            return new ParseResult<T>(parse(reader), Collections.<ParserDiagnostic>emptyList());
+        } catch (ParserException ex) {
+            return new ParseResult<T>(null, Collections.singletonList(new ParserDiagnostic(-1, -1, ex.getMessage())));
+        }
+    }
+
+
+    /**
+     * Parses the given part of the buffer in the error-recovering mode (the buffer is not modified nor retained).
+     * The default implementation reads the buffer by {@link #parseRecovering(Reader)}.
+     * @param buffer Buffer containing the input.
+     * @param offset Offset of the first character of the input.
+     * @param length Number of characters of the input.
+     * @return Parsed (possibly partial) value and the list of syntax errors.
+     */
+    default ParseResult<T> parseRecovering(char[] buffer, int offset, int length) {
+        return parseRecovering(new CharArrayReader(buffer, offset, length));
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+/**
+ * Syntax error found by the parser (reported as data by {@link Parser#parseRecovering(java.io.Reader)}).
+ * @author Tomas Janecek
+ */
+public class ParserDiagnostic {
+    /** Line of the error (starting from 1, -1 if not known). */
+    private final int line;
+
+    /** Column of the error (starting from 1, -1 if not known). */
+    private final int column;
+
+    /** Description of the error. */
+    private final String message;
+
+
+    public ParserDiagnostic(int line, int column, String message) {
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+
+    /** @return Line of the error (starting from 1, -1 if not known). */
+    public int getLine() {
+        return line;
+    }
+
+
+    /** @return Column of the error (starting from 1, -1 if not known). */
+    public int getColumn() {
+        return column;
+    }
+
+
+    /** @return Description of the error. */
+    public String getMessage() {
+        return message;
+    }
+
+
+    @Override
+    public String toString() {
+        return (line < 0) ? message : "[" + line + ":" + column + "] " + message;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.ChordSymbol;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+
+/**
+ * Transposition-invariant search of the chord progressions - e.g. "G D Em C" finds also the verses with "C G Ami F".
+ * <p>
+ * The chords of every verse are reduced to the sequence of the roots and of the qualities (major, minor, diminished,
+ * augmented) - repeated chords are merged and unknown chords break the sequence. Every three consecutive chords of the
+ * sequence are indexed by the quality of the first chord and by the intervals of the roots (relative to the previous
+ * chord) and the qualities of the other two chords, so the key does not depend on the key of the song. Posting lists
+ * hold the positions of the chords (verse and chord) by the song. The search takes the rarest key of the query
+ * and verifies the whole progression at the positions of its posting list.
+ * <p>
+ * Songs are identified by a key given by the caller (e.g. the file name), so a single saved song is re-indexed
+ * by {@link #put(String, SongNode)} without rebuilding the index. Thread-safe.
+ * @author Tomas Janecek
+ */
+public class ChordProgressionIndex {
+    static final int MAJOR = 0;
+    static final int MINOR = 1;
+    static final int DIMINISHED = 2;
+    static final int AUGMENTED = 3;
+
+    /** Number of the chords of the indexed n-grams. */
+    private static final int GRAM_LENGTH = 3;
+
+    /** Chord breaking the sequence (unknown chord). */
+    private static final int BREAK = -1;
+
+    /** Position in the verse is encoded in the lower 16 bits of the posting. */
+    private static final int MAX_CHORDS_PER_VERSE = 1 << 16;
+
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[\\s,|\\-\u2013]+");
+    private static final Pattern ROMAN_PATTERN = Pattern.compile("([b#]?)(VII|VI|V|IV|III|II|I|vii|vi|v|iv|iii|ii|i)(.*)");
+    private static final String[] DEGREES = { "I", "II", "III", "IV", "V", "VI", "VII" };
+    private static final int[] DEGREE_ROOTS = { 0, 2, 4, 5, 7, 9, 11 };
+
+    /** Indexed songs by the key. */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** Indexed songs by the slot - removed songs leave null, the slot is reused by the next added song. */
+    private final List<Entry> slots = new ArrayList<Entry>();
+    private final List<Integer> freeSlots = new ArrayList<Integer>();
+
+    /** Positions of every n-gram (verse << 16 | chord) by the song slot. */
+    private final Map<Integer, Map<Integer, int[]>> postings = new HashMap<Integer, Map<Integer, int[]>>();
+
+
+    /** Constructor - creates an empty index. */
+    public ChordProgressionIndex() {
+    }
+
+
+    /**
+     * Adds the song to the index or replaces the song with the same key. If the chords of the song did not change
+     * (the content hash is the same), only the song node is replaced.
+     * @param key      Key of the song (e.g. the file name).
+     * @param songNode Song to be indexed.
+     */
+    public synchronized void put(String key, SongNode songNode) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key of the song is not specified !");
+        }
+        Entry previous = entries.get(key);
+        if (previous != null && previous.songNode.getContentHash().equals(songNode.getContentHash())) {
+            previous.songNode = songNode;
+            return;
+        }
+        if (previous != null) {
+            removeEntry(previous);
+        }
+
+        int slot = freeSlots.isEmpty() ? slots.size() : freeSlots.remove(freeSlots.size() - 1);
+        Entry entry = new Entry(key, songNode, slot);
+        if (slot == slots.size()) {
+            slots.add(entry);
+        } else {
+            slots.set(slot, entry);
+        }
+        entries.put(key, entry);
+
+        // Positions of the n-grams of the song
+        Map<Integer, List<Integer>> songPostings = new HashMap<Integer, List<Integer>>();
+        for (int verse = 0; verse < entry.verses.length; verse++) {
+            int[] chords = entry.verses[verse];
+            for (int position = 0; position + GRAM_LENGTH <= chords.length; position++) {
+                int gram = gram(chords, position);
+                if (gram >= 0) {
+                    List<Integer> positions = songPostings.get(gram);
+                    if (positions == null) {
+                        positions = new ArrayList<Integer>(1);
+                        songPostings.put(gram, positions);
+                    }
+                    positions.add(verse << 16 | position);
+                }
+            }
+        }
+        entry.grams = new int[songPostings.size()];
+        int i = 0;
+        for (Map.Entry<Integer, List<Integer>> songPosting : songPostings.entrySet()) {
+            entry.grams[i++] = songPosting.getKey();
+            Map<Integer, int[]> gramPostings = postings.get(songPosting.getKey());
+            if (gramPostings == null) {
+                gramPostings = new HashMap<Integer, int[]>();
+                postings.put(songPosting.getKey(), gramPostings);
+            }
+            gramPostings.put(slot, toArray(songPosting.getValue()));
+        }
+    }
+
+
+    /**
+     * Removes the song from the index.
+     * @param key Key of the song.
+     * @return False if there is no song with the key.
+     */
+    public synchronized boolean remove(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+
+    /** Removes all the songs. */
+    public synchronized void clear() {
+        entries.clear();
+        slots.clear();
+        freeSlots.clear();
+        postings.clear();
+    }
+
+
+    /** @return Number of the indexed songs. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /** @return Number of the distinct indexed n-grams. */
+    public synchronized int getGramCount() {
+        return postings.size();
+    }
+
+
+    /**
+     * Finds the verses containing the chord progression in any key.
+     * @param progression Chords (e.g. "G D Em C", "G/H C") or Roman numerals (e.g. "I V vi IV", "ii7-V7-I") separated
+     *                    by spaces, commas or dashes. Upper case numerals are major, lower case minor.
+     * @return Matches ordered by the key of the song, the verse and the position in the verse.
+     * @throws IllegalArgumentException If a chord of the progression is not known or if there are less than 2 different chords.
+     */
+    public synchronized List<Match> search(String progression) {
+        int[] query = parseProgression(progression);
+        if (query.length < 2) {
+            throw new IllegalArgumentException("Progression must contain at least 2 different chords: " + progression);
+        }
+
+        List<Match> result = new ArrayList<Match>();
+        if (query.length < GRAM_LENGTH) {
+            // Too short to be indexed - all the verses are checked
+            for (Entry entry : entries.values()) {
+                for (int verse = 0; verse < entry.verses.length; verse++) {
+                    for (int position = 0; position + query.length <= entry.verses[verse].length; position++) {
+                        addMatch(result, entry, verse, position, query);
+                    }
+                }
+            }
+        } else {
+            // Rarest n-gram of the query, the whole progression is verified at its positions
+            Map<Integer, int[]> rarest = null;
+            int rarestOffset = 0;
+            for (int offset = 0; offset + GRAM_LENGTH <= query.length; offset++) {
+                Map<Integer, int[]> gramPostings = postings.get(gram(query, offset));
+                if (gramPostings == null) {
+                    return result;
+                }
+                if (rarest == null || gramPostings.size() < rarest.size()) {
+                    rarest = gramPostings;
+                    rarestOffset = offset;
+                }
+            }
+            for (Map.Entry<Integer, int[]> songPosting : rarest.entrySet()) {
+                Entry entry = slots.get(songPosting.getKey());
+                for (int posting : songPosting.getValue()) {
+                    int position = (posting & (MAX_CHORDS_PER_VERSE - 1)) - rarestOffset;
+                    if (position >= 0) {
+                        addMatch(result, entry, posting >>> 16, position, query);
+                    }
+                }
+            }
+        }
+
+        result.sort((match1, match2) -> {
+            int order = match1.key.compareTo(match2.key);
+            return (order != 0) ? order
+                    : (match1.verseIndex != match2.verseIndex) ? Integer.compare(match1.verseIndex, match2.verseIndex)
+                    : Integer.compare(match1.chordIndex, match2.chordIndex);
+        });
+        return result;
+    }
+
+
+    /**
+     * Parses the chord progression.
+     * @param progression Chords or Roman numerals (see {@link #search(String)}).
+     * @return Chords encoded as root * 4 + quality (repeated chords are merged).
+     */
+    static int[] parseProgression(String progression) {
+        List<Integer> chords = new ArrayList<Integer>();
+        for (String token : SEPARATOR_PATTERN.split(progression.trim())) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int chord;
+            Matcher matcher = ROMAN_PATTERN.matcher(token);
+            if (matcher.matches()) {
+                String numeral = matcher.group(2);
+                boolean minor = Character.isLowerCase(numeral.charAt(0));
+                int root = DEGREE_ROOTS[Arrays.asList(DEGREES).indexOf(numeral.toUpperCase())];
+                root += matcher.group(1).isEmpty() ? 0 : (matcher.group(1).equals("b") ? 11 : 1);
+                int quality = getQuality(matcher.group(3));
+                if (minor && quality == MAJOR) {
+                    quality = MINOR;
+                }
+                chord = encode(root % 12, quality);
+            } else {
+                int slash = token.indexOf('/');
+                ChordSymbol symbol = ChordSymbol.of((slash < 0) ? token : token.substring(0, slash), (slash < 0) ? "" : token.substring(slash + 1));
+                if (!symbol.isKnown()) {
+                    throw new IllegalArgumentException("Unknown chord: " + token);
+                }
+                chord = encode(symbol);
+            }
+            if (chords.isEmpty() || chords.get(chords.size() - 1) != chord) {
+                chords.add(chord);
+            }
+        }
+        return toArray(chords);
+    }
+
+
+    /**
+     * Returns the quality of the chord by its suffix - "mi", "m", "min" are minor (but "maj" is major), "dim", "o"
+     * diminished, "aug", "+" augmented, anything else major.
+     * @param suffix Suffix of the chord (e.g. "mi7").
+     * @return Quality of the chord (MAJOR, MINOR, DIMINISHED or AUGMENTED).
+     */
+    static int getQuality(String suffix) {
+        if (suffix.startsWith("maj") || suffix.startsWith("Maj") || suffix.startsWith("M")) {
+            return MAJOR;
+        } else if (suffix.startsWith("dim") || suffix.startsWith("o") || suffix.startsWith("\u00b0")) {
+            return DIMINISHED;
+        } else if (suffix.startsWith("m")) {
+            return MINOR;
+        } else if (suffix.startsWith("aug") || suffix.startsWith("+")) {
+            return AUGMENTED;
+        }
+        return MAJOR;
+    }
+
+
+    private void removeEntry(Entry entry) {
+        for (int gram : entry.grams) {
+            Map<Integer, int[]> gramPostings = postings.get(gram);
+            gramPostings.remove(entry.slot);
+            if (gramPostings.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+        entries.remove(entry.key);
+        slots.set(entry.slot, null);
+        freeSlots.add(entry.slot);
+    }
+
+
+    /** Adds the match if the verse contains the progression at the position. */
+    private static void addMatch(List<Match> result, Entry entry, int verse, int position, int[] query) {
+        int[] chords = entry.verses[verse];
+        if (position + query.length > chords.length || chords[position] == BREAK) {
+            return;
+        }
+        int transposition = (root(chords[position]) - root(query[0]) + 12) % 12;
+        for (int i = 0; i < query.length; i++) {
+            int chord = chords[position + i];
+            if (chord == BREAK || chord != encode((root(query[i]) + transposition) % 12, quality(query[i]))) {
+                return;
+            }
+        }
+        result.add(new Match(entry.key, entry.songNode, verse, entry.lines[verse][position], position, transposition));
+    }
+
+
+    /** @return Key of the n-gram starting at the position or -1 if it contains an unknown chord. */
+    private static int gram(int[] chords, int position) {
+        int gram = 0;
+        for (int i = position + GRAM_LENGTH - 1; i > position; i--) {
+            if (chords[i] == BREAK || chords[i - 1] == BREAK) {
+                return -1;
+            }
+            int interval = (root(chords[i]) - root(chords[i - 1]) + 12) % 12;
+            gram = (gram * 4 + quality(chords[i])) * 12 + interval;
+        }
+        return gram * 4 + quality(chords[position]);
+    }
+
+
+    private static int encode(ChordSymbol symbol) {
+        return encode(symbol.getRoot(), getQuality(symbol.getSuffix()));
+    }
+
+
+    private static int encode(int root, int quality) {
+        return root * 4 + quality;
+    }
+
+
+    private static int root(int chord) {
+        return chord >> 2;
+    }
+
+
+    private static int quality(int chord) {
+        return chord & 3;
+    }
+
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+
+    /** Indexed song. */
+    private static final class Entry {
+        private final String key;
+        private SongNode songNode;
+        private final int slot;
+
+        /** Chords of every verse (root * 4 + quality, repeated chords merged) and the lines of the chords. */
+        private final int[][] verses;
+        private final int[][] lines;
+
+        /** Distinct n-grams of the song. */
+        private int[] grams;
+
+
+        Entry(String key, SongNode songNode, int slot) {
+            this.key = key;
+            this.songNode = songNode;
+            this.slot = slot;
+
+            List<VerseNode> verseList = songNode.getVerseList();
+            this.verses = new int[verseList.size()][];
+            this.lines = new int[verseList.size()][];
+            for (int verse = 0; verse < verses.length; verse++) {
+                List<Integer> chords = new ArrayList<Integer>();
+                List<Integer> chordLines = new ArrayList<Integer>();
+                List<LineNode> lineNodes = verseList.get(verse).getLineNodes();
+                for (int line = 0; line < lineNodes.size() && chords.size() < MAX_CHORDS_PER_VERSE; line++) {
+                    for (Node node : lineNodes.get(line).getContentList()) {
+                        if (node instanceof ChordNode) {
+                            ChordSymbol symbol = ((ChordNode) node).getSymbol();
+                            int chord = symbol.isKnown() ? encode(symbol) : BREAK;
+                            if ((chords.isEmpty() || chords.get(chords.size() - 1) != chord) && chords.size() < MAX_CHORDS_PER_VERSE) {
+                                chords.add(chord);
+                                chordLines.add(line);
+                            }
+                        }
+                    }
+                }
+                verses[verse] = toArray(chords);
+                lines[verse] = toArray(chordLines);
+            }
+        }
+    }
+
+
+    /** Verse containing the searched progression. */
+    public static final class Match {
+        private final String key;
+        private final SongNode songNode;
+        private final int verseIndex;
+        private final int lineIndex;
+        private final int chordIndex;
+        private final int transposition;
+
+
+        Match(String key, SongNode songNode, int verseIndex, int lineIndex, int chordIndex, int transposition) {
+            this.key = key;
+            this.songNode = songNode;
+            this.verseIndex = verseIndex;
+            this.lineIndex = lineIndex;
+            this.chordIndex = chordIndex;
+            this.transposition = transposition;
+        }
+
+
+        /** @return Key of the song (see {@link ChordProgressionIndex#put(String, SongNode)}). */
+        public String getKey() {
+            return key;
+        }
+
+
+        public SongNode getSongNode() {
+            return songNode;
+        }
+
+
+        /** @return Index of the verse in the song. */
+        public int getVerseIndex() {
+            return verseIndex;
+        }
+
+
+        /** @return Index of the line (in the verse) with the first chord of the progression. */
+        public int getLineIndex() {
+            return lineIndex;
+        }
+
+
+        /** @return Position of the first chord of the progression in the verse (repeated chords counted once). */
+        public int getChordIndex() {
+            return chordIndex;
+        }
+
+
+        /** @return Semitones from the searched progression up to the progression in the song (0 - 11). */
+        public int getTransposition() {
+            return transposition;
+        }
+
+
+        @Override
+        public String toString() {
+            return "Match[" + key + ", verse=" + verseIndex + ", chord=" + chordIndex + ", transposition=" + transposition + "]";
+        }
+    }
+}
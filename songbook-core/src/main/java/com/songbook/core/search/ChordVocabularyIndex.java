@@ -0,0 +1,349 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.ChordSymbol;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+
+/**
+ * Index of the chords used by the songs - answers "songs I can play with only G, C, D and Emi" (optionally with
+ * a few extra chords or in any key) and "songs using all of G, C and D".
+ * <p>
+ * Every distinct chord of the songs gets a bit - the bass of the chord is ignored (G/H is played as G) and the
+ * minor suffixes are normalized ("m", "min" are written as "mi"). The bits of the chords with the same suffix
+ * are grouped by 12 in the order of the roots (C = 0), so the chords of the transposed song are the bits rotated
+ * within the groups. Chords with an unknown root get their own bits after the groups. The chords of every song are
+ * stored as the bitset (words of all the songs in one array), so a query is a few word operations per song.
+ * Songs without chords are not indexed. Immutable once created - it may be shared by any threads.
+ * @author Tomas Janecek
+ */
+public class ChordVocabularyIndex {
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[\\s,]+");
+
+    private final List<? extends SongNode> songList;
+
+    /** Group of the bits by the normalized suffix - bits group * 12 to group * 12 + 11. */
+    private final Map<String, Integer> suffixGroups = new HashMap<String, Integer>();
+
+    /** Bits of the chords with an unknown root by the chord. */
+    private final Map<String, Integer> unknownChordBits = new HashMap<String, Integer>();
+
+    /** Number of words of the bitset of every song. */
+    private final int wordCount;
+
+    /** Bitsets of the songs - words songId * wordCount to songId * wordCount + wordCount - 1. */
+    private final long[] songBits;
+
+    /** Songs with any chord. */
+    private final boolean[] hasChords;
+
+
+    /**
+     * Constructor - creates the index of the chords of the songs.
+     * @param songList Songs to be indexed (the list must not change while the index is used).
+     */
+    public ChordVocabularyIndex(List<? extends SongNode> songList) {
+        this.songList = songList;
+        this.hasChords = new boolean[songList.size()];
+
+        // Chords of the songs - group * 12 + root of the known chords, -1 - index of the chords with an unknown root
+        List<String> unknownChords = new ArrayList<String>();
+        int[][] songChords = new int[songList.size()][];
+        for (int songId = 0; songId < songChords.length; songId++) {
+            Set<Integer> chords = new LinkedHashSet<Integer>();
+            for (VerseNode verseNode : songList.get(songId).getVerseList()) {
+                for (LineNode lineNode : verseNode.getLineNodes()) {
+                    for (Node node : lineNode.getContentList()) {
+                        if (node instanceof ChordNode) {
+                            chords.add(getChord(((ChordNode) node).getSymbol(), unknownChords));
+                        }
+                    }
+                }
+            }
+            songChords[songId] = toArray(chords);
+            hasChords[songId] = !chords.isEmpty();
+        }
+        for (int i = 0; i < unknownChords.size(); i++) {
+            unknownChordBits.put(unknownChords.get(i), suffixGroups.size() * 12 + i);
+        }
+
+        // Bitsets
+        this.wordCount = Math.max(1, (suffixGroups.size() * 12 + unknownChords.size() + 63) / 64);
+        this.songBits = new long[songList.size() * wordCount];
+        for (int songId = 0; songId < songChords.length; songId++) {
+            for (int chord : songChords[songId]) {
+                int bit = (chord >= 0) ? chord : suffixGroups.size() * 12 - 1 - chord;
+                songBits[songId * wordCount + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+
+    /** @return Indexed songs. */
+    public List<? extends SongNode> getSongList() {
+        return songList;
+    }
+
+
+    /** @return Number of the bits of every song (all the roots of every suffix and the chords with an unknown root). */
+    public int getBitCount() {
+        return suffixGroups.size() * 12 + unknownChordBits.size();
+    }
+
+
+    /**
+     * Finds the songs which can be played with the chords.
+     * @param chords          Chords separated by spaces or commas (e.g. "G C D Emi").
+     * @param maxExtraChords  Maximal number of the chords of the song not in the chords (0 - the song uses only the chords).
+     * @return Ascending ids (positions in the indexed list) of the matching songs.
+     */
+    public int[] findPlayable(String chords, int maxExtraChords) {
+        long[] query = getBits(chords, 0, true);
+        IntList result = new IntList();
+        for (int songId = 0; songId < hasChords.length; songId++) {
+            if (hasChords[songId] && countExtraChords(songId, query, maxExtraChords) <= maxExtraChords) {
+                result.add(songId);
+            }
+        }
+        return result.toArray();
+    }
+
+
+    /**
+     * Finds the songs which can be played with the chords in any key.
+     * @param chords          Chords separated by spaces or commas (e.g. "G C D Emi").
+     * @param maxExtraChords  Maximal number of the chords of the transposed song not in the chords.
+     * @return Matching songs ordered by the number of the extra chords (then by the position in the indexed list),
+     *         every song with the transposition requiring the least extra chords (the lowest one if there are more).
+     */
+    public List<Match> findPlayableInAnyKey(String chords, int maxExtraChords) {
+        // Song transposed up by the transposition uses the chords if the song uses the chords transposed down
+        long[][] queries = new long[12][];
+        for (int transposition = 0; transposition < 12; transposition++) {
+            queries[transposition] = getBits(chords, 12 - transposition, true);
+        }
+        List<Match> result = new ArrayList<Match>();
+        for (int songId = 0; songId < hasChords.length; songId++) {
+            if (!hasChords[songId]) {
+                continue;
+            }
+            int bestTransposition = -1;
+            int bestExtraChords = maxExtraChords + 1;
+            for (int transposition = 0; transposition < 12 && bestExtraChords > 0; transposition++) {
+                int extraChords = countExtraChords(songId, queries[transposition], bestExtraChords - 1);
+                if (extraChords < bestExtraChords) {
+                    bestTransposition = transposition;
+                    bestExtraChords = extraChords;
+                }
+            }
+            if (bestTransposition >= 0) {
+                result.add(new Match(songId, songList.get(songId), bestTransposition, bestExtraChords));
+            }
+        }
+        result.sort((match1, match2) -> (match1.extraChords != match2.extraChords)
+                ? Integer.compare(match1.extraChords, match2.extraChords)
+                : Integer.compare(match1.songId, match2.songId));
+        return result;
+    }
+
+
+    /**
+     * Finds the songs using all the chords (and any other chords).
+     * @param chords Chords separated by spaces or commas (e.g. "G C D").
+     * @return Ascending ids (positions in the indexed list) of the matching songs.
+     */
+    public int[] findContaining(String chords) {
+        long[] query = getBits(chords, 0, false);
+        IntList result = new IntList();
+        if (query == null) {
+            return result.toArray();   // Chord not used by any song
+        }
+        for (int songId = 0; songId < hasChords.length; songId++) {
+            int offset = songId * wordCount;
+            boolean matches = hasChords[songId];
+            for (int word = 0; word < wordCount && matches; word++) {
+                matches = (query[word] & ~songBits[offset + word]) == 0;
+            }
+            if (matches) {
+                result.add(songId);
+            }
+        }
+        return result.toArray();
+    }
+
+
+    /** @return Number of the chords of the song not in the query (stops counting above the limit). */
+    private int countExtraChords(int songId, long[] query, int limit) {
+        int offset = songId * wordCount;
+        int count = 0;
+        for (int word = 0; word < wordCount && count <= limit; word++) {
+            count += Long.bitCount(songBits[offset + word] & ~query[word]);
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the bitset of the chords.
+     * @param chords        Chords separated by spaces or commas.
+     * @param transposition Transposition of the known chords.
+     * @param ignoreUnused  True to ignore the chords not used by any song - otherwise null is returned.
+     * @return Bitset of the chords (or null).
+     */
+    private long[] getBits(String chords, int transposition, boolean ignoreUnused) {
+        long[] bits = new long[wordCount];
+        for (String token : SEPARATOR_PATTERN.split(chords.trim())) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int slash = token.indexOf('/');
+            ChordSymbol symbol = ChordSymbol.of((slash < 0) ? token : token.substring(0, slash), "");
+            Integer bit;
+            if (symbol.getRoot() >= 0) {
+                Integer group = suffixGroups.get(normalizeSuffix(symbol.getSuffix()));
+                bit = (group == null) ? null : group * 12 + (symbol.getRoot() + transposition) % 12;
+            } else {
+                bit = unknownChordBits.get(symbol.getChord());
+            }
+            if (bit != null) {
+                bits[bit >>> 6] |= 1L << bit;
+            } else if (!ignoreUnused) {
+                return null;
+            }
+        }
+        return bits;
+    }
+
+
+    /** @return Chord of the song - group * 12 + root of the known chords, -1 - index of the chords with an unknown root. */
+    private int getChord(ChordSymbol symbol, List<String> unknownChords) {
+        if (symbol.getRoot() < 0) {
+            int index = unknownChords.indexOf(symbol.getChord());
+            if (index < 0) {
+                index = unknownChords.size();
+                unknownChords.add(symbol.getChord());
+            }
+            return -1 - index;
+        }
+        String suffix = normalizeSuffix(symbol.getSuffix());
+        Integer group = suffixGroups.get(suffix);
+        if (group == null) {
+            group = suffixGroups.size();
+            suffixGroups.put(suffix, group);
+        }
+        return group * 12 + symbol.getRoot();
+    }
+
+
+    /** @return Suffix with the minor written as "mi" (e.g. "m7" and "min7" are "mi7", "maj7" is not changed). */
+    private static String normalizeSuffix(String suffix) {
+        if (suffix.startsWith("min")) {
+            return "mi" + suffix.substring(3);
+        } else if (suffix.startsWith("m") && !suffix.startsWith("mi") && !suffix.startsWith("maj")) {
+            return "mi" + suffix.substring(1);
+        }
+        return suffix;
+    }
+
+
+    private static int[] toArray(Set<Integer> set) {
+        int[] array = new int[set.size()];
+        int i = 0;
+        for (int item : set) {
+            array[i++] = item;
+        }
+        return array;
+    }
+
+
+    /** Growing list of ints. */
+    private static final class IntList {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+
+    /** Song found by {@link #findPlayableInAnyKey(String, int)}. */
+    public static final class Match {
+        private final int songId;
+        private final SongNode songNode;
+        private final int transposition;
+        private final int extraChords;
+
+
+        Match(int songId, SongNode songNode, int transposition, int extraChords) {
+            this.songId = songId;
+            this.songNode = songNode;
+            this.transposition = transposition;
+            this.extraChords = extraChords;
+        }
+
+
+        /** @return Position of the song in the indexed list. */
+        public int getSongId() {
+            return songId;
+        }
+
+
+        public SongNode getSongNode() {
+            return songNode;
+        }
+
+
+        /** @return Transposition (semitones up) of the song to the key of the chords. */
+        public int getTransposition() {
+            return transposition;
+        }
+
+
+        /** @return Number of the chords of the transposed song not in the chords. */
+        public int getExtraChords() {
+            return extraChords;
+        }
+
+
+        @Override
+        public String toString() {
+            return "Match[" + songNode.getTitle() + ", transposition=" + transposition + ", extraChords=" + extraChords + "]";
+        }
+    }
+}
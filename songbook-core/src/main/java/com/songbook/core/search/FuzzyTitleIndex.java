@@ -0,0 +1,288 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.util.StringUtil;
+
+/**
+ * Typo-tolerant search of the songs by the title or the sub-title - the songs are ranked by the Levenshtein
+ * distance of their (normalized) title or sub-title from the (normalized) query.
+ * <p>
+ * The distinct normalized titles and sub-titles (see {@link StringUtil#removeAccentsAndNonStandardCharacters(String)})
+ * are kept sorted, so the terms sharing a prefix are adjacent. The search runs the Levenshtein automaton of the query
+ * over the sorted terms - one row of the distance matrix per character of the term, the rows of the prefix shared
+ * with the previous term are reused. Once no row value of a prefix is within the distance limit, no term starting
+ * with the prefix can match and all of them are skipped at once. The distance limit is lowered during the search
+ * as soon as enough songs are found. Immutable once created - it may be shared by any threads.
+ * @author Tomas Janecek
+ */
+public class FuzzyTitleIndex {
+    private final List<? extends SongNode> songList;
+
+    /** Sorted distinct normalized titles and sub-titles. */
+    private final String[] terms;
+
+    /** Ids of the songs of every term (position in the indexed list), from termSongStarts[term] to termSongStarts[term + 1]. */
+    private final int[] termSongIds;
+    private final int[] termSongStarts;
+
+    /** Length of the longest term. */
+    private final int maxTermLength;
+
+
+    /**
+     * Constructor - creates the index of the titles and sub-titles of the songs.
+     * @param songList Songs to be indexed (the list must not change while the index is used).
+     */
+    public FuzzyTitleIndex(List<? extends SongNode> songList) {
+        this.songList = songList;
+
+        // Distinct terms with their songs
+        Map<String, List<Integer>> termMap = new TreeMap<String, List<Integer>>();
+        for (int songId = 0; songId < songList.size(); songId++) {
+            TitleNode titleNode = songList.get(songId).getTitleNode();
+            addTerm(termMap, titleNode.getTitle(), songId);
+            addTerm(termMap, titleNode.getSubTitle(), songId);
+        }
+        this.terms = termMap.keySet().toArray(new String[termMap.size()]);
+        this.termSongStarts = new int[terms.length + 1];
+        List<Integer> songIds = new ArrayList<Integer>();
+        for (int term = 0; term < terms.length; term++) {
+            songIds.addAll(termMap.get(terms[term]));
+            termSongStarts[term + 1] = songIds.size();
+        }
+        this.termSongIds = new int[songIds.size()];
+        for (int i = 0; i < termSongIds.length; i++) {
+            termSongIds[i] = songIds.get(i);
+        }
+
+        int maxTermLength = 0;
+        for (String term : terms) {
+            maxTermLength = Math.max(maxTermLength, term.length());
+        }
+        this.maxTermLength = maxTermLength;
+    }
+
+
+    /** @return Indexed songs. */
+    public List<? extends SongNode> getSongList() {
+        return songList;
+    }
+
+
+    /** @return Number of the distinct normalized titles and sub-titles. */
+    public int getTermCount() {
+        return terms.length;
+    }
+
+
+    /**
+     * Finds the songs whose title or sub-title is the most similar to the query.
+     * @param query       Searched title (normalized like the titles).
+     * @param maxDistance Maximal Levenshtein distance of the matching title from the query.
+     * @param maxResults  Maximal number of the returned songs.
+     * @return Matching songs ordered by the distance (then by the position in the indexed list).
+     */
+    public List<Match> search(String query, int maxDistance, int maxResults) {
+        String text = StringUtil.removeAccentsAndNonStandardCharacters(query);
+        if (text.isEmpty() || terms.length == 0 || maxResults <= 0) {
+            return new ArrayList<Match>(0);
+        }
+
+        // Best distance of every found song and the number of the found songs by the distance
+        Map<Integer, Integer> songDistances = new HashMap<Integer, Integer>();
+        int[] songCounts = new int[maxDistance + 1];
+        int limit = maxDistance;
+
+        // Rows of the distance matrix for the prefixes of the current term (row 0 for the empty prefix)
+        int[][] rows = new int[maxTermLength + 1][text.length() + 1];
+        for (int j = 0; j <= text.length(); j++) {
+            rows[0][j] = j;
+        }
+        String previousTerm = "";
+        int term = 0;
+        while (term < terms.length) {
+            String current = terms[term];
+            int depth = commonPrefixLength(previousTerm, current);
+            int skipDepth = -1;
+            for (depth++; depth <= current.length(); depth++) {
+                if (fillRow(rows[depth - 1], rows[depth], depth, current.charAt(depth - 1), text, limit) > limit) {
+                    skipDepth = depth;
+                    break;
+                }
+            }
+            previousTerm = current;
+            if (skipDepth > 0) {
+                // No term with this prefix can match - skip to the first term with a different prefix
+                previousTerm = current.substring(0, skipDepth - 1);
+                int position = Arrays.binarySearch(terms, term + 1, terms.length, current.substring(0, skipDepth) + Character.MAX_VALUE);
+                term = (position >= 0) ? position + 1 : -position - 1;
+                continue;
+            }
+
+            int distance = (Math.abs(current.length() - text.length()) <= limit) ? rows[current.length()][text.length()] : limit + 1;
+            if (distance <= limit) {
+                for (int i = termSongStarts[term]; i < termSongStarts[term + 1]; i++) {
+                    Integer previous = songDistances.get(termSongIds[i]);
+                    if (previous == null || previous > distance) {
+                        songDistances.put(termSongIds[i], distance);
+                        songCounts[distance]++;
+                        if (previous != null) {
+                            songCounts[previous]--;
+                        }
+                    }
+                }
+                limit = getLimit(songCounts, maxResults, limit);
+            }
+            term++;
+        }
+
+        // Ranking
+        List<Match> result = new ArrayList<Match>(songDistances.size());
+        for (Map.Entry<Integer, Integer> entry : songDistances.entrySet()) {
+            if (entry.getValue() <= limit) {
+                result.add(new Match(entry.getKey(), songList.get(entry.getKey()), entry.getValue()));
+            }
+        }
+        result.sort((match1, match2) -> (match1.distance != match2.distance)
+                ? Integer.compare(match1.distance, match2.distance)
+                : Integer.compare(match1.songId, match2.songId));
+        return (result.size() > maxResults) ? new ArrayList<Match>(result.subList(0, maxResults)) : result;
+    }
+
+
+    /** @return Lowest distance within which at least maxResults songs were found (or the current limit). */
+    private static int getLimit(int[] songCounts, int maxResults, int limit) {
+        int count = 0;
+        for (int distance = 0; distance < limit; distance++) {
+            count += songCounts[distance];
+            if (count >= maxResults) {
+                return distance;
+            }
+        }
+        return limit;
+    }
+
+
+    private static void addTerm(Map<String, List<Integer>> termMap, String text, int songId) {
+        if (text == null) {
+            return;
+        }
+        String term = StringUtil.removeAccentsAndNonStandardCharacters(text);
+        if (term.isEmpty()) {
+            return;
+        }
+        List<Integer> songIds = termMap.get(term);
+        if (songIds == null) {
+            songIds = new ArrayList<Integer>(1);
+            termMap.put(term, songIds);
+        }
+        if (songIds.isEmpty() || songIds.get(songIds.size() - 1) != songId) {
+            songIds.add(songId);
+        }
+    }
+
+
+    /** Song found by the search. */
+    public static final class Match {
+        private final int songId;
+        private final SongNode songNode;
+        private final int distance;
+
+
+        Match(int songId, SongNode songNode, int distance) {
+            this.songId = songId;
+            this.songNode = songNode;
+            this.distance = distance;
+        }
+
+
+        /** @return Position of the song in the indexed list. */
+        public int getSongId() {
+            return songId;
+        }
+
+
+        public SongNode getSongNode() {
+            return songNode;
+        }
+
+
+        /** @return Levenshtein distance of the title or sub-title of the song from the query. */
+        public int getDistance() {
+            return distance;
+        }
+
+
+        @Override
+        public String toString() {
+            return "Match[" + songNode.getTitle() + ", distance=" + distance + "]";
+        }
+    }
+
+
+    /**
+     * Computes the row of the distance matrix for the next character of the term - only the cells within the distance
+     * limit from the diagonal, the cells outside of the band are greater than the limit, so they are replaced by limit + 1.
+     * @param previousRow Row for the prefix of the term without the character.
+     * @param row         Computed row.
+     * @param depth       Length of the prefix including the character.
+     * @param c           Character of the term.
+     * @param text        Query.
+     * @param limit       Distance limit.
+     * @return Minimal value of the row (limit + 1 if there is no cell within the limit).
+     */
+    private static int fillRow(int[] previousRow, int[] row, int depth, char c, String text, int limit) {
+        int from = Math.max(1, depth - limit);
+        int to = Math.min(text.length(), depth + limit);
+        int min = limit + 1;
+        row[from - 1] = (from == 1) ? depth : limit + 1;
+        if (from == 1) {
+            min = Math.min(min, depth);
+        }
+        for (int j = from; j <= to; j++) {
+            int substitution = previousRow[j - 1] + ((c == text.charAt(j - 1)) ? 0 : 1);
+            row[j] = Math.min(substitution, Math.min(previousRow[j], row[j - 1]) + 1);
+            min = Math.min(min, row[j]);
+        }
+        if (to < text.length()) {
+            row[to + 1] = limit + 1;
+        }
+        return min;
+    }
+
+
+    private static int commonPrefixLength(String text1, String text2) {
+        int length = Math.min(text1.length(), text2.length());
+        for (int i = 0; i < length; i++) {
+            if (text1.charAt(i) != text2.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+}
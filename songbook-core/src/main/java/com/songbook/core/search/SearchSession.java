@@ -0,0 +1,220 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search-as-you-type of the songs by their search texts (see {@link SongNode#getSearchText()}).
+ * <p>
+ * Every query is delayed by the debounce period and replaces the query still waiting - only the last query typed
+ * is searched. The search runs on the executor; a search outdated by a newer query is cancelled and its results
+ * are not delivered. The result of the last finished search is kept - if the new query contains the previous one
+ * (e.g. one more character was typed), only the previously found songs are checked. Otherwise the songs are found
+ * by the trigram index (if available) or by scanning all of them. The results are delivered to the listener
+ * by the result executor (e.g. on the UI thread).
+ * @author Tomas Janecek
+ */
+public class SearchSession implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SearchSession.class);
+
+    /** Number of the songs checked between the checks whether the search is outdated. */
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    /** Listener of the search results. */
+    public interface Listener {
+        /**
+         * @param query   Query as passed to {@link SearchSession#search(String)}.
+         * @param songIds Ascending ids (positions in the searched list) of the matching songs - all songs for an empty query.
+         */
+        void searchFinished(String query, int[] songIds);
+    }
+
+    private final Supplier<TrigramIndex> indexSupplier;
+    private final ScheduledExecutorService executor;
+    private final Executor resultExecutor;
+    private final long debounceMillis;
+    private final Listener listener;
+
+    /** Incremented by every query and by every change of the songs - only the current search delivers its results. */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /** Searched songs, query waiting for the debounce period and the last finished search (guarded by this). */
+    private List<? extends SongNode> songList;
+    private ScheduledFuture<?> pendingSearch;
+    private Result previousResult;
+    private boolean closed;
+
+
+    /**
+     * Constructor - creates the session.
+     * @param songList       Songs to be searched (the list must not change, use {@link #setSongList(List)} instead).
+     * @param indexSupplier  Supplier of the index of the songs called on the executor (null to always scan the songs,
+     *                       the index of a different list is not used).
+     * @param executor       Executor of the searches.
+     * @param resultExecutor Executor delivering the results to the listener (e.g. posting them to the UI thread).
+     * @param debounceMillis Delay of the search after the query.
+     * @param listener       Listener of the results.
+     */
+    public SearchSession(List<? extends SongNode> songList, Supplier<TrigramIndex> indexSupplier, ScheduledExecutorService executor,
+            Executor resultExecutor, long debounceMillis, Listener listener) {
+        this.songList = songList;
+        this.indexSupplier = indexSupplier;
+        this.executor = executor;
+        this.resultExecutor = resultExecutor;
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+    }
+
+
+    /**
+     * Replaces the searched songs - the running search is cancelled and the next query searches all the new songs.
+     * @param songList Songs to be searched (the list must not change).
+     */
+    public synchronized void setSongList(List<? extends SongNode> songList) {
+        generation.incrementAndGet();
+        cancelPendingSearch();
+        this.songList = songList;
+        this.previousResult = null;
+    }
+
+
+    /**
+     * Searches the songs after the debounce period (unless another query comes in the meantime).
+     * @param query Searched text (normalized like the search texts).
+     */
+    public synchronized void search(final String query) {
+        if (closed) {
+            return;
+        }
+        final int searchGeneration = generation.incrementAndGet();
+        final List<? extends SongNode> searchedList = songList;
+        cancelPendingSearch();
+        pendingSearch = executor.schedule(() -> runSearch(query, searchGeneration, searchedList), debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /** Cancels the pending search - no more results are delivered. */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        generation.incrementAndGet();
+        cancelPendingSearch();
+    }
+
+
+    private void cancelPendingSearch() {
+        if (pendingSearch != null) {
+            pendingSearch.cancel(false);
+            pendingSearch = null;
+        }
+    }
+
+
+    private void runSearch(final String query, final int searchGeneration, List<? extends SongNode> searchedList) {
+        try {
+            String text = StringUtil.removeAccentsAndNonStandardCharacters(query);
+            Result previous;
+            synchronized (this) {
+                previous = previousResult;
+            }
+
+            int[] songIds;
+            if (text.isEmpty()) {
+                songIds = new int[searchedList.size()];
+                for (int i = 0; i < songIds.length; i++) {
+                    songIds[i] = i;
+                }
+            } else if (previous != null && previous.songList == searchedList && !previous.text.isEmpty() && text.contains(previous.text)) {
+                songIds = filter(searchedList, previous.songIds, previous.songIds.length, text, searchGeneration);
+            } else {
+                TrigramIndex index = (indexSupplier == null) ? null : indexSupplier.get();
+                songIds = (index != null && index.getSongList() == searchedList)
+                        ? index.search(text)
+                        : filter(searchedList, null, searchedList.size(), text, searchGeneration);
+            }
+            if (songIds == null || generation.get() != searchGeneration) {
+                return;   // Outdated by a newer query
+            }
+
+            final int[] result = songIds;
+            synchronized (this) {
+                previousResult = new Result(searchedList, text, result);
+            }
+            resultExecutor.execute(() -> {
+                if (generation.get() == searchGeneration) {
+                    listener.searchFinished(query, result);
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Search of '" + query + "' failed - " + ex.getMessage(), ex);
+        }
+    }
+
+
+    /**
+     * Finds the songs containing the text.
+     * @param searchedList     Songs.
+     * @param candidates       Ascending ids of the checked songs (null for all songs).
+     * @param count            Number of the checked songs.
+     * @param text             Normalized text.
+     * @param searchGeneration Generation of the search (the search stops once it is outdated).
+     * @return Ascending ids of the matching songs or null if the search was outdated in the meantime.
+     */
+    private int[] filter(List<? extends SongNode> searchedList, int[] candidates, int count, String text, int searchGeneration) {
+        int[] songIds = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && generation.get() != searchGeneration) {
+                return null;
+            }
+            int songId = (candidates == null) ? i : candidates[i];
+            if (searchedList.get(songId).getSearchText().contains(text)) {
+                songIds[size++] = songId;
+            }
+        }
+        return Arrays.copyOf(songIds, size);
+    }
+
+
+    /** Result of the finished search. */
+    private static final class Result {
+        private final List<? extends SongNode> songList;
+        private final String text;
+        private final int[] songIds;
+
+        Result(List<? extends SongNode> songList, String text, int[] songIds) {
+            this.songList = songList;
+            this.text = text;
+            this.songIds = songIds;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.util.StringUtil;
+
+/**
+ * Inverted index of the character trigrams of the search texts of the songs (see {@link SongNode#getSearchText()})
+ * used for the substring search.
+ * <p>
+ * Every trigram is mapped to the ascending ids of the songs containing it (the id is the position of the song
+ * in the indexed list), the ids are delta-encoded into variable-length bytes. A query is answered by intersecting
+ * the posting lists of its trigrams (starting from the shortest) and verifying the candidates by the substring
+ * search in their texts. Immutable once created - it may be shared by any threads.
+ * @author Tomas Janecek
+ */
+public class TrigramIndex {
+    /** Number of songs indexed by one task of the parallel build. */
+    private static final int CHUNK_SIZE = 512;
+
+    private final List<? extends SongNode> songList;
+    private final String[] searchTexts;
+
+    /** Sorted trigrams (three 16-bit characters). */
+    private final long[] trigrams;
+
+    /** Offset of the posting list of every trigram (one more item for the end of the last list). */
+    private final int[] postingOffsets;
+
+    /** Posting lists - gaps between the song ids (first id + 1, then the difference) as variable-length bytes. */
+    private final byte[] postings;
+
+
+    /**
+     * Constructor - creates the index of the songs.
+     * @param songList Songs to be indexed (the list must not change while the index is used).
+     * @param executor Executor building the parts of the index in parallel (null to build it on the caller thread).
+     */
+    public TrigramIndex(List<? extends SongNode> songList, Executor executor) {
+        this.songList = songList;
+        this.searchTexts = new String[songList.size()];
+
+        // Index the chunks of songs (in parallel), the posting lists are then joined in the order of the chunks
+        List<CompletableFuture<Map<Long, IntList>>> chunks = new ArrayList<CompletableFuture<Map<Long, IntList>>>();
+        for (int start = 0; start < songList.size(); start += CHUNK_SIZE) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(songList.size(), start + CHUNK_SIZE);
+            chunks.add(executor == null
+                    ? CompletableFuture.completedFuture(indexChunk(chunkStart, chunkEnd))
+                    : CompletableFuture.supplyAsync(() -> indexChunk(chunkStart, chunkEnd), executor));
+        }
+        Map<Long, IntList> postingMap = new HashMap<Long, IntList>();
+        for (CompletableFuture<Map<Long, IntList>> chunk : chunks) {
+            for (Map.Entry<Long, IntList> entry : chunk.join().entrySet()) {
+                IntList songIds = postingMap.get(entry.getKey());
+                if (songIds == null) {
+                    postingMap.put(entry.getKey(), entry.getValue());
+                } else {
+                    songIds.addAll(entry.getValue());
+                }
+            }
+        }
+
+        // Encode the posting lists
+        this.trigrams = new long[postingMap.size()];
+        int i = 0;
+        for (Long trigram : postingMap.keySet()) {
+            trigrams[i++] = trigram;
+        }
+        Arrays.sort(trigrams);
+        this.postingOffsets = new int[trigrams.length + 1];
+        ByteList bytes = new ByteList();
+        for (i = 0; i < trigrams.length; i++) {
+            IntList songIds = postingMap.get(trigrams[i]);
+            int previous = -1;
+            for (int j = 0; j < songIds.size; j++) {
+                bytes.addVarInt(songIds.items[j] - previous);
+                previous = songIds.items[j];
+            }
+            postingOffsets[i + 1] = bytes.size;
+        }
+        this.postings = Arrays.copyOf(bytes.items, bytes.size);
+    }
+
+
+    /** @return Indexed songs. */
+    public List<? extends SongNode> getSongList() {
+        return songList;
+    }
+
+
+    /** @return Number of the distinct trigrams. */
+    public int getTrigramCount() {
+        return trigrams.length;
+    }
+
+
+    /** @return Size of the encoded posting lists in bytes. */
+    public int getPostingsSize() {
+        return postings.length;
+    }
+
+
+    /**
+     * Finds the songs whose search text contains the (normalized) query.
+     * @param query Searched text - normalized like the search texts (accents and non-word characters removed, lower case).
+     * @return Ascending ids (positions in the indexed list) of the matching songs - all songs for an empty query.
+     */
+    public int[] search(String query) {
+        String text = StringUtil.removeAccentsAndNonStandardCharacters(query);
+        int[] candidates;
+        if (text.length() < 3) {
+            candidates = new int[searchTexts.length];
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = i;
+            }
+            if (text.isEmpty()) {
+                return candidates;
+            }
+        } else {
+            candidates = findCandidates(text);
+        }
+
+        int count = 0;
+        for (int songId : candidates) {
+            if (searchTexts[songId].contains(text)) {
+                candidates[count++] = songId;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+
+    /**
+     * Finds the songs whose search text contains the (normalized) query.
+     * @param query Searched text.
+     * @return Matching songs in the order of the indexed list.
+     */
+    public List<SongNode> searchSongNodes(String query) {
+        int[] songIds = search(query);
+        List<SongNode> result = new ArrayList<SongNode>(songIds.length);
+        for (int songId : songIds) {
+            result.add(songList.get(songId));
+        }
+        return result;
+    }
+
+
+    /** @return Ids of the songs containing all trigrams of the text (at least 3 characters long). */
+    private int[] findCandidates(String text) {
+        // Posting lists of the distinct trigrams, the shortest one first
+        long[] queryTrigrams = new long[text.length() - 2];
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            queryTrigrams[i] = trigram(text, i);
+        }
+        Arrays.sort(queryTrigrams);
+        List<Integer> lists = new ArrayList<Integer>();
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            if (i > 0 && queryTrigrams[i] == queryTrigrams[i - 1]) {
+                continue;
+            }
+            int position = Arrays.binarySearch(trigrams, queryTrigrams[i]);
+            if (position < 0) {
+                return new int[0];
+            }
+            lists.add(position);
+        }
+        lists.sort((list1, list2) -> Integer.compare(postingOffsets[list1 + 1] - postingOffsets[list1],
+                postingOffsets[list2 + 1] - postingOffsets[list2]));
+
+        // Intersection
+        int[] result = new Cursor(lists.get(0)).toArray();
+        int count = result.length;
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            Cursor cursor = new Cursor(lists.get(i));
+            int songId = cursor.next();
+            int kept = 0;
+            for (int j = 0; j < count && songId >= 0; ) {
+                if (songId < result[j]) {
+                    songId = cursor.next();
+                } else if (songId > result[j]) {
+                    j++;
+                } else {
+                    result[kept++] = result[j++];
+                    songId = cursor.next();
+                }
+            }
+            count = kept;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+
+    /** @return Posting lists of the trigrams of the songs of the chunk. */
+    private Map<Long, IntList> indexChunk(int start, int end) {
+        Map<Long, IntList> postingMap = new HashMap<Long, IntList>();
+        for (int songId = start; songId < end; songId++) {
+            String text = songList.get(songId).getSearchText();
+            searchTexts[songId] = text;
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                Long trigram = trigram(text, i);
+                IntList songIds = postingMap.get(trigram);
+                if (songIds == null) {
+                    songIds = new IntList();
+                    postingMap.put(trigram, songIds);
+                }
+                if (songIds.size == 0 || songIds.items[songIds.size - 1] != songId) {
+                    songIds.add(songId);
+                }
+            }
+        }
+        return postingMap;
+    }
+
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+
+    /** Decoder of a posting list. */
+    private class Cursor {
+        private int offset;
+        private final int end;
+        private int songId = -1;
+
+        Cursor(int list) {
+            this.offset = postingOffsets[list];
+            this.end = postingOffsets[list + 1];
+        }
+
+        /** @return Next song id of the list (-1 at the end of the list). */
+        int next() {
+            if (offset == end) {
+                return -1;
+            }
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = postings[offset++];
+                gap |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            songId += gap;
+            return songId;
+        }
+
+        int[] toArray() {
+            IntList songIds = new IntList();
+            for (int id = next(); id >= 0; id = next()) {
+                songIds.add(id);
+            }
+            return Arrays.copyOf(songIds.items, songIds.size);
+        }
+    }
+
+
+    /** Growing list of ints. */
+    private static class IntList {
+        private int[] items = new int[4];
+        private int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        void addAll(IntList list) {
+            if (size + list.size > items.length) {
+                items = Arrays.copyOf(items, Math.max(size + list.size, size * 2));
+            }
+            System.arraycopy(list.items, 0, items, size, list.size);
+            size += list.size;
+        }
+    }
+
+
+    /** Growing list of bytes. */
+    private static class ByteList {
+        private byte[] items = new byte[4096];
+        private int size;
+
+        void addVarInt(int value) {
+            if (size + 5 > items.length) {
+                items = Arrays.copyOf(items, items.length * 2);
+            }
+            while ((value & ~0x7f) != 0) {
+                items[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            items[size++] = (byte) value;
+        }
+    }
+}
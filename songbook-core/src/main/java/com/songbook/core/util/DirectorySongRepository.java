@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repository of the songs stored as separate .txt files in a directory - the original layout of the song book.
+ * The directory is listed by every call of {@link #list()}, the files are listed sorted by the name.
+ * @author Tomas Janecek
+ */
+public class DirectorySongRepository implements SongRepository {
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySongRepository.class);
+    private final File directory;
+
+
+    public DirectorySongRepository(File directory) {
+        this.directory = directory;
+    }
+
+
+    @Override
+    public List<SongEntry> list() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Failed to list directory " + directory.getAbsolutePath());
+        }
+
+        // Attributes are read once per file (the cache of the parsed songs uses them to detect the changed files)
+        List<SongEntry> entries = new ArrayList<SongEntry>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(".txt")) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        entries.add(new SongEntry(file.getName(), attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException ex) {
+                    logger.warn("Skipping " + file.getName() + " : " + ex.getMessage());
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(SongEntry::getName));
+        return entries;
+    }
+
+
+    @Override
+    public ByteBuffer read(String name) throws IOException {
+        return SongFileReader.get().readBytes(getSourceFile(name));
+    }
+
+
+    @Override
+    public void write(String name, byte[] content) {
+        try {
+            Files.write(getSourceFile(name).toPath(), content);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write " + getSourceFile(name).getAbsolutePath(), ex);
+        }
+    }
+
+
+    @Override
+    public void delete(String name) {
+        try {
+            Files.deleteIfExists(getSourceFile(name).toPath());
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to delete " + getSourceFile(name).getAbsolutePath(), ex);
+        }
+    }
+
+
+    @Override
+    public File getSourceFile(String name) {
+        return new File(directory, name);
+    }
+
+
+    @Override
+    public File getCacheFile() {
+        return new File(directory, SongNodeCache.CACHE_FILE_NAME);
+    }
+
+
+    public File getDirectory() {
+        return directory;
+    }
+
+
+    @Override
+    public void close() {
+    }
+}
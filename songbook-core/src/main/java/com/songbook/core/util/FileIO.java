@@ -32,6 +32,7 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,9 @@ import org.slf4j.LoggerFactory;
 public class FileIO {
     private static final Logger logger = LoggerFactory.getLogger(FileIO.class.getSimpleName());
 
+    /** Upper bound of the array allocated up-front by {@link #readStreamToBytes(InputStream, long)}. */
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
 
     /**
      * Writes the string content to file path using the specified encoding.
@@ -109,6 +113,37 @@ public class FileIO {
     }
 
 
+    /**
+     * Reads the rest of the input stream into byte array (the stream remains open).
+     * @param inStream     Input stream to be read.
+     * @param expectedSize Expected number of bytes (e.g. the uncompressed size of a zip entry) used to size
+     *                     the array, so that the content is copied only once - -1 if not known. The size is
+     *                     not trusted, the initial array has at most {@value #MAX_INITIAL_BUFFER_SIZE} bytes.
+     * @return Content of the input stream.
+     * @throws IOException If the stream can not be read.
+     */
+    public static byte[] readStreamToBytes(InputStream inStream, long expectedSize) throws IOException {
+        byte[] data = new byte[(expectedSize >= 0) ? (int) Math.min(expectedSize, MAX_INITIAL_BUFFER_SIZE) : 8 * 1024];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                // Buffer full - check the end of the stream before growing it
+                int next = inStream.read();
+                if (next == -1) {
+                    return data;
+                }
+                data = Arrays.copyOf(data, Math.max(data.length * 2, 8 * 1024));
+                data[length++] = (byte) next;
+            }
+            int count = inStream.read(data, length, data.length - length);
+            if (count == -1) {
+                return (length == data.length) ? data : Arrays.copyOf(data, length);
+            }
+            length += count;
+        }
+    }
+
+
     /**
      * Writes a given string into output stream.
      * @param outStream Output stream to be written to.
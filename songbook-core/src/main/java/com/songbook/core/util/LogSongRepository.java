@@ -0,0 +1,587 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repository storing all the songs in a single append-only log file, so a song book with 100k songs is a single file
+ * to open and to sync rather than a directory to list.
+ * <p>
+ * Every write appends a record (name, time, content and CRC32 checksum) and every delete appends a tombstone,
+ * a crash can therefore damage only the last record which is dropped when the log is opened again. The offsets
+ * of the live records are kept in memory and saved to the index file (the log file name + {@link #INDEX_FILE_SUFFIX})
+ * when the repository is closed or compacted, so only the records appended after the index was saved are scanned
+ * when the log is opened. A missing or stale index is detected by the generation stored in both files
+ * and the whole log is scanned then.
+ * <p>
+ * Once the superseded records and tombstones take more space than the live records, the log is compacted on the
+ * compaction executor - a snapshot of the live records is copied to a new log (neither reads nor writes are blocked),
+ * then the records written meanwhile are appended to it and the new log atomically replaces the old one.
+ * @author Tomas Janecek
+ */
+public class LogSongRepository implements SongRepository {
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final Logger logger = LoggerFactory.getLogger(LogSongRepository.class);
+    private static final int MAGIC = 0x53424c47;         // "SBLG"
+    private static final int INDEX_MAGIC = 0x53424c49;   // "SBLI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;            // magic, version, generation
+    private static final byte RECORD_WRITE = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    /** Size of the record without the name and the content - length, type, name length, time and checksum. */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 8 + 4;
+
+    /** Garbage in the log which is never compacted (even if there are no live records). */
+    private static final long MIN_COMPACTION_GARBAGE = 256 * 1024;
+
+    private final File logFile;
+    private final File indexFile;
+    private final Executor compactionExecutor;
+
+    /** Live records by the name - replaced as a whole only under the write lock of the channelLock. */
+    private final Map<String, Record> records = new ConcurrentHashMap<String, Record>();
+
+    /** Write-locked only when the compacted log replaces the old one (readers hold the read lock). */
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+
+    // Fields below are modified only under the lock of this repository
+    private FileChannel channel;
+    private long generation;
+    private long logSize;
+    private long liveBytes;
+    private long lastModified;
+    private boolean compactionScheduled;
+    private boolean compacting;
+    private boolean closed;
+
+
+    /**
+     * Constructor - opens (or creates) the log.
+     * @param logFile            File with the log.
+     * @param compactionExecutor Executor compacting the log (null to compact it on the thread writing the song).
+     */
+    public LogSongRepository(File logFile, Executor compactionExecutor) {
+        this.logFile = logFile;
+        this.indexFile = new File(logFile.getPath() + INDEX_FILE_SUFFIX);
+        this.compactionExecutor = compactionExecutor;
+        try {
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (channel.size() == 0) {
+                generation = newGeneration();
+                writeHeader(channel, generation);
+                channel.force(true);
+            } else {
+                generation = readHeader(channel);
+            }
+            scan(loadIndex());
+        } catch (IOException | RuntimeException ex) {
+            closeChannel();
+            throw new RuntimeException("Failed to open song log " + logFile.getAbsolutePath(), ex);
+        }
+    }
+
+
+    @Override
+    public List<SongEntry> list() {
+        List<SongEntry> entries = new ArrayList<SongEntry>(records.size());
+        channelLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                entries.add(new SongEntry(entry.getKey(), entry.getValue().getContentLength(), entry.getValue().lastModified));
+            }
+        } finally {
+            channelLock.readLock().unlock();
+        }
+        entries.sort(Comparator.comparing(SongEntry::getName));
+        return entries;
+    }
+
+
+    @Override
+    public ByteBuffer read(String name) throws IOException {
+        channelLock.readLock().lock();
+        try {
+            Record record = records.get(name);
+            if (record == null) {
+                throw new NoSuchFileException(name);
+            }
+            return SongFileReader.get().readBytes(channel, record.getContentOffset(), record.getContentLength());
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public synchronized void write(String name, byte[] content) {
+        append(RECORD_WRITE, name, content);
+    }
+
+
+    @Override
+    public synchronized void delete(String name) {
+        if (records.containsKey(name)) {
+            append(RECORD_DELETE, name, new byte[0]);
+        }
+    }
+
+
+    @Override
+    public File getSourceFile(String name) {
+        return new File(name);
+    }
+
+
+    @Override
+    public File getCacheFile() {
+        return new File(logFile.getPath() + ".cache");
+    }
+
+
+    /** @return Size of the log file in bytes. */
+    public synchronized long getLogSize() {
+        return logSize;
+    }
+
+
+    /**
+     * Copies the live records to a new log which then replaces the old one. The writers are blocked only while
+     * the records appended during the copying are copied too and the logs are swapped.
+     */
+    public void compact() {
+        long snapshotSize;
+        List<Map.Entry<String, Record>> liveRecords;
+        synchronized (this) {
+            if (closed || compacting) {
+                return;
+            }
+            compacting = true;
+            snapshotSize = logSize;
+            liveRecords = new ArrayList<Map.Entry<String, Record>>(records.entrySet());
+        }
+
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        try {
+            compact(liveRecords, snapshotSize, tempFile);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to compact song log " + logFile.getAbsolutePath(), ex);
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete {}", tempFile.getAbsolutePath());
+            }
+            synchronized (this) {
+                compacting = false;
+                compactionScheduled = false;
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        saveIndex();
+        channelLock.writeLock().lock();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to close song log " + logFile.getAbsolutePath(), ex);
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+
+    private void append(byte type, String name, byte[] content) {
+        if (closed) {
+            throw new IllegalStateException("Song log " + logFile.getName() + " is closed");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xffff) {
+            throw new IllegalArgumentException("Song name is too long : " + name);
+        }
+
+        // Modification times are unique, so a rewrite is always detected by the cache of the parsed songs
+        long time = Math.max(System.currentTimeMillis(), lastModified + 1);
+        int length = RECORD_OVERHEAD + nameBytes.length + content.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length - 4).put(type).putShort((short) nameBytes.length).put(nameBytes).putLong(time).put(content);
+        buffer.putInt(checksum(buffer.array(), 4, length - 8));
+        buffer.flip();
+
+        long position = logSize;
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            channel.force(false);
+        } catch (IOException ex) {
+            try {
+                channel.truncate(position);
+            } catch (IOException truncateEx) {
+                logger.warn("Failed to truncate song log {} : {}", logFile.getName(), truncateEx.getMessage());
+            }
+            throw new RuntimeException("Failed to write " + name + " to song log " + logFile.getAbsolutePath(), ex);
+        }
+        apply(type, name, new Record(position, length, nameBytes.length, time));
+        logSize = position + length;
+        scheduleCompaction();
+    }
+
+
+    private void apply(byte type, String name, Record record) {
+        Record previous = (type == RECORD_WRITE) ? records.put(name, record) : records.remove(name);
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+        if (type == RECORD_WRITE) {
+            liveBytes += record.length;
+        }
+        lastModified = Math.max(lastModified, record.lastModified);
+    }
+
+
+    /** Copies the snapshot of the live records (without blocking the writers), then the rest of the log and swaps the logs. */
+    private void compact(List<Map.Entry<String, Record>> liveRecords, long snapshotSize, File tempFile) throws IOException {
+        long newGeneration = newGeneration();
+        Map<String, Record> compactedRecords = new HashMap<String, Record>();
+        long position = HEADER_SIZE;
+        try (FileChannel target = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(target, newGeneration);
+            target.position(position);
+            liveRecords.sort(Comparator.comparingLong(entry -> entry.getValue().offset));
+            channelLock.readLock().lock();
+            try {
+                for (Map.Entry<String, Record> entry : liveRecords) {
+                    Record record = entry.getValue();
+                    transfer(record.offset, record.length, target);
+                    compactedRecords.put(entry.getKey(), record.moveTo(position));
+                    position += record.length;
+                }
+            } finally {
+                channelLock.readLock().unlock();
+            }
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // Records (and tombstones) appended since the snapshot - the writers wait now
+            try (FileChannel target = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                target.position(position);
+                ByteBuffer header = ByteBuffer.allocate(4 + 1 + 2);
+                for (long offset = snapshotSize; offset < logSize; ) {
+                    header.clear();
+                    readFully(header, offset);
+                    int length = header.getInt(0) + 4;
+                    byte[] name = new byte[header.getShort(5) & 0xffff];
+                    ByteBuffer time = ByteBuffer.allocate(8);
+                    readFully(ByteBuffer.wrap(name), offset + header.capacity());
+                    readFully(time, offset + header.capacity() + name.length);
+                    transfer(offset, length, target);
+                    if (header.get(4) == RECORD_WRITE) {
+                        compactedRecords.put(new String(name, StandardCharsets.UTF_8), new Record(position, length, name.length, time.getLong(0)));
+                    } else {
+                        compactedRecords.remove(new String(name, StandardCharsets.UTF_8));
+                    }
+                    offset += length;
+                    position += length;
+                }
+                target.force(true);
+            }
+            replaceLog(tempFile, compactedRecords, newGeneration, position);
+        }
+        logger.info("Compacted song log {} to {} bytes", logFile.getName(), position);
+    }
+
+
+    /** Replaces the log by the compacted one - called with the lock of this repository. */
+    private void replaceLog(File tempFile, Map<String, Record> compactedRecords, long newGeneration, long newLogSize) throws IOException {
+        channelLock.writeLock().lock();
+        try {
+            channel.close();
+            try {
+                Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            records.clear();
+            records.putAll(compactedRecords);
+            generation = newGeneration;
+            logSize = newLogSize;
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+        saveIndex();
+    }
+
+
+    private void transfer(long offset, long length, FileChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            transferred += channel.transferTo(offset + transferred, length - transferred, target);
+        }
+    }
+
+
+    private void scheduleCompaction() {
+        long garbage = logSize - HEADER_SIZE - liveBytes;
+        if (compactionScheduled || garbage < MIN_COMPACTION_GARBAGE || garbage <= liveBytes) {
+            return;
+        }
+        compactionScheduled = true;
+        if (compactionExecutor == null) {
+            compact();
+        } else {
+            compactionExecutor.execute(() -> {
+                try {
+                    compact();
+                } catch (RuntimeException ex) {
+                    logger.error("Compaction of song log " + logFile.getName() + " failed - " + ex.getMessage(), ex);
+                }
+            });
+        }
+    }
+
+
+    /** Reads the records from the given position to the end of the log - the damaged tail of the log is truncated. */
+    private void scan(long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (position + RECORD_OVERHEAD <= size) {
+            lengthBuffer.clear();
+            readFully(lengthBuffer, position);
+            int length = lengthBuffer.getInt(0) + 4;
+            if (length < RECORD_OVERHEAD || position + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length - 4);
+            readFully(record, position + 4);
+            byte type = record.get(0);
+            int nameLength = record.getShort(1) & 0xffff;
+            if (checksum(record.array(), 0, length - 8) != record.getInt(length - 8)
+                    || nameLength > length - RECORD_OVERHEAD
+                    || (type != RECORD_WRITE && type != RECORD_DELETE)) {
+                break;
+            }
+            String name = new String(record.array(), 3, nameLength, StandardCharsets.UTF_8);
+            apply(type, name, new Record(position, length, nameLength, record.getLong(3 + nameLength)));
+            position += length;
+        }
+
+        if (position < size) {
+            logger.warn("Dropping damaged end of song log {} ({} bytes)", logFile.getName(), size - position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        logSize = position;
+    }
+
+
+    /** Loads the index file - returns the position in the log up to which the records were indexed. */
+    private long loadIndex() {
+        if (!indexFile.isFile()) {
+            return HEADER_SIZE;
+        }
+        try {
+            byte[] data = Files.readAllBytes(indexFile.toPath());
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (data.length < 32 || buffer.getInt() != INDEX_MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || checksum(data, 0, data.length - 4) != buffer.getInt(data.length - 4)) {
+                logger.warn("Ignoring broken index of song log {}", logFile.getName());
+                return HEADER_SIZE;
+            }
+            if (buffer.getLong() != generation) {
+                logger.info("Ignoring stale index of song log {}", logFile.getName());
+                return HEADER_SIZE;
+            }
+            long indexedSize = buffer.getLong();
+            if (indexedSize > channel.size()) {
+                logger.warn("Ignoring index of song log {} - the log is shorter than indexed", logFile.getName());
+                return HEADER_SIZE;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int nameLength = buffer.getShort() & 0xffff;
+                String name = new String(data, buffer.position(), nameLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + nameLength);
+                apply(RECORD_WRITE, name, new Record(buffer.getLong(), buffer.getInt(), nameLength, buffer.getLong()));
+            }
+            return indexedSize;
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Ignoring index of song log {} - {}", logFile.getName(), ex.toString());
+            records.clear();
+            liveBytes = 0;
+            return HEADER_SIZE;
+        }
+    }
+
+
+    /** Saves the index file - failures are only logged (the log is scanned when the index can not be used). */
+    private void saveIndex() {
+        List<byte[]> names = new ArrayList<byte[]>(records.size());
+        List<Record> indexedRecords = new ArrayList<Record>(records.size());
+        int size = 4 + 4 + 8 + 8 + 4 + 4;
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            indexedRecords.add(entry.getValue());
+            size += 2 + name.length + 8 + 4 + 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putLong(generation).putLong(logSize).putInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            Record record = indexedRecords.get(i);
+            buffer.putShort((short) names.get(i).length).put(names.get(i));
+            buffer.putLong(record.offset).putInt(record.length).putLong(record.lastModified);
+        }
+        buffer.putInt(checksum(buffer.array(), 0, size - 4));
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), buffer.array());
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.warn("Failed to save index of song log {} : {}", logFile.getName(), ex.getMessage());
+            if (tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete {}", tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of song log " + logFile.getName());
+            }
+        }
+    }
+
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to close song log {} : {}", logFile.getName(), ex.getMessage());
+            }
+        }
+    }
+
+
+    private static void writeHeader(FileChannel target, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            target.write(header, header.position());
+        }
+    }
+
+
+    private static long readHeader(FileChannel source) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (source.read(header, header.position()) == -1) {
+                throw new IOException("Not a song log - the header is incomplete");
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a song log or unsupported version");
+        }
+        return header.getLong(8);
+    }
+
+
+    private static long newGeneration() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+
+    /** Position of the record in the log. */
+    private static final class Record {
+        private final long offset;
+        private final int length;
+        private final int nameLength;
+        private final long lastModified;
+
+
+        private Record(long offset, int length, int nameLength, long lastModified) {
+            this.offset = offset;
+            this.length = length;
+            this.nameLength = nameLength;
+            this.lastModified = lastModified;
+        }
+
+
+        private long getContentOffset() {
+            return offset + 4 + 1 + 2 + nameLength + 8;
+        }
+
+
+        private int getContentLength() {
+            return length - RECORD_OVERHEAD - nameLength;
+        }
+
+
+        private Record moveTo(long newOffset) {
+            return new Record(newOffset, length, nameLength, lastModified);
+        }
+    }
+}
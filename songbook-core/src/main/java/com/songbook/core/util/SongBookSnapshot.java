@@ -0,0 +1,159 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Locale;
+
+import com.songbook.core.model.CompactSongBook;
+import com.songbook.core.model.SongBook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of a loaded song book - the binary image of {@link CompactSongBook} (with the title index) in one file,
+ * which is memory-mapped when opened, so the songs are served from the mapped file without reading or parsing them.
+ * <p>
+ * The snapshot is stamped with the fingerprint of the repository it was created from (the names, sizes and modification
+ * times of the files and the encoding, see {@link #fingerprint(Collection, Charset)}) - a snapshot with a different
+ * fingerprint, format version or a broken one is ignored. It is written to a temporary file which then replaces
+ * the old snapshot (already opened snapshots keep using the old file).
+ * @author Tomas Janecek
+ */
+public class SongBookSnapshot {
+    public static final String FILE_SUFFIX = ".snapshot";
+    private static final Logger logger = LoggerFactory.getLogger(SongBookSnapshot.class);
+    private static final int MAGIC = 0x53425353;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final File snapshotFile;
+
+
+    /**
+     * Constructor - creates the snapshot stored in the given file.
+     * @param snapshotFile File of the snapshot (does not have to exist).
+     */
+    public SongBookSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+
+    /**
+     * Computes the fingerprint of the repository content.
+     * @param entries  Files of the repository.
+     * @param encoding Encoding of the files.
+     * @return Fingerprint of the files.
+     */
+    public static long fingerprint(Collection<SongEntry> entries, Charset encoding) {
+        long hash = 1125899906842597L + CompactSongBook.IMAGE_VERSION;
+        hash = 31 * hash + encoding.name().hashCode();
+        for (SongEntry entry : entries) {
+            hash = 31 * hash + entry.getName().hashCode();
+            hash = 31 * hash + entry.getSize();
+            hash = 31 * hash + entry.getLastModified();
+        }
+        return hash;
+    }
+
+
+    /** @return File of the snapshot. */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+
+    /**
+     * Opens the snapshot - maps the file to the memory (the file is not read).
+     * @param fingerprint Fingerprint of the current repository content.
+     * @return Song book of the snapshot or null if there is no valid snapshot with the given fingerprint.
+     */
+    public CompactSongBook open(long fingerprint) {
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                logger.warn("Ignoring snapshot {} of invalid size", snapshotFile.getAbsolutePath());
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                logger.info("Ignoring snapshot {} of a different format", snapshotFile.getAbsolutePath());
+                return null;
+            }
+            if (buffer.getLong(8) != fingerprint) {
+                logger.debug("Snapshot {} is outdated", snapshotFile.getAbsolutePath());
+                return null;
+            }
+            buffer.position(HEADER_SIZE);
+            return new CompactSongBook(buffer);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.warn("Ignoring snapshot " + snapshotFile.getAbsolutePath() + " : " + ex.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the snapshot of the song book (the bodies of all songs are accessed).
+     * @param songBook    Song book to be written.
+     * @param fingerprint Fingerprint of the repository content from which the songs were loaded.
+     * @param titleLocale Locale of the collator by which the title index is created (null for no title index).
+     */
+    public void write(SongBook songBook, long fingerprint, Locale titleLocale) {
+        CompactSongBook compactSongBook = (songBook instanceof CompactSongBook)
+                ? (CompactSongBook) songBook
+                : new CompactSongBook(songBook.getSongNodeList());
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                FileChannel channel = outputStream.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).putLong(fingerprint);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                compactSongBook.writeImage(channel, titleLocale);
+                outputStream.getFD().sync();
+            }
+            try {
+                Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete {}", tempFile.getAbsolutePath());
+            }
+            throw new RuntimeException("Failed to save snapshot " + snapshotFile.getAbsolutePath(), ex);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.songbook.core.model.SongNode;
+
+/**
+ * Batch of changes of the songs in a watched directory (see {@link SongDirectoryWatcher}).
+ * @author Tomas Janecek
+ */
+public class SongDirectoryChange {
+    private static final SongDirectoryChange FULL_RELOAD = new SongDirectoryChange(
+            Collections.<SongNode>emptyList(), Collections.<String>emptyList(), null, true);
+
+    /** Created or modified songs (already parsed and with the song book index set). */
+    private final List<SongNode> updatedSongs;
+
+    /** Names of the deleted song files (or files which could no longer be loaded). */
+    private final List<String> removedFileNames;
+
+    /** New song book indexes by the file name (null if the index file did not change). */
+    private final Map<String, Integer> songIndexMap;
+
+    /** True if the changes could not be tracked (e.g. too many events) - the whole directory must be reloaded. */
+    private final boolean fullReloadRequired;
+
+
+    SongDirectoryChange(List<SongNode> updatedSongs, List<String> removedFileNames, Map<String, Integer> songIndexMap) {
+        this(updatedSongs, removedFileNames, songIndexMap, false);
+    }
+
+
+    private SongDirectoryChange(List<SongNode> updatedSongs, List<String> removedFileNames, Map<String, Integer> songIndexMap,
+                                boolean fullReloadRequired) {
+        this.updatedSongs = Collections.unmodifiableList(updatedSongs);
+        this.removedFileNames = Collections.unmodifiableList(removedFileNames);
+        this.songIndexMap = (songIndexMap == null) ? null : Collections.unmodifiableMap(songIndexMap);
+        this.fullReloadRequired = fullReloadRequired;
+    }
+
+
+    static SongDirectoryChange fullReload() {
+        return FULL_RELOAD;
+    }
+
+
+    /** @return Created or modified songs (already parsed and with the song book index set). */
+    public List<SongNode> getUpdatedSongs() {
+        return updatedSongs;
+    }
+
+
+    /** @return Names of the deleted song files (or files which could no longer be loaded). */
+    public List<String> getRemovedFileNames() {
+        return removedFileNames;
+    }
+
+
+    /** @return New song book indexes by the file name (null if the index file did not change). */
+    public Map<String, Integer> getSongIndexMap() {
+        return songIndexMap;
+    }
+
+
+    /** @return True if the changes could not be tracked - the whole directory must be reloaded. */
+    public boolean isFullReloadRequired() {
+        return fullReloadRequired;
+    }
+
+
+    @Override
+    public String toString() {
+        return "SongDirectoryChange[updated=" + updatedSongs.size() + ", removed=" + removedFileNames
+                + ", indexChanged=" + (songIndexMap != null) + ", fullReload=" + fullReloadRequired + "]";
+    }
+}
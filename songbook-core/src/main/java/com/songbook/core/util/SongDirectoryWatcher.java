@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directory with the songs and reports the changed songs to the listener.
+ * <p>
+ * The file system events are batched - after the first event the watcher waits until no event arrives for the debounce
+ * period (at most {@value #MAX_DEBOUNCE_PERIODS} periods) and then loads only the songs whose files were created,
+ * modified or deleted in the meantime. The listener is called on the thread of the watcher.
+ * <p>
+ * A song is reported as removed only if its file no longer exists. A file which exists but can not be loaded
+ * (e.g. it is still being written or it is locked by a synchronization tool) is not reported - the song keeps
+ * its previous version and the file is loaded again with the next batch of changes.
+ * @author Tomas Janecek
+ */
+public class SongDirectoryWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SongDirectoryWatcher.class);
+    private static final int MAX_DEBOUNCE_PERIODS = 10;
+
+    /** Listener of the changes of the songs. */
+    public interface Listener {
+        void songsChanged(SongDirectoryChange change);
+    }
+
+    private final File directory;
+    private final SongNodeLoader loader;
+    private final Charset encoding;
+    private final long debounceMillis;
+    private final Listener listener;
+    private WatchService watchService;
+
+    /** Current song book indexes (used only by the watcher thread once started). */
+    private Map<String, Integer> songIndexMap;
+
+    /** Existing files which could not be loaded - retried with the next batch (used only by the watcher thread). */
+    private final Set<String> failedFileNames = new TreeSet<>();
+
+
+    /**
+     * Constructor - creates the watcher (call {@link #start()} to start watching).
+     * @param directory      Directory with the songs.
+     * @param loader         Loader of the changed songs.
+     * @param encoding       Encoding of the song files.
+     * @param debounceMillis Period without any event after which the batch of changes is reported.
+     * @param listener       Listener of the changes.
+     */
+    public SongDirectoryWatcher(File directory, SongNodeLoader loader, Charset encoding, long debounceMillis, Listener listener) {
+        this.directory = directory;
+        this.loader = loader;
+        this.encoding = encoding;
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+    }
+
+
+    /** Starts watching the directory on a daemon thread. */
+    public synchronized void start() {
+        if (watchService != null) {
+            throw new IllegalStateException("Watcher of " + directory.getAbsolutePath() + " already started !");
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to watch directory " + directory.getAbsolutePath(), ex);
+        }
+        songIndexMap = loadSongIndexMap();
+
+        Thread thread = new Thread(this::watch, "SongDirectoryWatcher-" + directory.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /** Stops watching the directory. */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to close watcher of " + directory.getAbsolutePath(), ex);
+            }
+        }
+    }
+
+
+    private void watch() {
+        try {
+            while (true) {
+                Set<String> changedFileNames = new TreeSet<>();
+                boolean overflow = collectEvents(watchService.take(), changedFileNames);
+
+                // Debounce - wait until the directory is quiet (but report the changes at least once in a while)
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DEBOUNCE_PERIODS);
+                WatchKey key;
+                while (System.nanoTime() < deadline && (key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collectEvents(key, changedFileNames);
+                }
+
+                try {
+                    if (overflow) {
+                        logger.info("Too many changes in {} - reloading all songs", directory.getAbsolutePath());
+                        songIndexMap = loadSongIndexMap();
+                        failedFileNames.clear();
+                        listener.songsChanged(SongDirectoryChange.fullReload());
+                    } else if (!changedFileNames.isEmpty()) {
+                        changedFileNames.addAll(failedFileNames);
+                        failedFileNames.clear();
+                        listener.songsChanged(buildChange(changedFileNames));
+                    }
+                } catch (RuntimeException ex) {
+                    logger.error("Processing of the changes in " + directory.getAbsolutePath() + " failed", ex);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            logger.debug("Watching of {} stopped", directory.getAbsolutePath());
+        }
+    }
+
+
+    /** @return True if some events were lost. */
+    private boolean collectEvents(WatchKey key, Set<String> changedFileNames) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                String fileName = event.context().toString();
+                if (fileName.endsWith(".txt")) {
+                    changedFileNames.add(fileName);
+                }
+            }
+        }
+        if (!key.reset()) {
+            logger.warn("Directory {} can no longer be watched", directory.getAbsolutePath());
+            close();
+        }
+        return overflow;
+    }
+
+
+    private SongDirectoryChange buildChange(Set<String> changedFileNames) {
+        Map<String, Integer> newSongIndexMap = null;
+        if (changedFileNames.remove(SongNodeLoader.SONG_INDEX_FILE_NAME)) {
+            newSongIndexMap = loadSongIndexMap();
+            songIndexMap = newSongIndexMap;
+        }
+
+        List<SongNode> updatedSongs = new ArrayList<>();
+        List<String> removedFileNames = new ArrayList<>();
+        for (String fileName : changedFileNames) {
+            File file = new File(directory, fileName);
+            if (!file.isFile()) {
+                removedFileNames.add(fileName);
+            } else {
+                SongNode songNode = loader.loadSongNodeFromFile(file, encoding, songIndexMap, null);
+                if (songNode != null) {
+                    updatedSongs.add(songNode);
+                } else {
+                    logger.warn("Song {} could not be loaded - it is kept and loaded again with the next change", fileName);
+                    failedFileNames.add(fileName);
+                }
+            }
+        }
+        return new SongDirectoryChange(updatedSongs, removedFileNames, newSongIndexMap);
+    }
+
+
+    private Map<String, Integer> loadSongIndexMap() {
+        File indexFile = new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME);
+        return indexFile.isFile() ? loader.loadSongIndexMap(indexFile, encoding) : Collections.<String, Integer>emptyMap();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+/**
+ * Description of a song (or of the song index) stored in a {@link SongRepository}.
+ * @author Tomas Janecek
+ */
+public class SongEntry {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+
+
+    public SongEntry(String name, long size, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+
+    /** @return Name of the song file (e.g. "Song.txt"). */
+    public String getName() {
+        return name;
+    }
+
+
+    /** @return Size of the encoded content in bytes (-1 if not known). */
+    public long getSize() {
+        return size;
+    }
+
+
+    /** @return Time of the last modification in milliseconds (changes whenever the content is rewritten). */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+
+    @Override
+    public String toString() {
+        return name + "[" + size + " bytes]";
+    }
+}
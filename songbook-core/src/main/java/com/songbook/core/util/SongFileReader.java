@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the song files with a single bulk read of the FileChannel and decodes them in a single pass.
+ * <p>
+ * Every thread has its own byte and char buffers (and decoder) which are reused for all the files read by the thread,
+ * the returned buffers are therefore valid only until the next call on the same thread. The channel is always closed
+ * before the method returns. Malformed input is replaced (as by InputStreamReader).
+ * @author Tomas Janecek
+ */
+final class SongFileReader {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /** Largest buffer kept for reuse - buffers grown for exceptionally large files are released. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<SongFileReader> THREAD_READER = ThreadLocal.withInitial(SongFileReader::new);
+
+    private ByteBuffer byteBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private CharBuffer charBuffer = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private CharsetDecoder decoder;
+
+
+    private SongFileReader() {
+    }
+
+
+    /** Returns the reader of the current thread. */
+    static SongFileReader get() {
+        return THREAD_READER.get();
+    }
+
+
+    /**
+     * Reads the whole file.
+     * @param file File to read.
+     * @return Buffer with the content of the file (ready to be read).
+     */
+    ByteBuffer readBytes(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 1) {
+                throw new IOException("File " + file.getName() + " is too large (" + size + " bytes)");
+            }
+            // One byte more than the size so the end of the file is reached without growing the buffer
+            ByteBuffer buffer = allocateBytes((int) size + 1);
+            while (channel.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    buffer = growBytes(buffer);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+
+    /**
+     * Reads the part of the file.
+     * @param channel  Channel of the file.
+     * @param position Position of the first byte to read.
+     * @param length   Number of bytes to read.
+     * @return Buffer with the content (ready to be read).
+     */
+    ByteBuffer readBytes(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = allocateBytes(length);
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of file at position " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /**
+     * Decodes the content.
+     * @param content  Encoded content (consumed by the method).
+     * @param encoding Encoding of the content.
+     * @return Buffer with the decoded content (ready to be read, backed by an array).
+     */
+    CharBuffer decode(ByteBuffer content, Charset encoding) {
+        if (decoder == null || !decoder.charset().equals(encoding)) {
+            decoder = encoding.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+
+        CharBuffer buffer = allocateChars((int) Math.min(Integer.MAX_VALUE - 1L, (long) Math.ceil(content.remaining() * (double) decoder.maxCharsPerByte())));
+        while (decoder.decode(content, buffer, true).isOverflow()) {
+            buffer = growChars(buffer);
+        }
+        while (decoder.flush(buffer).isOverflow()) {
+            buffer = growChars(buffer);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /** Reads and decodes the whole file - the same as decode(readBytes(file), encoding). */
+    CharBuffer readChars(File file, Charset encoding) throws IOException {
+        return decode(readBytes(file), encoding);
+    }
+
+
+    private ByteBuffer allocateBytes(int capacity) {
+        if (byteBuffer.capacity() < capacity) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            if (capacity <= MAX_RETAINED_BUFFER_SIZE) {
+                byteBuffer = buffer;
+            }
+            return buffer;
+        }
+        byteBuffer.clear();
+        return byteBuffer;
+    }
+
+
+    private ByteBuffer growBytes(ByteBuffer buffer) {
+        buffer.flip();
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        grown.put(buffer);
+        if (grown.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+            byteBuffer = grown;
+        }
+        return grown;
+    }
+
+
+    private CharBuffer allocateChars(int capacity) {
+        if (charBuffer.capacity() < capacity) {
+            CharBuffer buffer = CharBuffer.allocate(capacity);
+            if (capacity <= MAX_RETAINED_BUFFER_SIZE) {
+                charBuffer = buffer;
+            }
+            return buffer;
+        }
+        charBuffer.clear();
+        return charBuffer;
+    }
+
+
+    private CharBuffer growChars(CharBuffer buffer) {
+        buffer.flip();
+        CharBuffer grown = CharBuffer.allocate(Math.max(16, buffer.capacity() * 2));
+        grown.put(buffer);
+        if (grown.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+            charBuffer = grown;
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.LazySongNode;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TextNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.parser.ParseResult;
+import com.songbook.core.parser.ParserDiagnostic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the parsed songs of one directory (stored in the file {@link #CACHE_FILE_NAME}).
+ * <p>
+ * The entries are keyed by the file name and the encoding. An entry is used without reading the file if the size
+ * and the modification time of the file did not change. If only the modification time changed the content hash
+ * (CRC32) is compared, so touched but unchanged files are not parsed again either.
+ * <p>
+ * The cache file is read at once and the songs are decoded directly from it (the verses only when needed).
+ * It is written to a temporary file which then replaces the old cache, so a crash never leaves a partially
+ * written cache. Cache of a different format version (or a broken one - see the checksum at its end) is ignored.
+ * The methods may be called from several threads while the songs are loaded.
+ * @author Tomas Janecek
+ */
+public class SongNodeCache {
+    public static final String CACHE_FILE_NAME = ".songbook-cache";
+    private static final Logger logger = LoggerFactory.getLogger(SongNodeCache.class);
+    private static final int MAGIC = 0x53424b43;
+    private static final int FORMAT_VERSION = 1;
+    private static final int TEXT_NODE = 0;
+    private static final int CHORD_NODE = 1;
+
+    private final File cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+
+    private SongNodeCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+
+    /** Cached song - the parsed song and the syntax errors found by the parser. */
+    public static class Entry {
+        private final String encoding;
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+
+        /** Encoded song is data[start, end), its verses start at bodyStart. */
+        private final byte[] data;
+        private final int start;
+        private final int bodyStart;
+        private final int end;
+
+
+        private Entry(String encoding, long size, long lastModified, long hash, byte[] data, int start, int bodyStart, int end) {
+            this.encoding = encoding;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.data = data;
+            this.start = start;
+            this.bodyStart = bodyStart;
+            this.end = end;
+        }
+
+
+        /**
+         * Restores the parse result of the song.
+         * @param lazyBody   If true the verses are decoded on the first access (see {@link LazySongNode}).
+         * @param sourceFile Source file of the restored song (may be null).
+         * @param index      Song book index of the restored song (may be null).
+         * @return Parse result as it was stored in the cache.
+         */
+        public ParseResult<SongNode> toParseResult(boolean lazyBody, File sourceFile, Integer index) {
+            Input in = new Input(data, start, bodyStart);
+            TitleNode titleNode = readTitle(in);
+            List<ParserDiagnostic> diagnostics = readDiagnostics(in);
+            SongNode songNode = lazyBody
+                    ? new LazySongNode(titleNode, () -> readVerses(new Input(data, bodyStart, end)), sourceFile, index)
+                    : new SongNode(titleNode, readVerses(new Input(data, bodyStart, end)), sourceFile, index);
+            return new ParseResult<SongNode>(songNode, diagnostics);
+        }
+
+
+        private Entry withLastModified(long lastModified) {
+            return new Entry(encoding, size, lastModified, hash, data, start, bodyStart, end);
+        }
+    }
+
+
+    /**
+     * Loads the cache from the file - an empty cache is returned if the file does not exist or can not be used.
+     * @param cacheFile Cache file.
+     * @return Loaded cache.
+     */
+    public static SongNodeCache load(File cacheFile) {
+        SongNodeCache cache = new SongNodeCache(cacheFile);
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(cacheFile.toPath());
+            Input in = new Input(data, 0, data.length);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                logger.info("Ignoring cache {} of a different format", cacheFile.getAbsolutePath());
+                return cache;
+            }
+            if (new Input(data, data.length - 8, data.length).readLong() != checksum(data, data.length - 8)) {
+                throw new IOException("Checksum mismatch");
+            }
+            int count = in.readVarInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readString();
+                String encoding = in.readString();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long hash = in.readLong();
+                int bodyLength = in.readVarInt();
+                int length = in.readVarInt();
+                int start = in.skip(length);
+                cache.entries.put(name, new Entry(encoding, size, lastModified, hash, data, start, start + length - bodyLength, start + length));
+            }
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Ignoring broken cache " + cacheFile.getAbsolutePath() + " : " + ex);
+            cache.entries.clear();
+            cache.modified = true;
+        }
+        return cache;
+    }
+
+
+    /**
+     * Returns the cached song if the file size and modification time did not change.
+     * @return Cached song or null if the file must be read.
+     */
+    public Entry get(String name, Charset encoding, long size, long lastModified) {
+        Entry entry = entries.get(name);
+        return (entry != null && entry.lastModified == lastModified && entry.size == size && entry.encoding.equals(encoding.name()))
+                ? entry
+                : null;
+    }
+
+
+    /**
+     * Returns the cached song if the content of the file did not change (only its modification time did).
+     * @return Cached song or null if the file must be parsed.
+     */
+    public Entry get(String name, Charset encoding, long size, long lastModified, long hash) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.size != size || entry.hash != hash || !entry.encoding.equals(encoding.name())) {
+            return null;
+        }
+        if (entry.lastModified != lastModified) {
+            entry = entry.withLastModified(lastModified);
+            entries.put(name, entry);
+            modified = true;
+        }
+        return entry;
+    }
+
+
+    /**
+     * Stores the parsed song (nothing is stored if nothing could be parsed).
+     * @param result Result of the parsing of the whole song (not a lazily parsed one).
+     */
+    public void put(String name, Charset encoding, long size, long lastModified, long hash, ParseResult<SongNode> result) {
+        SongNode songNode = result.getValue();
+        if (songNode == null) {
+            if (entries.remove(name) != null) {
+                modified = true;
+            }
+            return;
+        }
+
+        Output out = new Output(1024);
+        writeTitle(out, songNode.getTitleNode());
+        writeDiagnostics(out, result.getDiagnostics());
+        int bodyStart = out.size();
+        writeVerses(out, songNode.getVerseList());
+        entries.put(name, new Entry(encoding.name(), size, lastModified, hash, out.toByteArray(), 0, bodyStart, out.size()));
+        modified = true;
+    }
+
+
+    /** Removes the entries of the files which no longer exist. */
+    public void retainAll(Collection<String> names) {
+        if (entries.keySet().retainAll(new HashSet<>(names))) {
+            modified = true;
+        }
+    }
+
+
+    /** Writes the cache to the file (if anything changed) - the old cache is atomically replaced. */
+    public void save() {
+        if (!modified) {
+            return;
+        }
+
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        Output out = new Output(64 * 1024);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeVarInt(snapshot.size());
+        for (Map.Entry<String, Entry> mapEntry : snapshot) {
+            Entry entry = mapEntry.getValue();
+            out.writeString(mapEntry.getKey());
+            out.writeString(entry.encoding);
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.hash);
+            out.writeVarInt(entry.end - entry.bodyStart);
+            out.writeVarInt(entry.end - entry.start);
+            out.write(entry.data, entry.start, entry.end - entry.start);
+        }
+        out.writeLong(checksum(out.buffer, out.size()));
+
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(CACHE_FILE_NAME, ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                outputStream.write(out.buffer, 0, out.size());
+                outputStream.getFD().sync();
+            }
+            try {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified = false;
+        } catch (IOException ex) {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete {}", tempFile.getAbsolutePath());
+            }
+            throw new RuntimeException("Failed to save cache " + cacheFile.getAbsolutePath(), ex);
+        }
+    }
+
+
+    /** @return Hash of the file content used to detect files whose content did not change. */
+    public static long hash(byte[] content) {
+        return checksum(content, content.length);
+    }
+
+
+    /** @return Hash of the remaining file content in the buffer (the position of the buffer is not changed). */
+    public static long hash(ByteBuffer content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return crc.getValue();
+    }
+
+
+    private static long checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+
+
+    // === Binary format of the songs (variable length integers, offsets as deltas) === //
+
+    private static void writeTitle(Output out, TitleNode titleNode) {
+        out.writeString(titleNode.getTitle());
+        out.writeVarInt(titleNode.getSubTitle() != null ? 1 : 0);
+        if (titleNode.getSubTitle() != null) {
+            out.writeString(titleNode.getSubTitle());
+        }
+    }
+
+
+    private static TitleNode readTitle(Input in) {
+        String title = in.readString();
+        return new TitleNode(title, in.readVarInt() != 0 ? in.readString() : null);
+    }
+
+
+    private static void writeDiagnostics(Output out, List<ParserDiagnostic> diagnostics) {
+        out.writeVarInt(diagnostics.size());
+        for (ParserDiagnostic diagnostic : diagnostics) {
+            out.writeSignedVarInt(diagnostic.getLine());
+            out.writeSignedVarInt(diagnostic.getColumn());
+            out.writeString(diagnostic.getMessage());
+        }
+    }
+
+
+    private static List<ParserDiagnostic> readDiagnostics(Input in) {
+        int count = in.readVarInt();
+        List<ParserDiagnostic> diagnostics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int line = in.readSignedVarInt();
+            int column = in.readSignedVarInt();
+            diagnostics.add(new ParserDiagnostic(line, column, in.readString()));
+        }
+        return diagnostics;
+    }
+
+
+    private static void writeVerses(Output out, List<VerseNode> verses) {
+        out.writeVarInt(verses.size());
+        int position = 0;
+        for (VerseNode verseNode : verses) {
+            out.writeSignedVarInt(verseNode.getSourceStart() - position);
+            position = verseNode.getSourceStart();
+            out.writeVarInt(verseNode.getLineNodes().size());
+            for (LineNode lineNode : verseNode.getLineNodes()) {
+                out.writeSignedVarInt(lineNode.getSourceStart() - position);
+                out.writeSignedVarInt(lineNode.getSourceEnd() - lineNode.getSourceStart());
+                position = lineNode.getSourceEnd();
+                out.writeVarInt(lineNode.getContentList().size());
+                for (Node node : lineNode.getContentList()) {
+                    if (node instanceof ChordNode) {
+                        // Chord texts never contain the slash - "chord1/chord2" can be split back
+                        out.writeVarInt(CHORD_NODE);
+                        out.writeString(((ChordNode) node).getText());
+                    } else {
+                        out.writeVarInt(TEXT_NODE);
+                        out.writeString(((TextNode) node).getText());
+                    }
+                }
+            }
+            out.writeSignedVarInt(verseNode.getSourceEnd() - position);
+            position = verseNode.getSourceEnd();
+        }
+    }
+
+
+    private static List<VerseNode> readVerses(Input in) {
+        int verseCount = in.readVarInt();
+        List<VerseNode> verses = new ArrayList<>(verseCount);
+        int position = 0;
+        for (int i = 0; i < verseCount; i++) {
+            int verseStart = position + in.readSignedVarInt();
+            position = verseStart;
+            int lineCount = in.readVarInt();
+            List<LineNode> lines = new ArrayList<>(lineCount);
+            for (int j = 0; j < lineCount; j++) {
+                int lineStart = position + in.readSignedVarInt();
+                int lineEnd = lineStart + in.readSignedVarInt();
+                position = lineEnd;
+                int nodeCount = in.readVarInt();
+                List<Node> contentList = new ArrayList<>(nodeCount);
+                for (int k = 0; k < nodeCount; k++) {
+                    int type = in.readVarInt();
+                    String text = in.readString();
+                    if (type == CHORD_NODE) {
+                        int slash = text.indexOf('/');
+                        contentList.add(slash < 0
+                                ? new ChordNode(text, "")
+                                : new ChordNode(text.substring(0, slash), text.substring(slash + 1)));
+                    } else {
+                        contentList.add(new TextNode(text));
+                    }
+                }
+                lines.add(new LineNode(contentList, lineStart, lineEnd));
+            }
+            int verseEnd = position + in.readSignedVarInt();
+            position = verseEnd;
+            verses.add(new VerseNode(lines, verseStart, verseEnd));
+        }
+        return verses;
+    }
+
+
+    /** Growable byte buffer with the writing methods of the format (unlike DataOutput not synchronized). */
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+
+        Output(int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+
+        int size() {
+            return size;
+        }
+
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+
+        void write(byte[] data, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(data, offset, buffer, size, length);
+            size += length;
+        }
+
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+
+        void writeSignedVarInt(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+
+        private void ensureCapacity(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+    }
+
+
+    /** Reader of the format from a part of a byte array (reading past the end throws IndexOutOfBoundsException). */
+    private static final class Input {
+        private final byte[] data;
+        private final int limit;
+        private int position;
+
+
+        Input(byte[] data, int start, int limit) {
+            this.data = data;
+            this.position = start;
+            this.limit = limit;
+        }
+
+
+        /** @return Position of the skipped bytes. */
+        int skip(int length) {
+            if (length < 0 || position + length > limit) {
+                throw new IndexOutOfBoundsException("Length " + length + " at " + position);
+            }
+            position += length;
+            return position - length;
+        }
+
+
+        private int readByte() {
+            if (position >= limit) {
+                throw new IndexOutOfBoundsException("End of data at " + position);
+            }
+            return data[position++] & 0xff;
+        }
+
+
+        int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed variable length integer at " + position);
+        }
+
+
+        int readSignedVarInt() {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+
+        String readString() {
+            int length = readVarInt();
+            return new String(data, skip(length), length, StandardCharsets.UTF_8);
+        }
+    }
+}
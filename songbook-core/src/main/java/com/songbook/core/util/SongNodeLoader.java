@@ -18,32 +18,42 @@
 package com.songbook.core.util;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.Writer;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import com.songbook.core.model.CompactSongBook;
+import com.songbook.core.model.LazySongNode;
 import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.ParseResult;
 import com.songbook.core.parser.Parser;
+import com.songbook.core.parser.ParserDiagnostic;
 import com.songbook.core.parser.ParserException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,152 +61,538 @@ import org.slf4j.LoggerFactory;
 public class SongNodeLoader {
     public static String SONG_INDEX_FILE_NAME = "_song-index.txt";
     private static final Logger logger = LoggerFactory.getLogger(SongNodeLoader.class);
+    private static final int MAX_LOADS_AHEAD = 256;
     private final Parser<SongNode> parser;
+    private final boolean lazyBodyParsing;
+    private final Executor executor;
+    private final boolean useCache;
+    private final ChordProFastParser headerParser = new ChordProFastParser();
 
 
     public SongNodeLoader(Parser<SongNode> parser) {
+        this(parser, false);
+    }
+
+
+    /**
+     * Constructor - creates the loader.
+     * @param parser          Parser of the songs.
+     * @param lazyBodyParsing If true only the titles are parsed when the songs are loaded, the bodies are parsed
+     *                        on the first access (see {@link LazySongNode}) - syntax errors in the bodies
+     *                        are then only logged (not reported in the error report).
+     */
+    public SongNodeLoader(Parser<SongNode> parser, boolean lazyBodyParsing) {
+        this(parser, lazyBodyParsing, null);
+    }
+
+
+    /**
+     * Constructor - creates the loader reading and parsing the files of a directory in parallel.
+     * @param parser          Parser of the songs (must be thread-safe).
+     * @param lazyBodyParsing If true only the titles are parsed when the songs are loaded (see above).
+     * @param executor        Executor loading the files of a directory or zip file (null to load them on the caller thread).
+     */
+    public SongNodeLoader(Parser<SongNode> parser, boolean lazyBodyParsing, Executor executor) {
+        this(parser, lazyBodyParsing, executor, false);
+    }
+
+
+    /**
+     * Constructor - creates the loader which keeps the parsed songs of a repository in its cache file
+     * (e.g. {@link SongNodeCache#CACHE_FILE_NAME} in the song directory), so only the changed files are parsed when loaded again.
+     * @param parser          Parser of the songs (must be thread-safe).
+     * @param lazyBodyParsing If true only the titles are parsed when the songs are loaded (see above) - songs found
+     *                        in the cache are decoded lazily, the songs not found are parsed whole to be cached.
+     * @param executor        Executor loading the files (null to load them on the caller thread).
+     * @param useCache        If true the cache is used when a repository (or directory) is loaded.
+     */
+    public SongNodeLoader(Parser<SongNode> parser, boolean lazyBodyParsing, Executor executor, boolean useCache) {
         this.parser = parser;
+        this.lazyBodyParsing = lazyBodyParsing;
+        this.executor = executor;
+        this.useCache = useCache;
     }
 
     public SongNode loadSongNodeFromFile(File file, Charset encoding) {
+        return loadSongNodeFromFile(file, encoding, null);
+    }
+
+
+    /**
+     * Loads the song from the file - syntax errors do not abort the loading, the broken lines are skipped.
+     * @param file        File with the song.
+     * @param encoding    Encoding of the file.
+     * @param errorReport Map collecting the errors by the file name (may be null, must be thread-safe if shared).
+     * @return Loaded (possibly partial) song or null if nothing could be loaded.
+     */
+    public SongNode loadSongNodeFromFile(File file, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport) {
+        return loadSongNodeFromFile(file, encoding, null, errorReport);
+    }
+
+
+    /**
+     * Loads the song from the file with its song book index.
+     * @param songIndexMap Song book indexes by the file name (may be null).
+     */
+    SongNode loadSongNodeFromFile(File file, Charset encoding, Map<String, Integer> songIndexMap,
+                                  Map<String, List<ParserDiagnostic>> errorReport) {
         try {
-            Reader fileReader = new InputStreamReader(new FileInputStream(file.getAbsolutePath()), encoding);
-            SongNode songNode = parser.parse(fileReader);
-            songNode.setSourceFile(file);
-            return songNode;
-        } catch (ParserException ex) {
-            logger.error("LOADING FAILED - SyntaxError : " + file.getName() + " : " + ex.getMessage(), ex);
+            return loadSongNode(SongFileReader.get().readBytes(file), encoding, file, getSongIndex(file, songIndexMap), errorReport);
         } catch (IOException ex) {
             logger.error("LOADING FAILED - IO Error : " + file.getName() + " : " + ex.getMessage(), ex);
+            reportFailure(errorReport, file, "IO Error - " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            logger.error("LOADING FAILED - Error : " + file.getName() + " : " + ex.getMessage(), ex);
+            reportFailure(errorReport, file, "Error - " + ex);
         }
         return null;
     }
 
-    
+
     public List<SongNode> loadSongNodesFromDirectory(File directory, Charset encoding) {
-        Map<String, Integer> songIndexMap = Stream.of(directory.listFiles())
-                .filter(File::isFile)
-                .filter(file -> file.getName().equals(SONG_INDEX_FILE_NAME))
-                .findFirst()
-                .map(file -> loadSongIndexMap(file, encoding))
-                .orElse(null);
-
-        List<SongNode> newSongList = Stream.of(directory.listFiles())
-                .filter(File::isFile)
-                .filter(file -> file.getName().endsWith(".txt"))
-                .filter(file -> !file.getName().equals(SONG_INDEX_FILE_NAME))
-                .sorted(Comparator.comparing(File::getName))
-                .map(file -> loadSongNodeFromFile(file, encoding))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-
-        enrichSongsWithIndex(newSongList, songIndexMap);
+        return loadSongNodesFromDirectory(directory, encoding, null);
+    }
 
+
+    /**
+     * Loads all songs from the directory - syntax errors do not abort the loading, the broken lines are skipped.
+     * The files are loaded in parallel if the loader has an executor, the songs are always ordered by the file name.
+     * @param directory   Directory with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @return Loaded songs.
+     */
+    public List<SongNode> loadSongNodesFromDirectory(File directory, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport) {
+        List<SongNode> newSongList = new ArrayList<>();
+        loadSongNodesFromDirectory(directory, encoding, errorReport, newSongList::add);
         return newSongList;
     }
 
 
+    /**
+     * Streaming variant of {@link #loadSongNodesFromDirectory(File, Charset, Map)} - every song is passed to the sink
+     * as soon as it and the songs of the preceding files are loaded (the index file is read before the songs).
+     * @param directory   Directory with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @param sink        Receiver of the loaded songs.
+     */
+    public void loadSongNodesFromDirectory(File directory, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport,
+                                           SongNodeSink sink) {
+        try (SongRepository repository = new DirectorySongRepository(directory)) {
+            loadSongNodes(repository, encoding, errorReport, sink);
+        }
+    }
+
+
+    /**
+     * Loads a single song from the repository - syntax errors do not abort the loading, the broken lines are skipped.
+     * @param repository Repository with the song.
+     * @param name       Name of the song file.
+     * @param encoding   Encoding of the file.
+     * @return Loaded (possibly partial) song or null if nothing could be loaded.
+     */
+    public SongNode loadSongNode(SongRepository repository, String name, Charset encoding) {
+        return loadSongNode(repository, new SongEntry(name, -1, -1), encoding, null, null, null);
+    }
+
+
+    public List<SongNode> loadSongNodes(SongRepository repository, Charset encoding) {
+        return loadSongNodes(repository, encoding, null);
+    }
+
+
+    /**
+     * Loads all songs from the repository - syntax errors do not abort the loading, the broken lines are skipped.
+     * The files are loaded in parallel if the loader has an executor, the songs are always in the order of the repository.
+     * @param repository  Repository with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @return Loaded songs.
+     */
+    public List<SongNode> loadSongNodes(SongRepository repository, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport) {
+        List<SongNode> songList = new ArrayList<>();
+        loadSongNodes(repository, encoding, errorReport, songList::add);
+        return songList;
+    }
+
+
+    /**
+     * Streaming variant of {@link #loadSongNodes(SongRepository, Charset, Map)} - every song is passed to the sink
+     * as soon as it and the preceding songs are loaded (the song index is read before the songs).
+     * <p>
+     * If the loader uses the cache (and no error report is requested) the loaded song book is also kept
+     * as a {@link SongBookSnapshot} next to the cache file. When the files of the repository did not change
+     * since, the songs of the memory-mapped snapshot are passed to the sink without reading any file.
+     * @param repository  Repository with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @param sink        Receiver of the loaded songs.
+     */
+    public void loadSongNodes(SongRepository repository, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport,
+                              SongNodeSink sink) {
+        List<SongEntry> entries = repository.list();
+
+        // Snapshot of the whole song book (the error report needs the songs to be parsed)
+        File cacheFile = useCache ? repository.getCacheFile() : null;
+        SongBookSnapshot snapshot = (cacheFile != null && errorReport == null)
+                ? new SongBookSnapshot(new File(cacheFile.getPath() + SongBookSnapshot.FILE_SUFFIX))
+                : null;
+        long fingerprint = SongBookSnapshot.fingerprint(entries, encoding);
+        if (snapshot != null) {
+            CompactSongBook songBook = snapshot.open(fingerprint);
+            if (songBook != null) {
+                for (SongNode songNode : songBook.getSongNodeList()) {
+                    sink.songLoaded(songNode);
+                }
+                sink.loadingFinished();
+                return;
+            }
+        }
+
+        Map<String, Integer> songIndexMap = null;
+        List<SongEntry> songEntries = new ArrayList<>();
+        for (SongEntry entry : entries) {
+            if (SONG_INDEX_FILE_NAME.equals(entry.getName())) {
+                songIndexMap = loadSongIndexMap(repository, encoding);
+            } else {
+                songEntries.add(entry);
+            }
+        }
+
+        SongNodeCache cache = (cacheFile != null) ? SongNodeCache.load(cacheFile) : null;
+        List<SongNode> loadedSongs = new ArrayList<>();
+        SongNodeSink loadSink = (snapshot == null) ? sink : songNode -> {
+            loadedSongs.add(songNode);
+            sink.songLoaded(songNode);
+        };
+        if (songIndexMap == null) {
+            logger.warn("No " + SONG_INDEX_FILE_NAME + " file defined !");
+        }
+        Map<String, Integer> indexMap = songIndexMap;
+        loadAll(songEntries, (entry, report) -> loadSongNode(repository, entry, encoding, report, cache, indexMap), errorReport, loadSink);
+        if (cache != null) {
+            saveCache(cache, songEntries);
+        }
+        sink.loadingFinished();
+        if (snapshot != null) {
+            saveSnapshot(snapshot, loadedSongs, fingerprint);
+        }
+    }
+
+
+    public List<SongNode> loadSongNodesFromZip(File zipFile, Charset encoding) {
+        return loadSongNodesFromZip(zipFile, encoding, null);
+    }
+
+
+    /**
+     * Loads all songs from the zip file - syntax errors do not abort the loading, the broken lines are skipped.
+     * Unlike the stream variant the central directory is read only once, every entry is then inflated into a byte array
+     * and decoded from it, in parallel if the loader has an executor.
+     * The songs are ordered as the entries of the zip file.
+     * @param zipFile     Zip file with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @return Loaded songs.
+     */
+    public List<SongNode> loadSongNodesFromZip(File zipFile, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport) {
+        List<SongNode> songList = new ArrayList<>();
+        loadSongNodesFromZip(zipFile, encoding, errorReport, songList::add);
+        return songList;
+    }
+
+
+    /**
+     * Streaming variant of {@link #loadSongNodesFromZip(File, Charset, Map)} - every song is passed to the sink
+     * as soon as it and the songs of the preceding entries are loaded (the index entry is read before the songs).
+     * @param zipFile     Zip file with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the errors (syntax errors or load failures) by the file name (may be null).
+     * @param sink        Receiver of the loaded songs.
+     */
+    public void loadSongNodesFromZip(File zipFile, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport, SongNodeSink sink) {
+        try (SongRepository repository = new ZipSongRepository(zipFile)) {
+            loadSongNodes(repository, encoding, errorReport, sink);
+        }
+    }
+
+
     public List<SongNode> loadSongNodesFromZip(InputStream zipStream, Charset encoding) {
+        return loadSongNodesFromZip(zipStream, encoding, null);
+    }
+
+
+    /**
+     * Loads all songs from the zip stream - syntax errors do not abort the loading, the broken lines are skipped.
+     * The entries are read sequentially, use {@link #loadSongNodesFromZip(File, Charset, Map)} if the zip is a file.
+     * @param zipStream   Stream of the zip file with the songs.
+     * @param encoding    Encoding of the files.
+     * @param errorReport Map collecting the syntax errors by the file name (may be null).
+     * @return Loaded songs.
+     */
+    public List<SongNode> loadSongNodesFromZip(InputStream zipStream, Charset encoding, Map<String, List<ParserDiagnostic>> errorReport) {
         List<SongNode> songList = new ArrayList<>();
         Map<String,Integer> songIndexMap = null;
+        // The index file may follow the songs in the stream - the songs before it are parsed once the index is known
+        List<DataEntry> songEntries = new ArrayList<>();
 
         // Load data from zip stream into SongList
         ZipInputStreamIterable zipIterable = new ZipInputStreamIterable(zipStream, "Songbook ZIP");
         try {
             for (DataEntry entry : zipIterable) {
-                Reader reader = new InputStreamReader(new ByteArrayInputStream(entry.getData()), encoding);
                 if (SONG_INDEX_FILE_NAME.equals(entry.getName())) {
                     // Load song order file
-                    songIndexMap = loadSongIndexMap(reader);
-                } else {
-                    // Load and parse song
-                    try {
-                        SongNode songNode = parser.parse(reader);
-                        songNode.setSourceFile(new File(entry.getName()));
-                        songList.add(songNode);
-                    } catch (ParserException ex) {
-                        throw new RuntimeException("Failed to parse " + entry.getName(), ex);
+                    songIndexMap = loadSongIndexMap(new InputStreamReader(new ByteArrayInputStream(entry.getData()), encoding));
+                    for (DataEntry songEntry : songEntries) {
+                        loadZipEntry(songEntry, encoding, songIndexMap, errorReport, songList);
                     }
+                    songEntries.clear();
+                } else if (songIndexMap == null) {
+                    songEntries.add(entry);
+                } else {
+                    loadZipEntry(entry, encoding, songIndexMap, errorReport, songList);
                 }
             }
         } finally {
             zipIterable.close();
         }
 
-        // Set song list
-        enrichSongsWithIndex(songList, songIndexMap);
+        if (songIndexMap == null) {
+            logger.warn("No " + SONG_INDEX_FILE_NAME + " file defined !");
+            for (DataEntry songEntry : songEntries) {
+                loadZipEntry(songEntry, encoding, null, errorReport, songList);
+            }
+        }
         return songList;
     }
 
 
-    public Map<String,Integer> loadTransposeMap(InputStream stream) {
-        ReaderIterable readerIterable = new ReaderIterable(stream, StandardCharsets.UTF_8, "transpose map");
+    /** Parses the song of the zip entry and adds it to the song list. */
+    private void loadZipEntry(DataEntry entry, Charset encoding, Map<String,Integer> songIndexMap,
+                              Map<String, List<ParserDiagnostic>> errorReport, List<SongNode> songList) {
+        File sourceFile = new File(entry.getName());
+        SongNode songNode = loadSongNode(ByteBuffer.wrap(entry.getData()), encoding, sourceFile,
+                getSongIndex(sourceFile, songIndexMap), errorReport);
+        if (songNode != null) {
+            songList.add(songNode);
+        }
+    }
+
+
+    /**
+     * Loads the songs from the sources (in parallel if the loader has an executor) and passes them to the sink
+     * in the order of the sources. The loader function must create the complete songs (including the song book index),
+     * report its errors into the given map and return null if nothing could be loaded.
+     */
+    private <T> void loadAll(List<T> sources, BiFunction<T, Map<String, List<ParserDiagnostic>>, SongNode> loader,
+                             Map<String, List<ParserDiagnostic>> errorReport, SongNodeSink sink) {
+        if (executor == null) {
+            for (T source : sources) {
+                SongNode songNode = loader.apply(source, errorReport);
+                if (songNode != null) {
+                    sink.songLoaded(songNode);
+                }
+            }
+            return;
+        }
+
+        // Load in parallel - futures are joined in the order of the sources, at most MAX_LOADS_AHEAD of them are pending
+        Map<String, List<ParserDiagnostic>> sourceErrors = new ConcurrentHashMap<>();
+        Deque<CompletableFuture<SongNode>> pending = new ArrayDeque<>();
+        Iterator<T> sourceIterator = sources.iterator();
         try {
-            Map<String, Integer> transposeMap = new HashMap<>();
-            for (String line : readerIterable) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 2) {
-                    transposeMap.put(parts[0], Integer.parseInt(parts[1]));
+            while (sourceIterator.hasNext() || !pending.isEmpty()) {
+                while (sourceIterator.hasNext() && pending.size() < MAX_LOADS_AHEAD) {
+                    T source = sourceIterator.next();
+                    pending.add(CompletableFuture.supplyAsync(() -> loader.apply(source, sourceErrors), executor));
+                }
+                SongNode songNode = pending.remove().join();
+                if (songNode != null) {
+                    sink.songLoaded(songNode);
                 }
             }
-            return transposeMap;
         } finally {
-            readerIterable.close();
+            for (CompletableFuture<SongNode> future : pending) {
+                future.cancel(false);
+            }
+            if (errorReport != null) {
+                errorReport.putAll(sourceErrors);
+            }
         }
     }
 
-    public void saveTransposeMap(OutputStream stream, Map<String,Integer> transposeMap) {
-        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+
+    private SongNode loadSongNode(SongRepository repository, SongEntry entry, Charset encoding,
+                                  Map<String, List<ParserDiagnostic>> errorReport, SongNodeCache cache, Map<String, Integer> songIndexMap) {
+        File sourceFile = repository.getSourceFile(entry.getName());
+        Integer index = getSongIndex(sourceFile, songIndexMap);
         try {
-            for (Map.Entry<String,Integer> entry : transposeMap.entrySet()) {
-                writer.append(entry.getKey())
-                        .append("|")
-                        .append(Integer.toString(entry.getValue()))
-                        .append("\n");
+            if (cache != null) {
+                return loadSongNodeFromCacheOrRepository(repository, entry, sourceFile, index, encoding, errorReport, cache);
             }
+            return loadSongNode(repository.read(entry.getName()), encoding, sourceFile, index, errorReport);
         } catch (IOException ex) {
-            throw new RuntimeException("Failed to save transpose map !", ex);
-        } finally {
-            try {
-                writer.close();
-            } catch (IOException ex) {
-                logger.error("Saving of transpose map failed !", ex);
+            logger.error("LOADING FAILED - IO Error : " + entry.getName() + " : " + ex.getMessage(), ex);
+            reportFailure(errorReport, sourceFile, "IO Error - " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            logger.error("LOADING FAILED - Error : " + entry.getName() + " : " + ex.getMessage(), ex);
+            reportFailure(errorReport, sourceFile, "Error - " + ex);
+        }
+        return null;
+    }
+
+
+    /**
+     * Loads the song from the cache - the file is read only if its size or modification time changed
+     * and parsed only if its content changed.
+     */
+    private SongNode loadSongNodeFromCacheOrRepository(SongRepository repository, SongEntry songEntry, File sourceFile, Integer index,
+                                                       Charset encoding, Map<String, List<ParserDiagnostic>> errorReport,
+                                                       SongNodeCache cache) throws IOException {
+        String name = songEntry.getName();
+        long lastModified = songEntry.getLastModified();
+        SongNodeCache.Entry entry = cache.get(name, encoding, songEntry.getSize(), lastModified);
+        if (entry == null) {
+            ByteBuffer content = repository.read(name);
+            long size = content.remaining();
+            long hash = SongNodeCache.hash(content);
+            entry = cache.get(name, encoding, size, lastModified, hash);
+            if (entry == null) {
+                CharBuffer chars = SongFileReader.get().decode(content, encoding);
+                ParseResult<SongNode> result = parser.parseRecovering(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+                cache.put(name, encoding, size, lastModified, hash, result);
+                return toSongNode(result, sourceFile, index, errorReport);
             }
         }
+        return reportErrors(entry.toParseResult(lazyBodyParsing, sourceFile, index), sourceFile, errorReport);
     }
 
 
-    private void enrichSongsWithIndex(List<SongNode> songList, Map<String,Integer> songIndexMap) {
-        if (songIndexMap == null) {
-            logger.warn("No " + SONG_INDEX_FILE_NAME + " file defined !");
-            return;
+    private static void saveSnapshot(SongBookSnapshot snapshot, List<SongNode> songs, long fingerprint) {
+        try {
+            snapshot.write(new CompactSongBook(songs), fingerprint, Locale.getDefault());
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to save the snapshot of the song book : " + ex.getMessage(), ex);
         }
+    }
+
+
+    private static void saveCache(SongNodeCache cache, List<SongEntry> songEntries) {
+        try {
+            cache.retainAll(songEntries.stream().map(SongEntry::getName).collect(Collectors.toList()));
+            cache.save();
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to save the cache of the parsed songs : " + ex.getMessage(), ex);
+        }
+    }
 
-        for (SongNode songNode : songList) {
-            File sourceFile = songNode.getSourceFile();
-            if (sourceFile == null) {
-                logger.warn("Source file not set for " + songNode.getTitle());
-                continue;
-            }
 
-            Integer index = songIndexMap.get(sourceFile.getName());
-            if (index == null) {
-                logger.warn("No index for song " + sourceFile.getName());
-                continue;
+    /**
+     * Parses the song from the encoded content (the buffer is consumed) - the content is decoded in a single pass
+     * into the reused char buffer of the current thread and the parser reads the songs directly from it.
+     */
+    private SongNode loadSongNode(ByteBuffer content, Charset encoding, File sourceFile, Integer index,
+                                  Map<String, List<ParserDiagnostic>> errorReport) {
+        CharBuffer chars = SongFileReader.get().decode(content, encoding);
+        if (lazyBodyParsing) {
+            return toLazySongNode(chars.toString(), sourceFile, index, errorReport);
+        }
+        ParseResult<SongNode> result = parser.parseRecovering(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        return toSongNode(result, sourceFile, index, errorReport);
+    }
+
+
+    /** @return Parsed song with the source file and the song book index (null if nothing could be parsed). */
+    private SongNode toSongNode(ParseResult<SongNode> result, File sourceFile, Integer index, Map<String, List<ParserDiagnostic>> errorReport) {
+        SongNode songNode = reportErrors(result, sourceFile, errorReport);
+        return (songNode == null) ? null : songNode.withSourceFileAndIndex(sourceFile, index);
+    }
+
+
+    /**
+     * Logs and reports the syntax errors of the song loaded from the file.
+     * @return Parsed song (null if nothing could be parsed).
+     */
+    private static SongNode reportErrors(ParseResult<SongNode> result, File sourceFile, Map<String, List<ParserDiagnostic>> errorReport) {
+        if (result.hasErrors()) {
+            for (ParserDiagnostic diagnostic : result.getDiagnostics()) {
+                logger.error("LOADING " + (result.getValue() == null ? "FAILED" : "INCOMPLETE")
+                        + " - SyntaxError : " + sourceFile.getName() + " : " + diagnostic.getMessage());
             }
+            if (errorReport != null) {
+                errorReport.put(sourceFile.getName(), result.getDiagnostics());
+            }
+        }
+
+        return result.getValue();
+    }
+
+
+    private static void reportFailure(Map<String, List<ParserDiagnostic>> errorReport, File file, String message) {
+        if (errorReport != null) {
+            errorReport.put(file.getName(), Collections.singletonList(new ParserDiagnostic(-1, -1, message)));
+        }
+    }
+
+
+    private SongNode toLazySongNode(final String content, final File sourceFile, Integer index, Map<String, List<ParserDiagnostic>> errorReport) {
+        TitleNode titleNode;
+        try {
+            titleNode = headerParser.parseTitle(content);
+        } catch (ParserException ex) {
+            // Broken title - parse the whole song right away to report all the errors
+            return toSongNode(parser.parseRecovering(new StringReader(content)), sourceFile, index, errorReport);
+        }
+
+        return new LazySongNode(titleNode, () -> parseBody(content, sourceFile), sourceFile, index);
+    }
 
-            songNode.setIndex(index);
+
+    private List<VerseNode> parseBody(String content, File sourceFile) {
+        SongNode songNode = toSongNode(parser.parseRecovering(new StringReader(content)), sourceFile, null, null);
+        return (songNode == null) ? Collections.<VerseNode>emptyList() : songNode.getVerseList();
+    }
+
+
+    /** @return Song book index of the song loaded from the file (null if not known). */
+    private static Integer getSongIndex(File sourceFile, Map<String,Integer> songIndexMap) {
+        if (songIndexMap == null) {
+            return null;
+        }
+        if (sourceFile == null) {
+            logger.warn("Source file not set, the song book index is not known");
+            return null;
         }
+
+        Integer index = songIndexMap.get(sourceFile.getName());
+        if (index == null) {
+            logger.warn("No index for song " + sourceFile.getName());
+        }
+        return index;
     }
 
-    private Map<String,Integer> loadSongIndexMap(File indexFile, Charset encoding) {
+    Map<String,Integer> loadSongIndexMap(File indexFile, Charset encoding) {
+        CharBuffer content;
         try {
-            Reader reader = new InputStreamReader(new FileInputStream(indexFile), encoding);
-            return loadSongIndexMap(reader);
-        } catch (FileNotFoundException ex) {
+            content = SongFileReader.get().readChars(indexFile, encoding);
+        } catch (NoSuchFileException ex) {
             logger.error("File {} was not found", indexFile.getAbsolutePath());
             return Collections.emptyMap();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read song order file " + indexFile.getAbsolutePath(), ex);
+        }
+        return loadSongIndexMap(new StringReader(content.toString()));
+    }
+
+    private Map<String,Integer> loadSongIndexMap(SongRepository repository, Charset encoding) {
+        CharBuffer content;
+        try {
+            content = SongFileReader.get().decode(repository.read(SONG_INDEX_FILE_NAME), encoding);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read song order file " + SONG_INDEX_FILE_NAME, ex);
         }
+        return loadSongIndexMap(new StringReader(content.toString()));
     }
 
     private Map<String,Integer> loadSongIndexMap(Reader reader) {
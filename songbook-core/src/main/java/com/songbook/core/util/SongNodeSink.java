@@ -0,0 +1,40 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import com.songbook.core.model.SongNode;
+
+/**
+ * Receiver of the songs streamed by {@link SongNodeLoader} - the songs are passed to the sink as soon as they are loaded.
+ * <p>
+ * The methods are called one at a time on the thread calling the loader. The loader loads only a limited number
+ * of songs ahead of the sink, so a slow sink slows down the loading rather than piling up the loaded songs.
+ * @author Tomas Janecek
+ */
+public interface SongNodeSink {
+    /**
+     * Called for every loaded song, in the order of the files.
+     * @param songNode Loaded song (with the song book index from the index file already set).
+     */
+    void songLoaded(SongNode songNode);
+
+
+    /** Called once all songs were passed to the sink (the song book indexes are complete). */
+    default void loadingFinished() {
+    }
+}
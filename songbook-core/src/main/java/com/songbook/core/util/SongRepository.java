@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Storage of the song files - the songs are read by {@link SongNodeLoader} and saved by the editors only through
+ * the repository, so the layout of the storage (directory, zip file, single-file log) is not known to them.
+ * <p>
+ * The song index ({@link SongNodeLoader#SONG_INDEX_FILE_NAME}) is stored as any other song file.
+ * The repositories can be read from multiple threads.
+ * @author Tomas Janecek
+ */
+public interface SongRepository extends Closeable {
+    /** @return All the stored files (songs and the song index) in the order of the storage. */
+    List<SongEntry> list();
+
+
+    /**
+     * Reads the content of the file.
+     * @param name Name of the file.
+     * @return Buffer with the encoded content (ready to be read) - valid only until the next read on the same thread.
+     * @throws IOException If the file does not exist or can not be read.
+     */
+    ByteBuffer read(String name) throws IOException;
+
+
+    /**
+     * Creates or replaces the file.
+     * @param name    Name of the file.
+     * @param content Encoded content.
+     * @throws UnsupportedOperationException If the repository is read-only.
+     */
+    void write(String name, byte[] content);
+
+
+    /**
+     * Deletes the file (does nothing if it does not exist).
+     * @param name Name of the file.
+     * @throws UnsupportedOperationException If the repository is read-only.
+     */
+    void delete(String name);
+
+
+    /** @return File set as the source file of the songs loaded from the given file (its name is the name of the file). */
+    File getSourceFile(String name);
+
+
+    /** @return File where {@link SongNodeLoader} keeps the cache of the parsed songs (null if the songs should not be cached). */
+    File getCacheFile();
+
+
+    @Override
+    void close();
+}
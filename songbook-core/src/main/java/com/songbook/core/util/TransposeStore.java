@@ -0,0 +1,361 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent transpositions of the songs (by the song file name) stored as an append-only journal.
+ * <p>
+ * Every change appends a record of a few bytes, so the cost of a change does not depend on the number of the
+ * transposed songs. The file names are interned - every name is written to the journal only once (with its id)
+ * and the changes then refer to the id, in memory the transpositions are kept in an int array indexed by the id.
+ * Once the journal holds many more records than needed for the current transpositions it is compacted
+ * (rewritten with a single record per transposed song). An incomplete record at the end of the journal
+ * (interrupted write) is dropped when the journal is loaded.
+ * <p>
+ * Files in the original text format ("name|transposition" lines) are converted to the journal when loaded.
+ * Only java.io is used, so the store works on the old Android versions as well.
+ * @author Tomas Janecek
+ */
+public class TransposeStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransposeStore.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] MAGIC = { 'S', 'B', 'T', 'J' };
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final byte RECORD_NAME = 1;         // id, name length, name (UTF-8)
+    private static final byte RECORD_TRANSPOSE = 2;    // id, transposition (zigzag)
+
+    /** Number of records the journal may always hold before it is compacted. */
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    private final File file;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private List<String> names = new ArrayList<String>();
+    private int[] transpositions = new int[16];
+    private int transposedCount;
+    private int recordCount;
+    private OutputStream out;
+
+
+    /**
+     * Constructor - loads the transpositions from the file (the file is created when the first change is saved).
+     * @param file Journal file.
+     */
+    public TransposeStore(File file) {
+        this.file = file;
+        try {
+            byte[] data = readFile(file);
+            if (data.length == 0) {
+                return;
+            }
+            if (!startsWithMagic(data)) {
+                loadText(data);
+                compact();
+                return;
+            }
+            if (data.length < HEADER_SIZE || data[MAGIC.length] != FORMAT_VERSION) {
+                throw new IOException("Unsupported version of transpose journal " + file.getName());
+            }
+            int end = loadJournal(data);
+            if (end < data.length) {
+                logger.warn("Dropping incomplete end of transpose journal {} ({} bytes)", file.getName(), data.length - end);
+                RandomAccessFile journal = new RandomAccessFile(file, "rw");
+                try {
+                    journal.setLength(end);
+                } finally {
+                    journal.close();
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to load transpose journal " + file.getAbsolutePath(), ex);
+        }
+    }
+
+
+    /** @return Transposition of the song (0 if the song is not transposed). */
+    public int getTransposition(String songFileName) {
+        Integer id = ids.get(songFileName);
+        return (id == null) ? 0 : transpositions[id];
+    }
+
+
+    /** @return Number of the transposed songs. */
+    public int getTransposedCount() {
+        return transposedCount;
+    }
+
+
+    /**
+     * Saves the transposition of the song - appends the change to the journal.
+     * @param songFileName  File name of the song.
+     * @param transposition Transposition (0 to remove the transposition).
+     */
+    public void setTransposition(String songFileName, int transposition) {
+        Integer id = ids.get(songFileName);
+        if (id == null ? transposition == 0 : transpositions[id] == transposition) {
+            return;
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(16);
+        if (id == null) {
+            id = intern(songFileName);
+            writeNameRecord(record, id, songFileName);
+        }
+        writeTransposeRecord(record, id, transposition);
+        setValue(id, transposition);
+
+        if (recordCount > MIN_COMPACTION_RECORDS && recordCount > 4 * transposedCount) {
+            compact();
+        } else {
+            append(record.toByteArray());
+        }
+    }
+
+
+    @Override
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                logger.error("Failed to close transpose journal " + file.getName(), ex);
+            }
+            out = null;
+        }
+    }
+
+
+    /** @return Position after the last complete record. */
+    private int loadJournal(byte[] data) {
+        int position = HEADER_SIZE;
+        int[] cursor = new int[1];
+        while (position < data.length) {
+            cursor[0] = position + 1;
+            try {
+                int id = readVarInt(data, cursor);
+                if (data[position] == RECORD_NAME && id == names.size()) {
+                    int length = readVarInt(data, cursor);
+                    if (cursor[0] + length > data.length) {
+                        break;
+                    }
+                    intern(new String(data, cursor[0], length, UTF_8));
+                    cursor[0] += length;
+                } else if (data[position] == RECORD_TRANSPOSE && id < names.size()) {
+                    int value = readVarInt(data, cursor);
+                    setValue(id, (value >>> 1) ^ -(value & 1));
+                } else {
+                    break;
+                }
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                break;   // Incomplete record
+            }
+            recordCount++;
+            position = cursor[0];
+        }
+        return position;
+    }
+
+
+    /** Loads the original text format. */
+    private void loadText(byte[] data) {
+        String content = new String(data, UTF_8);
+        int lineStart = 0;
+        while (lineStart < content.length()) {
+            int lineEnd = content.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = content.length();
+            }
+            int separator = content.indexOf('|', lineStart);
+            if (separator > lineStart && separator < lineEnd) {
+                int valueEnd = content.indexOf('|', separator + 1);
+                valueEnd = (valueEnd < 0 || valueEnd > lineEnd) ? lineEnd : valueEnd;
+                try {
+                    int transposition = Integer.parseInt(content.substring(separator + 1, valueEnd).trim());
+                    setValue(intern(content.substring(lineStart, separator)), transposition);
+                } catch (NumberFormatException ex) {
+                    logger.warn("Skipping invalid transposition : {}", content.substring(lineStart, lineEnd));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+
+    /** Rewrites the journal with the current transpositions only (the names of not transposed songs are dropped). */
+    private void compact() {
+        close();
+        List<String> oldNames = names;
+        int[] oldTranspositions = transpositions;
+        ids.clear();
+        names = new ArrayList<String>();
+        transpositions = new int[Math.max(16, transposedCount)];
+        transposedCount = 0;
+        recordCount = 0;
+
+        ByteArrayOutputStream journal = new ByteArrayOutputStream(HEADER_SIZE + oldNames.size() * 24);
+        journal.write(MAGIC, 0, MAGIC.length);
+        journal.write(FORMAT_VERSION);
+        for (int i = 0; i < oldNames.size(); i++) {
+            if (oldTranspositions[i] != 0) {
+                int id = intern(oldNames.get(i));
+                writeNameRecord(journal, id, oldNames.get(i));
+                writeTransposeRecord(journal, id, oldTranspositions[i]);
+                setValue(id, oldTranspositions[i]);
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream tempOut = new FileOutputStream(tempFile);
+            try {
+                journal.writeTo(tempOut);
+                tempOut.getFD().sync();
+            } finally {
+                tempOut.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile.getName() + " to " + file.getName());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to compact transpose journal " + file.getAbsolutePath(), ex);
+        }
+    }
+
+
+    private void append(byte[] record) {
+        try {
+            if (out == null) {
+                boolean created = !file.exists() || file.length() == 0;
+                out = new FileOutputStream(file, true);
+                if (created) {
+                    out.write(new byte[] { MAGIC[0], MAGIC[1], MAGIC[2], MAGIC[3], FORMAT_VERSION });
+                }
+            }
+            out.write(record);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to save transposition to " + file.getAbsolutePath(), ex);
+        }
+    }
+
+
+    private int intern(String name) {
+        int id = names.size();
+        names.add(name);
+        ids.put(name, id);
+        if (id == transpositions.length) {
+            transpositions = Arrays.copyOf(transpositions, id * 2);
+        }
+        return id;
+    }
+
+
+    private void setValue(int id, int transposition) {
+        if (transpositions[id] == 0 && transposition != 0) {
+            transposedCount++;
+        } else if (transpositions[id] != 0 && transposition == 0) {
+            transposedCount--;
+        }
+        transpositions[id] = transposition;
+    }
+
+
+    private void writeNameRecord(ByteArrayOutputStream record, int id, String name) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        record.write(RECORD_NAME);
+        writeVarInt(record, id);
+        writeVarInt(record, nameBytes.length);
+        record.write(nameBytes, 0, nameBytes.length);
+        recordCount++;
+    }
+
+
+    private void writeTransposeRecord(ByteArrayOutputStream record, int id, int transposition) {
+        record.write(RECORD_TRANSPOSE);
+        writeVarInt(record, id);
+        writeVarInt(record, (transposition << 1) ^ (transposition >> 31));
+        recordCount++;
+    }
+
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+
+    private static int readVarInt(byte[] data, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = data[cursor[0]++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ArrayIndexOutOfBoundsException("Invalid variable length integer");
+    }
+
+
+    /** Reads the whole file (empty array if the file does not exist). */
+    private static byte[] readFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return new byte[0];
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+
+    private static boolean startsWithMagic(byte[] data) {
+        if (data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
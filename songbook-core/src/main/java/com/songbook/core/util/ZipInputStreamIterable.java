@@ -17,7 +17,6 @@
  */
 package com.songbook.core.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.ZipEntry;
@@ -30,7 +29,6 @@ public class ZipInputStreamIterable extends GenericIterable<DataEntry> {
     private static Logger logger = LoggerFactory.getLogger(ZipInputStreamIterable.class);
     private String description;
     private ZipInputStream zipInputStream;
-    private byte[] buffer = new byte[1024];
 
 
     public ZipInputStreamIterable(ZipInputStream inputStream, String description) {
@@ -48,13 +46,8 @@ public class ZipInputStreamIterable extends GenericIterable<DataEntry> {
         try {
             ZipEntry zipEntry = zipInputStream.getNextEntry();
             if (zipEntry != null) {
-                // Read into stream
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                int count;
-                while ((count = zipInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, count);
-                }
-                return new DataEntry(zipEntry.getName(), outputStream.toByteArray());
+                // Read directly into array sized by the uncompressed size (if stored before the data)
+                return new DataEntry(zipEntry.getName(), FileIO.readStreamToBytes(zipInputStream, zipEntry.getSize()));
             } else {
                 zipInputStream.close();
                 return null;
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Read-only repository of the songs stored in a zip file - the central directory is read once when the repository
+ * is opened, the files are listed in the order of the entries (directory entries are skipped).
+ * @author Tomas Janecek
+ */
+public class ZipSongRepository implements SongRepository {
+    private final ZipFile zip;
+
+
+    public ZipSongRepository(File zipFile) {
+        try {
+            this.zip = new ZipFile(zipFile);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open zip file " + zipFile.getAbsolutePath(), ex);
+        }
+    }
+
+
+    @Override
+    public List<SongEntry> list() {
+        List<SongEntry> entries = new ArrayList<SongEntry>(zip.size());
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+            if (!entry.isDirectory()) {
+                entries.add(new SongEntry(entry.getName(), entry.getSize(), entry.getTime()));
+            }
+        }
+        return entries;
+    }
+
+
+    @Override
+    public ByteBuffer read(String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null || entry.isDirectory()) {
+            throw new NoSuchFileException(name);
+        }
+        try (InputStream inputStream = zip.getInputStream(entry)) {
+            return ByteBuffer.wrap(FileIO.readStreamToBytes(inputStream, entry.getSize()));
+        }
+    }
+
+
+    @Override
+    public void write(String name, byte[] content) {
+        throw new UnsupportedOperationException("Zip song book " + zip.getName() + " is read-only");
+    }
+
+
+    @Override
+    public void delete(String name) {
+        throw new UnsupportedOperationException("Zip song book " + zip.getName() + " is read-only");
+    }
+
+
+    @Override
+    public File getSourceFile(String name) {
+        return new File(name);
+    }
+
+
+    @Override
+    public File getCacheFile() {
+        return null;
+    }
+
+
+    @Override
+    public void close() {
+        try {
+            zip.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to close zip file " + zip.getName(), ex);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.visitor;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.songbook.core.model.ContentHash;
+import com.songbook.core.model.SongNode;
+
+/**
+ * Cache of the HTML (see {@link HtmlBuilderVisitor}) and text (see {@link TextBuilderVisitor}) renderings of the songs.
+ * <p>
+ * The renderings are keyed by the content hash of the song (see {@link SongNode#getContentHash()}), its song book
+ * index, the transposition and the set of the HTML modes - an edited song has a different content hash, so a stale
+ * rendering is never returned. The cache is bounded by the total number of characters of the renderings, the least
+ * recently used renderings are evicted first. Thread-safe - the songs are rendered outside the lock.
+ * @author Tomas Janecek
+ */
+public class RenderCache {
+    private final int maxChars;
+    private final Map<Key, String> renderings = new LinkedHashMap<Key, String>(16, 0.75f, true);
+    private int charCount;
+    private long hitCount;
+    private long missCount;
+
+
+    /**
+     * Constructor - creates an empty cache.
+     * @param maxChars Maximal total number of characters of the cached renderings.
+     */
+    public RenderCache(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+
+    /**
+     * Returns the HTML representation of the song - the cached one or a newly rendered one.
+     * @param songNode      Song to be rendered.
+     * @param transposition Transposition to be applied.
+     * @param mode          Modes of the rendering (null items are ignored).
+     * @return HTML representation of the song.
+     */
+    public String getHtml(SongNode songNode, int transposition, HtmlBuilderVisitor.Mode... mode) {
+        EnumSet<HtmlBuilderVisitor.Mode> modeSet = EnumSet.noneOf(HtmlBuilderVisitor.Mode.class);
+        for (HtmlBuilderVisitor.Mode item : mode) {
+            if (item != null) {
+                modeSet.add(item);
+            }
+        }
+        Key key = new Key(songNode, transposition, modeSet);
+        String result = get(key);
+        if (result == null) {
+            StringBuffer sb = new StringBuffer();
+            songNode.accept(new HtmlBuilderVisitor(sb, transposition, modeSet.toArray(new HtmlBuilderVisitor.Mode[modeSet.size()])));
+            result = put(key, sb.toString());
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the text representation of the song - the cached one or a newly rendered one.
+     * @param songNode      Song to be rendered.
+     * @param transposition Transposition to be applied.
+     * @return Text representation of the song.
+     */
+    public String getText(SongNode songNode, int transposition) {
+        Key key = new Key(songNode, transposition, null);
+        String result = get(key);
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            songNode.accept(new TextBuilderVisitor(sb, transposition));
+            result = put(key, sb.toString());
+        }
+        return result;
+    }
+
+
+    /**
+     * Removes all renderings of the song (e.g. when the song is saved).
+     * @param songNode Song whose renderings are removed.
+     */
+    public synchronized void invalidate(SongNode songNode) {
+        ContentHash contentHash = songNode.getContentHash();
+        for (Iterator<Map.Entry<Key, String>> it = renderings.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, String> entry = it.next();
+            if (entry.getKey().contentHash.equals(contentHash)) {
+                charCount -= entry.getValue().length();
+                it.remove();
+            }
+        }
+    }
+
+
+    /** Removes all renderings. */
+    public synchronized void clear() {
+        renderings.clear();
+        charCount = 0;
+    }
+
+
+    /** @return Number of the cached renderings. */
+    public synchronized int size() {
+        return renderings.size();
+    }
+
+
+    /** @return Total number of characters of the cached renderings. */
+    public synchronized int getCharCount() {
+        return charCount;
+    }
+
+
+    /** @return Number of the renderings returned from the cache. */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+
+    /** @return Number of the renderings which were not cached (and were rendered). */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+
+    private synchronized String get(Key key) {
+        String result = renderings.get(key);
+        if (result == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return result;
+    }
+
+
+    private synchronized String put(Key key, String rendering) {
+        if (rendering.length() > maxChars) {
+            return rendering;
+        }
+        String previous = renderings.put(key, rendering);
+        if (previous != null) {
+            charCount -= previous.length();
+        }
+        charCount += rendering.length();
+        for (Iterator<String> it = renderings.values().iterator(); charCount > maxChars; ) {
+            charCount -= it.next().length();
+            it.remove();
+        }
+        return rendering;
+    }
+
+
+    /** Key of a rendering - the modes are null for the text rendering. */
+    private static class Key {
+        private final ContentHash contentHash;
+        private final Integer index;
+        private final int transposition;
+        private final EnumSet<HtmlBuilderVisitor.Mode> mode;
+
+
+        Key(SongNode songNode, int transposition, EnumSet<HtmlBuilderVisitor.Mode> mode) {
+            this.contentHash = songNode.getContentHash();
+            this.index = songNode.getIndex();
+            this.transposition = transposition;
+            this.mode = mode;
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return contentHash.equals(other.contentHash) && Objects.equals(index, other.index)
+                    && transposition == other.transposition && Objects.equals(mode, other.mode);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return (contentHash.hashCode() * 31 + Objects.hashCode(index)) * 31 + transposition * 7 + Objects.hashCode(mode);
+        }
+    }
+}
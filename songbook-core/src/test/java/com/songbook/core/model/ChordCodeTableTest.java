@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChordCodeTableTest {
+
+    @Test
+    public void chordsAreEncodedAndDecoded() {
+        ChordCodeTable table = new ChordCodeTable(Arrays.asList("mi7", "7", "mi7"));
+        Assert.assertEquals(Arrays.asList("", "7", "mi7"), table.getSuffixes());
+
+        ChordSymbol symbol = ChordSymbol.of("F#mi7", "E");
+        int code = table.encode(symbol);
+        Assert.assertEquals(6, code & 0xf);
+        Assert.assertEquals(2, (code >>> 4) & 0xfff);
+        Assert.assertEquals(4, (code >>> 16) & 0xf);
+        Assert.assertEquals(symbol.getText(3), table.decode(code).getText(3));
+        Assert.assertEquals("Es", table.decode(table.encode(ChordSymbol.of("D#", ""))).getText());
+        Assert.assertEquals(15, (table.encode(ChordSymbol.of("A", "")) >>> 16) & 0xf);
+
+        Assert.assertEquals(ChordCodeTable.UNKNOWN_CODE, table.encode(ChordSymbol.of("C", "N.C.")));
+        Assert.assertEquals(ChordCodeTable.UNKNOWN_CODE, table.encode(ChordSymbol.of("Cmaj7", "")));
+    }
+
+
+    @Test
+    public void codesDoNotDependOnTheOrderOfTheSongs() {
+        List<SongNode> songList = new ArrayList<SongNode>();
+        for (String[] chords : new String[][] { { "Cmaj7", "G" }, { "Ami", "D9" }, { "E7", "Hmi/F#" } }) {
+            List<Node> lineContent = new ArrayList<Node>();
+            for (String chord : chords) {
+                int slash = chord.indexOf('/');
+                lineContent.add(new ChordNode((slash < 0) ? chord : chord.substring(0, slash), (slash < 0) ? "" : chord.substring(slash + 1)));
+            }
+            songList.add(new SongNode(new TitleNode("T", null),
+                    Collections.singletonList(new VerseNode(Collections.singletonList(new LineNode(lineContent))))));
+        }
+        ChordCodeTable table = ChordCodeTable.of(songList);
+        Collections.reverse(songList);
+        Assert.assertEquals(table.getSuffixes(), ChordCodeTable.of(songList).getSuffixes());
+        Assert.assertEquals(Arrays.asList("", "7", "9", "maj7", "mi"), table.getSuffixes());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChordSymbolTest {
+    private static final String[] CHORDS = { "C", "C#", "Cis", "D", "D#", "Es", "Esmi", "E7", "F", "F#mi", "G", "G#", "As",
+            "A", "Ami7", "A#", "B", "Bmaj7", "H", "Hmi", "Ds", "N.C.", "x", "" };
+
+
+    @Test
+    public void transpositionMatchesStringTransposition() {
+        for (String chord : CHORDS) {
+            for (String bass : new String[] { "", "E", "Hmi", "N.C." }) {
+                ChordNode chordNode = new ChordNode(chord, bass);
+                for (int transposition = -25; transposition <= 25; transposition++) {
+                    String expected = bass.isEmpty()
+                            ? transpose(chord, transposition)
+                            : transpose(chord, transposition) + "/" + transpose(bass, transposition);
+                    Assert.assertEquals(chord + "/" + bass + " " + transposition, expected, chordNode.getText(transposition));
+                    Assert.assertSame(chordNode.getText(transposition), chordNode.getText(transposition));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void knownChordsAreParsed() {
+        ChordSymbol symbol = ChordSymbol.of("F#mi7", "E");
+        Assert.assertSame(symbol, new ChordNode("F#mi7", "E").getSymbol());
+        Assert.assertTrue(symbol.isKnown());
+        Assert.assertEquals(6, symbol.getRoot());
+        Assert.assertEquals("mi7", symbol.getSuffix());
+        Assert.assertEquals(4, symbol.getBassRoot());
+        Assert.assertEquals("", symbol.getBassSuffix());
+        Assert.assertEquals(-1, ChordSymbol.of("Ami", "").getBassRoot());
+
+        ChordSymbol unknown = ChordSymbol.of("C", "N.C.");
+        Assert.assertFalse(unknown.isKnown());
+        Assert.assertEquals(0, unknown.getRoot());
+        Assert.assertEquals(-1, unknown.getBassRoot());
+        Assert.assertEquals("D/N.C.", unknown.getText(2));
+    }
+
+
+    /** Original transposition of a single chord (by the String operations). */
+    private static String transpose(String chord, int transposition) {
+        Map<String, Integer> chordToIdx = new HashMap<String, Integer>();
+        String[] idxToChord = { "C", "C#", "D", "Es", "E", "F", "F#", "G", "G#", "A", "B", "H" };
+        for (int i = 0; i < idxToChord.length; i++) {
+            chordToIdx.put(idxToChord[i], i);
+        }
+        chordToIdx.put("D#", 3);
+        chordToIdx.put("As", 8);
+        chordToIdx.put("A#", 10);
+
+        String base = chord;
+        String suffix = "";
+        if (chord.length() > 1) {
+            base = ((chord.charAt(1) == 's') || (chord.charAt(1) == '#')) ? chord.substring(0, 2) : chord.substring(0, 1);
+            suffix = chord.replaceFirst(base, "");
+        }
+        Integer chordIdx = chordToIdx.get(base);
+        return (chordIdx == null) ? chord : idxToChord[(chordIdx + 12 + (transposition % 12)) % 12] + suffix;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.songbook.core.parser.SongCorpusGenerator;
+import com.songbook.core.visitor.TextBuilderVisitor;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Verifies that the compact song book returns the same songs as the SongNode trees it was built from.
+ * The retained heap of both representations is compared only on request (e.g. -Dsongbook.footprintSongCount=100000).
+ */
+public class CompactSongBookTest {
+    private static final int SONG_COUNT = 500;
+    private static final Integer FOOTPRINT_SONG_COUNT = Integer.getInteger("songbook.footprintSongCount");
+
+
+    @Test
+    public void viewsAreEqualToOriginalSongs() throws Exception {
+        List<SongNode> songs = new SongCorpusGenerator(5).generateSongNodes(SONG_COUNT, 6, 9);
+        songs.add(new SongNode(new TitleNode("Empty", null), new ArrayList<VerseNode>()));
+        for (int i = 0; i < songs.size(); i++) {
+            songs.set(i, songs.get(i).withSourceFileAndIndex(i % 4 == 0 ? null : new File("songs", "song" + i + ".txt"), i % 3 == 0 ? null : i));
+        }
+
+        CompactSongBook songBook = new CompactSongBook(songs);
+        Assert.assertEquals(songs.size(), songBook.getSongNodeList().size());
+        for (int i = 0; i < songs.size(); i++) {
+            SongNode expected = songs.get(i);
+            SongNode actual = songBook.getSongNodeList().get(i);
+            Assert.assertEquals(expected.toString(), actual.toString());
+            Assert.assertEquals(expected.getTitle(), actual.getTitle());
+            Assert.assertEquals(expected.getTitleNode().getSubTitle(), actual.getTitleNode().getSubTitle());
+            Assert.assertEquals(expected.getIndex(), actual.getIndex());
+            Assert.assertEquals(expected.getSourceFile(), actual.getSourceFile());
+            Assert.assertEquals(expected.getSearchText(), actual.getSearchText());
+            Assert.assertEquals(render(expected, i % 12), render(actual, i % 12));
+            Assert.assertEquals(actual, songBook.getSongNodeList().get(i));
+        }
+
+        SongNode copy = songBook.getSongNodeList().get(1).withIndex(42);
+        Assert.assertEquals(Integer.valueOf(42), copy.getIndex());
+        Assert.assertEquals(songs.get(1).getSourceFile(), copy.getSourceFile());
+        Assert.assertEquals(songs.get(1).toString(), copy.toString());
+        Assert.assertEquals(songs.get(1).getIndex(), songBook.getSongNodeList().get(1).getIndex());
+    }
+
+
+    @Test
+    public void poolsHoldEveryStringAndChordOnce() throws Exception {
+        List<SongNode> songs = new SongCorpusGenerator(6).generateSongNodes(SONG_COUNT, 6, 9);
+        int charCount = 0;
+        Set<ChordSymbol> chords = new HashSet<ChordSymbol>();
+        for (SongNode songNode : songs) {
+            charCount += songNode.getTitleNode().getTitle().length() + length(songNode.getTitleNode().getSubTitle());
+            for (VerseNode verseNode : songNode.getVerseList()) {
+                for (LineNode lineNode : verseNode.getLineNodes()) {
+                    for (Node node : lineNode.getContentList()) {
+                        if (node instanceof TextNode) {
+                            charCount += ((TextNode) node).getText().length();
+                        } else {
+                            ChordSymbol symbol = ((ChordNode) node).getSymbol();
+                            if (chords.add(symbol)) {
+                                charCount += symbol.getChord().length() + symbol.getBass().length();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        CompactSongBook songBook = new CompactSongBook(songs);
+        Assert.assertEquals(chords.size(), songBook.getChordCount());
+        Assert.assertEquals(charCount, songBook.getCharCount());
+    }
+
+
+    @Test
+    public void compactSongBookRetainsLessHeap() throws Exception {
+        Assume.assumeNotNull(FOOTPRINT_SONG_COUNT);
+        long baseline = usedHeap();
+        List<SongNode> songs = new SongCorpusGenerator(5).generateSongNodes(FOOTPRINT_SONG_COUNT, 6, 9);
+        long treeBytes = usedHeap() - baseline;
+
+        CompactSongBook songBook = new CompactSongBook(songs);
+        int fragmentCount = countFragments(songs);
+        songs = null;
+        long compactBytes = usedHeap() - baseline;
+
+        Assert.assertTrue("Compact song book of " + songBook.getSongNodeList().size() + " songs (" + fragmentCount + " fragments) retains "
+                + compactBytes + " bytes, trees " + treeBytes, compactBytes * 2 < treeBytes);
+    }
+
+
+    private static int countFragments(List<SongNode> songs) {
+        int count = 0;
+        for (SongNode songNode : songs) {
+            for (VerseNode verseNode : songNode.getVerseList()) {
+                for (LineNode lineNode : verseNode.getLineNodes()) {
+                    count += lineNode.getContentList().size();
+                }
+            }
+        }
+        return count;
+    }
+
+
+    private static int length(String string) {
+        return (string == null) ? 0 : string.length();
+    }
+
+
+    private static String render(SongNode songNode, int transposition) {
+        StringBuilder sb = new StringBuilder();
+        songNode.accept(new TextBuilderVisitor(sb, transposition));
+        return sb.toString();
+    }
+
+
+    private static long usedHeap() throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.songbook.core.parser.IncrementalSongParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentHashTest {
+    private static final String SONG = "{title:Song - Sub}\n\n[C]la la [G/H]li\nla\n\nlu[D]\n";
+
+    private final IncrementalSongParser parser = new IncrementalSongParser();
+
+
+    @Test
+    public void hashIsStable() throws Exception {
+        Assert.assertEquals("f7c15a4d4d5b058ae4f20fd84d2b87f2", parser.parse(SONG).getContentHash().toString());
+    }
+
+
+    @Test
+    public void nodesDoNotChangeWithTheListsTheyWereBuiltFrom() throws Exception {
+        List<Node> contentList = new ArrayList<Node>();
+        contentList.add(new TextNode("la"));
+        LineNode lineNode = new LineNode(contentList);
+        List<LineNode> lines = new ArrayList<LineNode>();
+        lines.add(lineNode);
+        VerseNode verseNode = new VerseNode(lines);
+        List<VerseNode> verses = new ArrayList<VerseNode>();
+        verses.add(verseNode);
+        SongNode songNode = new SongNode(new TitleNode("Song"), verses);
+        ContentHash contentHash = songNode.getContentHash();
+
+        contentList.add(new ChordNode("C", ""));
+        lines.add(lineNode);
+        verses.clear();
+
+        Assert.assertEquals(1, lineNode.getContentList().size());
+        Assert.assertFalse(lineNode.hasChords());
+        Assert.assertEquals(1, verseNode.getLineNodes().size());
+        Assert.assertEquals(1, songNode.getVerseList().size());
+        Assert.assertEquals(contentHash, new SongNode(new TitleNode("Song"), songNode.getVerseList()).getContentHash());
+    }
+
+
+    @Test
+    public void hashDependsOnContentOnly() throws Exception {
+        SongNode songNode = parser.parse(SONG);
+        SongNode shifted = parser.parse(SONG.replace("\n\n", "\r\n\r\n"));
+        SongNode copy = songNode.withSourceFileAndIndex(new File("song.txt"), 7);
+
+        Assert.assertEquals(songNode.getContentHash(), shifted.getContentHash());
+        Assert.assertEquals(songNode.getContentHash(), copy.getContentHash());
+        Assert.assertEquals(songNode, shifted);
+        Assert.assertFalse(songNode.equals(copy));
+        Assert.assertEquals(copy, shifted.withSourceFileAndIndex(new File("song.txt"), 7));
+
+        Assert.assertFalse(songNode.getContentHash().equals(parser.parse(SONG.replace("[C]", "[Cmi]")).getContentHash()));
+        Assert.assertFalse(songNode.getContentHash().equals(parser.parse(SONG.replace("la la", "la  la")).getContentHash()));
+        Assert.assertFalse(songNode.getContentHash().equals(parser.parse(SONG.replace("li\nla", "li la")).getContentHash()));
+        Assert.assertFalse(songNode.getContentHash().equals(parser.parse(SONG.replace("Sub", "Sub2")).getContentHash()));
+    }
+
+
+    @Test
+    public void lazyAndCompactSongsHaveHashOfTheirContent() throws Exception {
+        SongCorpusGenerator generator = new SongCorpusGenerator(19);
+        List<SongNode> songList = new ArrayList<SongNode>();
+        Set<ContentHash> hashes = new HashSet<ContentHash>();
+        for (int i = 0; i < 200; i++) {
+            SongNode songNode = parser.parse(generator.generateSong(1 + i % 4, 1 + i % 6)).withIndex(i);
+            songList.add(songNode);
+            hashes.add(songNode.getContentHash());
+
+            LazySongNode lazySongNode = new LazySongNode(songNode.getTitleNode(), songNode::getVerseList, null, i);
+            Assert.assertEquals(songNode.getContentHash(), lazySongNode.getContentHash());
+            Assert.assertEquals(songNode, lazySongNode);
+        }
+        Assert.assertEquals(songList.size(), hashes.size());
+
+        List<SongNode> compactSongList = new CompactSongBook(songList).getSongNodeList();
+        for (int i = 0; i < songList.size(); i++) {
+            Assert.assertEquals(songList.get(i).getContentHash(), compactSongList.get(i).getContentHash());
+            Assert.assertEquals(songList.get(i), compactSongList.get(i));
+            Assert.assertEquals(compactSongList.get(i), songList.get(i));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazySongNodeTest {
+    private static final int THREAD_COUNT = 8;
+
+
+    @Test
+    public void bodyIsParsedOnceWhenAccessedConcurrently() throws Exception {
+        final AtomicInteger parseCount = new AtomicInteger();
+        final LazySongNode songNode = new LazySongNode(new TitleNode("T", null), () -> {
+            parseCount.incrementAndGet();
+            List<Node> lineContent = Collections.<Node>singletonList(new TextNode("la"));
+            return Collections.singletonList(new VerseNode(Collections.singletonList(new LineNode(lineContent))));
+        });
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<List<VerseNode>>> futures = new ArrayList<Future<List<VerseNode>>>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(new Callable<List<VerseNode>>() {
+                    @Override
+                    public List<VerseNode> call() throws Exception {
+                        startLatch.await();
+                        return songNode.getVerseList();
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<List<VerseNode>> future : futures) {
+                Assert.assertSame(songNode.getVerseList(), future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, parseCount.get());
+        Assert.assertTrue(songNode.isBodyParsed());
+    }
+
+
+    @Test
+    public void copiesShareTheBody() {
+        final AtomicInteger parseCount = new AtomicInteger();
+        LazySongNode songNode = new LazySongNode(new TitleNode("T", null), () -> {
+            parseCount.incrementAndGet();
+            return Collections.singletonList(new VerseNode(Collections.singletonList(new LineNode(Collections.<Node>emptyList()))));
+        }, new File("t.txt"), null);
+
+        SongNode copy = songNode.withIndex(3);
+        Assert.assertTrue(copy instanceof LazySongNode);
+        Assert.assertNull(songNode.getIndex());
+        Assert.assertEquals(Integer.valueOf(3), copy.getIndex());
+        Assert.assertEquals(new File("t.txt"), copy.getSourceFile());
+        Assert.assertSame(songNode.getVerseList(), copy.getVerseList());
+        Assert.assertEquals(1, parseCount.get());
+    }
+
+
+    @Test
+    public void differentSongsAreComparedWithoutParsing() {
+        final AtomicInteger parseCount = new AtomicInteger();
+        List<SongNode> songList = new ArrayList<SongNode>();
+        for (int i = 0; i < 10; i++) {
+            songList.add(new LazySongNode(new TitleNode("T", null), () -> {
+                parseCount.incrementAndGet();
+                return Collections.singletonList(new VerseNode(Collections.singletonList(new LineNode(Collections.<Node>emptyList()))));
+            }, new File("t" + i + ".txt"), null));
+        }
+
+        SongNode last = songList.get(songList.size() - 1);
+        Assert.assertEquals(songList.size() - 1, songList.indexOf(last));
+        Assert.assertTrue(songList.remove(last));
+        Assert.assertFalse(songList.get(0).equals(songList.get(1)));
+        Assert.assertFalse(songList.get(0).hashCode() == songList.get(1).hashCode());
+        Assert.assertEquals(0, parseCount.get());
+
+        // Same file, index and title - the verses are compared
+        Assert.assertEquals(songList.get(0), songList.get(0).withIndex(null));
+        Assert.assertEquals(songList.get(0).hashCode(), songList.get(0).withIndex(null).hashCode());
+    }
+}
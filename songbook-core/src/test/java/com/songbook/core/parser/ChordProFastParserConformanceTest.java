@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+
+import com.songbook.core.model.SongNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Verifies that the hand-written parser builds the same trees as the JavaCC generated one. */
+public class ChordProFastParserConformanceTest {
+    private static final int CORPUS_SIZE = 10000;
+
+    private final Parser<SongNode> referenceParser = ChordProParser.createParser();
+    private final Parser<SongNode> fastParser = ChordProFastParser.createParser();
+
+
+    @Test
+    public void validCorpusProducesSameTrees() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(42);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String song = generator.generateSong(1 + i % 8, 1 + i % 12);
+            String expected = parse(referenceParser, song);
+            Assert.assertNotNull("Reference parser rejected a valid song:\n" + song, expected);
+            Assert.assertEquals("Different tree for:\n" + song, expected, parse(fastParser, song));
+        }
+    }
+
+
+    @Test
+    public void noisyCorpusProducesSameTreesOrSameFailures() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(4242);
+        int rejected = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String song = generator.generateNoisySong(1 + i % 4, 1 + i % 6);
+            String expected = parse(referenceParser, song);
+            Assert.assertEquals("Different result for:\n" + song, expected, parse(fastParser, song));
+            if (expected == null) {
+                rejected++;
+            }
+        }
+        // Make sure that the corpus exercises both the valid and the invalid paths
+        Assert.assertTrue(rejected > 0 && rejected < CORPUS_SIZE);
+    }
+
+
+    @Test
+    public void edgeCasesProduceSameTreesOrSameFailures() {
+        String[] songs = {
+                "", "Title", "Title\n", "Title\n\n", "Title\r\n\r\n", "Title\r\rla", "Title\n\nla",
+                "{title:T}\n\nla", "{title:T}\n{subtitle:S}\n\n[C]", "{title:}\n\nla", "{title:T}\n{subtitle:S}\nla",
+                "{subtitle:S}\n\nla", "T\n\n[C/]", "T\n\n[/C]", "T\n\n[C/G/D]", "T\n\n[]", "T\n\n[C", "T\n\nla]",
+                "T\n\nla\n\nla\n\n\nla", "T\n\n\n\n\nla\n\n\n\n", "T\n\nla {x", "T\n\n{title:x}", "T - A - B\n\nla",
+                "T\n\n[C][D]la[E]\n[F]", "AC/DC - T/S\n\n/: la [C]la/la :/", "{title:A/B}\n\n[C/]la", "T\n\nla]la",
+                "T\n\n[C\n]", "T\n\n[{title:]", "T\n\n[C]/[D]/" };
+        for (String song : songs) {
+            Assert.assertEquals("Different result for:\n" + song, parse(referenceParser, song), parse(fastParser, song));
+        }
+    }
+
+
+    /**
+     * @return String representation of the parsed tree, null if the parser rejected the input
+     *         or the exception type if building of the model failed.
+     */
+    private static String parse(Parser<SongNode> parser, String song) {
+        try {
+            return parser.parse(new StringReader(song)).toString();
+        } catch (ParserException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            return ex.getClass().getName();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.visitor.TextBuilderVisitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Verifies the error-recovering mode of the hand-written parser. */
+public class ChordProFastParserRecoveryTest {
+    private static final int CORPUS_SIZE = 2000;
+
+    private final ChordProFastParser parser = new ChordProFastParser();
+
+
+    @Test
+    public void brokenLinesAreSkipped() {
+        ParseResult<SongNode> result = parser.parseRecovering("T\n\nla [C\nli li\n\n\n[D]ok\n{x\n\n\nend");
+
+        Assert.assertEquals("T\n\n\nli li\n\n\n[D]ok\n\n\nend\n", toText(result.getValue()));
+        Assert.assertEquals(2, result.getDiagnostics().size());
+        assertDiagnostic(3, 6, result.getDiagnostics().get(0));
+        assertDiagnostic(8, 1, result.getDiagnostics().get(1));
+    }
+
+
+    @Test
+    public void brokenTitleIsReplaced() {
+        ParseResult<SongNode> result = parser.parseRecovering("{title:T\n\n[C]la\n");
+
+        Assert.assertEquals("", result.getValue().getTitle());
+        Assert.assertEquals(1, result.getValue().getVerseList().size());
+        Assert.assertEquals(1, result.getDiagnostics().size());
+        assertDiagnostic(1, 9, result.getDiagnostics().get(0));
+    }
+
+
+    @Test
+    public void recoveringModeAgreesWithStrictMode() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(4242);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String song = generator.generateNoisySong(1 + i % 4, 1 + i % 6);
+            ParseResult<SongNode> result = parser.parseRecovering(new StringReader(song));
+            try {
+                SongNode songNode = parser.parse(song);
+                Assert.assertFalse("Unexpected error for:\n" + song, result.hasErrors());
+                Assert.assertEquals(songNode.toString(), result.getValue().toString());
+            } catch (ParserException ex) {
+                Assert.assertTrue("Missing error for:\n" + song, result.hasErrors());
+                Assert.assertEquals(ex.getMessage(), result.getDiagnostics().get(0).getMessage());
+            } catch (RuntimeException ex) {
+                // Model rejected the title (e.g. "-") - the same failure is expected in the recovering mode
+                try {
+                    parser.parseRecovering(song);
+                    Assert.fail("Expected " + ex);
+                } catch (RuntimeException expected) {
+                    Assert.assertEquals(ex.getClass(), expected.getClass());
+                }
+            }
+        }
+    }
+
+
+    private static void assertDiagnostic(int line, int column, ParserDiagnostic diagnostic) {
+        Assert.assertEquals(diagnostic.toString(), line, diagnostic.getLine());
+        Assert.assertEquals(diagnostic.toString(), column, diagnostic.getColumn());
+    }
+
+
+    private static String toText(SongNode songNode) {
+        StringBuilder sb = new StringBuilder();
+        songNode.accept(new TextBuilderVisitor(sb, 0));
+        return sb.toString();
+    }
+}
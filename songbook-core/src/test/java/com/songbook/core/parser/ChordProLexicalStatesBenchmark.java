@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.singlestate.SingleStateChordProParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the allocation of the single state grammar (lyrics split into TEXT tokens at every "/", see
+ * src/test/javacc) with the lyric lexical state of {@link ChordProParser}. Both parsers are constructed for every
+ * song and parse the same corpus without "/" in the lyrics, which the single state grammar cannot parse.
+ * <p>
+ * Run from songbook-core and compare gc.alloc.rate.norm (bytes per song) of the two benchmarks:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main ChordProLexicalStatesBenchmark -prof gc"
+ * </pre>
+ * @author Tomas Janecek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChordProLexicalStatesBenchmark {
+    private static final int CORPUS_SIZE = 100;
+
+    private String[] songs;
+    private int nextSong;
+
+
+    @Setup
+    public void setUp() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(1);
+        songs = new String[CORPUS_SIZE];
+        for (int i = 0; i < songs.length; i++) {
+            songs[i] = SongCorpusGenerator.withoutLyricSlashes(generator.generateSong(4, 8));
+        }
+    }
+
+
+    @Benchmark
+    public SongNode singleStateGrammar() throws com.songbook.core.parser.singlestate.ParseException {
+        return new SingleStateChordProParser(new StringReader(nextSong())).Start();
+    }
+
+
+    @Benchmark
+    public SongNode lexicalStatesGrammar() throws ParseException {
+        return new ChordProParser(new StringReader(nextSong())).Start();
+    }
+
+
+    private String nextSong() {
+        nextSong = (nextSong + 1) % songs.length;
+        return songs[nextSong];
+    }
+}
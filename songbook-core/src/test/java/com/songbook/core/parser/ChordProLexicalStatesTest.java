@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TextNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.parser.singlestate.SingleStateChordProParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the lyrics which contain "/". Before the lexical states "/" was a SLASH token everywhere, the lyric text
+ * was split at it and the line failed to parse - now "/" is special only inside of the chord.
+ */
+public class ChordProLexicalStatesTest {
+    private static final int CORPUS_SIZE = 500;
+
+
+    @Test
+    public void slashInLyricsIsPartOfTheText() throws Exception {
+        for (Parser<SongNode> parser : parsers()) {
+            SongNode songNode = parser.parse(new StringReader("AC/DC\n\nAC/DC and/or [Ami/C]la/la\n"));
+            Assert.assertEquals("AC/DC", songNode.getTitle());
+
+            List<Node> nodes = songNode.getVerseList().get(0).getLineNodes().get(0).getContentList();
+            Assert.assertEquals(3, nodes.size());
+            Assert.assertEquals("AC/DC and/or ", ((TextNode) nodes.get(0)).getText());
+            Assert.assertEquals("Ami/C", ((ChordNode) nodes.get(1)).getText());
+            Assert.assertEquals("la/la", ((TextNode) nodes.get(2)).getText());
+        }
+    }
+
+
+    @Test
+    public void lyricRunIsSingleTextNode() throws Exception {
+        List<String> corpus = buildCorpus();
+        for (Parser<SongNode> parser : parsers()) {
+            int slashTextCount = 0;
+            for (String song : corpus) {
+                for (VerseNode verseNode : parser.parse(new StringReader(song)).getVerseList()) {
+                    for (LineNode lineNode : verseNode.getLineNodes()) {
+                        Node previous = null;
+                        for (Node node : lineNode.getContentList()) {
+                            Assert.assertFalse("Adjacent text nodes in " + lineNode,
+                                    previous instanceof TextNode && node instanceof TextNode);
+                            if (node instanceof TextNode && ((TextNode) node).getText().contains("/")) {
+                                slashTextCount++;
+                            }
+                            previous = node;
+                        }
+                    }
+                }
+            }
+            Assert.assertTrue("The corpus has no lyrics with \"/\"", slashTextCount > 0);
+        }
+    }
+
+
+    @Test
+    public void singleStateGrammarBuildsTheSameSongsWithoutLyricSlashes() throws Exception {
+        // ChordProLexicalStatesBenchmark compares the grammars on these songs
+        Parser<SongNode> singleStateParser = SingleStateChordProParser.createParser();
+        Parser<SongNode> parser = ChordProParser.createParser();
+        for (String song : buildCorpus()) {
+            String singleStateSong = SongCorpusGenerator.withoutLyricSlashes(song);
+            Assert.assertEquals(parser.parse(new StringReader(singleStateSong)),
+                    singleStateParser.parse(new StringReader(singleStateSong)));
+        }
+    }
+
+
+    private static List<Parser<SongNode>> parsers() {
+        return Arrays.asList(ChordProParser.createParser(), ChordProFastParser.createParser());
+    }
+
+
+    private static List<String> buildCorpus() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(7);
+        List<String> corpus = new ArrayList<String>();
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            corpus.add(generator.generateSong(4, 8));
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the parsers - JavaCC parser constructed for every song,
+ * JavaCC parser reused per thread (createParser) and the hand-written parser.
+ * <p>
+ * Run from songbook-core (add "-prof gc" to the arguments to see the allocation rate, "-t 4" to run in 4 threads):
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main ChordProParserBenchmark -prof gc"
+ * </pre>
+ * @author Tomas Janecek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChordProParserBenchmark {
+    private static final int CORPUS_SIZE = 100;
+
+    private final Parser<SongNode> pooledParser = ChordProParser.createParser();
+    private final Parser<SongNode> fastParser = ChordProFastParser.createParser();
+    private String[] songs;
+    private int nextSong;
+
+
+    @Setup
+    public void setUp() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(1);
+        songs = new String[CORPUS_SIZE];
+        for (int i = 0; i < songs.length; i++) {
+            songs[i] = generator.generateSong(4, 8);
+        }
+    }
+
+
+    @Benchmark
+    public SongNode perCallConstruction() throws ParseException {
+        return new ChordProParser(new StringReader(nextSong())).Start();
+    }
+
+
+    @Benchmark
+    public SongNode pooledParser() throws ParserException {
+        return pooledParser.parse(new StringReader(nextSong()));
+    }
+
+
+    @Benchmark
+    public SongNode fastParser() throws ParserException {
+        return fastParser.parse(new StringReader(nextSong()));
+    }
+
+
+    private String nextSong() {
+        nextSong = (nextSong + 1) % songs.length;
+        return songs[nextSong];
+    }
+}
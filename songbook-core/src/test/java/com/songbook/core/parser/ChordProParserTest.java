@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.songbook.core.model.SongNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Verifies that the reused (per thread) JavaCC parser behaves like a freshly constructed one. */
+public class ChordProParserTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int SONGS_PER_THREAD = 500;
+
+    private final Parser<SongNode> parser = ChordProParser.createParser();
+
+
+    @Test
+    public void reusedParserRecoversAfterFailure() throws Exception {
+        String validSong = "T\n\n[C]la la\n";
+        String expected = new ChordProParser(new StringReader(validSong)).Start().toString();
+
+        Assert.assertEquals(expected, parser.parse(new StringReader(validSong)).toString());
+        for (String invalidSong : new String[] { "T\n\nla [C", "T\n\nla ]", "" }) {
+            try {
+                parser.parse(new StringReader(invalidSong));
+                Assert.fail("Expected failure for: " + invalidSong);
+            } catch (ParserException ex) {
+                // Expected
+            }
+            Assert.assertEquals(expected, parser.parse(new StringReader(validSong)).toString());
+        }
+    }
+
+
+    @Test
+    public void parserGrownByLongLineIsDropped() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 256 * 1024) {
+            longLine.append("la la ");
+        }
+        String longSong = "T\n\n[C]" + longLine + "\n";
+        String validSong = "T\n\n[C]la la\n";
+
+        parser.parse(new StringReader(validSong));
+        ChordProParser shortSongParser = ChordProParser.getThreadParser();
+        Assert.assertNotNull(shortSongParser);
+        parser.parse(new StringReader(validSong));
+        Assert.assertSame(shortSongParser, ChordProParser.getThreadParser());
+
+        Assert.assertEquals(new ChordProParser(new StringReader(longSong)).Start().toString(),
+                parser.parse(new StringReader(longSong)).toString());
+        Assert.assertNull(ChordProParser.getThreadParser());
+
+        Assert.assertEquals(new ChordProParser(new StringReader(validSong)).Start().toString(),
+                parser.parse(new StringReader(validSong)).toString());
+        ChordProParser newParser = ChordProParser.getThreadParser();
+        Assert.assertNotNull(newParser);
+        Assert.assertNotSame(shortSongParser, newParser);
+        Assert.assertTrue(newParser.jj_input_stream.bufsize <= 64 * 1024);
+        parser.parse(new StringReader(validSong));
+        Assert.assertSame(newParser, ChordProParser.getThreadParser());
+    }
+
+
+    @Test
+    public void sharedParserIsThreadSafe() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final long seed = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        SongCorpusGenerator generator = new SongCorpusGenerator(seed);
+                        for (int j = 0; j < SONGS_PER_THREAD; j++) {
+                            String song = generator.generateSong(1 + j % 4, 1 + j % 8);
+                            String expected = new ChordProParser(new StringReader(song)).Start().toString();
+                            Assert.assertEquals(expected, parser.parse(new StringReader(song)).toString());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the latency of the full parse and of the incremental re-parse after a single edit in the middle
+ * of a long song (medley). Run like {@link ChordProParserBenchmark}.
+ * @author Tomas Janecek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalSongParserBenchmark {
+    private static final int LINES_PER_VERSE = 8;
+
+    @Param({ "2000", "10000" })
+    private int lineCount;
+
+    private final Parser<SongNode> javaCCParser = ChordProParser.createParser();
+    private final IncrementalSongParser incrementalParser = new IncrementalSongParser();
+    private String content;
+    private String editedContent;
+    private SongNode songNode;
+
+
+    @Setup
+    public void setUp() throws ParserException {
+        content = new SongCorpusGenerator(1).generateSong(lineCount / LINES_PER_VERSE, LINES_PER_VERSE);
+        int editPosition = content.indexOf('\n', content.length() / 2);
+        editedContent = content.substring(0, editPosition) + " la la [Ami]la" + content.substring(editPosition);
+        songNode = incrementalParser.parse(content);
+    }
+
+
+    @Benchmark
+    public SongNode fullParseJavaCC() throws ParserException {
+        return javaCCParser.parse(new StringReader(editedContent));
+    }
+
+
+    @Benchmark
+    public SongNode fullParse() throws ParserException {
+        return incrementalParser.parse(editedContent);
+    }
+
+
+    @Benchmark
+    public SongNode incrementalReparse() throws ParserException {
+        return incrementalParser.reparse(songNode, content, editedContent);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.util.Random;
+
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Verifies that the incremental re-parse produces the same trees (including source spans) as the full parse. */
+public class IncrementalSongParserTest {
+    private static final int SONG_COUNT = 300;
+    private static final int EDITS_PER_SONG = 20;
+    private static final String[] INSERTS = { "x", "la la ", "[C]", "[G/H]", "\n", "\n\n", "\n\n\n", "\r\n", "\r", "[", "]", "/", "{title:" };
+
+    private final IncrementalSongParser parser = new IncrementalSongParser();
+
+
+    @Test
+    public void sourceSpansCoverTheParsedText() throws Exception {
+        String song = "{title:T}\n\n[C]la\nla la\n\n\n\nli[D]\r\n";
+        SongNode songNode = parser.parse(song);
+
+        Assert.assertEquals("VerseNode[11,26](LineNode[11,17]LineNode[17,24])VerseNode[26,33](LineNode[26,33])", describeSpans(songNode));
+    }
+
+
+    @Test
+    public void randomEditsProduceSameTreesAsFullParse() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(11);
+        Random random = new Random(11);
+        for (int i = 0; i < SONG_COUNT; i++) {
+            String content = generator.generateSong(1 + i % 6, 1 + i % 5);
+            SongNode songNode = parseOrNull(content);
+            for (int j = 0; j < EDITS_PER_SONG && songNode != null; j++) {
+                String edited = edit(content, random);
+                String expected = describe(parseOrNull(edited));
+                SongNode reparsed;
+                try {
+                    reparsed = parser.reparse(songNode, content, edited);
+                } catch (ParserException ex) {
+                    reparsed = null;
+                }
+                Assert.assertEquals("Different result for edit of:\n" + content + "\nto:\n" + edited, expected, describe(reparsed));
+
+                if (reparsed != null) {
+                    content = edited;
+                    songNode = reparsed;
+                }
+            }
+        }
+    }
+
+
+    private static String edit(String content, Random random) {
+        int start = random.nextInt(content.length() + 1);
+        int end = Math.min(content.length(), start + random.nextInt(4));
+        String insert = random.nextBoolean() ? INSERTS[random.nextInt(INSERTS.length)] : "";
+        return content.substring(0, start) + insert + content.substring(end);
+    }
+
+
+    private SongNode parseOrNull(String content) {
+        try {
+            return parser.parse(content);
+        } catch (ParserException ex) {
+            return null;
+        }
+    }
+
+
+    private static String describe(SongNode songNode) {
+        return songNode == null ? null : songNode.toString() + describeSpans(songNode);
+    }
+
+
+    private static String describeSpans(SongNode songNode) {
+        StringBuilder sb = new StringBuilder();
+        for (VerseNode verseNode : songNode.getVerseList()) {
+            sb.append("VerseNode[").append(verseNode.getSourceStart()).append(',').append(verseNode.getSourceEnd()).append("](");
+            for (LineNode lineNode : verseNode.getLineNodes()) {
+                sb.append("LineNode[").append(lineNode.getSourceStart()).append(',').append(lineNode.getSourceEnd()).append(']');
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.util.StringUtil;
+
+/** Generates deterministic pseudo-random songs in the ChordPro format for tests and benchmarks. */
+public class SongCorpusGenerator {
+    private static final String[] WORDS = {
+            "la", "love", "me", "do", "when", "I", "find", "myself", "in", "times", "of", "trouble",
+            "Mother", "Mary", "comes", "to", "speaking", "words", "wisdom", "let", "it", "be",
+            "P\u0159\u00edli\u0161", "\u017elu\u0165ou\u010dk\u00fd", "k\u016f\u0148", "\u00fap\u011bl", "\u010f\u00e1blesk\u00e9", "\u00f3dy",
+            "1.", "R:", "2x", "-", ",", "...", "\t", "AC/DC", "and/or", "/:", ":/" };
+    private static final String[] CHORDS = {
+            "C", "C#", "D", "Es", "E", "F", "F#", "G", "G#", "As", "A", "B", "H",
+            "Em", "Ami", "Dm7", "G7", "C#mi", "Fmaj7", "Hsus4", "Edim", "A6" };
+    private static final String[] NOISE = { "/", "]", "[", "{", "}", "{title:", "{subtitle:", "\n", "\r", "\r\n", "[]", "[/]" };
+    private static final String[] EOLS = { "\n", "\n", "\n", "\r\n", "\r" };
+
+    private final Random random;
+
+
+    public SongCorpusGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+
+    /**
+     * Generates a syntactically valid song.
+     * @param verseCount Number of verses.
+     * @param lineCount  Number of lines per verse.
+     * @return Song in the ChordPro format.
+     */
+    public String generateSong(int verseCount, int lineCount) {
+        String eol = EOLS[random.nextInt(EOLS.length)];
+        StringBuilder sb = new StringBuilder();
+
+        // Title
+        switch (random.nextInt(3)) {
+            case 0:
+                sb.append(words(3)).append(" - ").append(words(2)).append(eol);
+                break;
+            case 1:
+                sb.append("{title:").append(words(3)).append("}").append(eol);
+                break;
+            default:
+                sb.append("{title:").append(words(3)).append("}").append(eol);
+                sb.append("{subtitle:").append(words(2)).append("}").append(eol);
+                break;
+        }
+        sb.append(eol);
+
+        // Verses
+        for (int verse = 0; verse < verseCount; verse++) {
+            for (int line = 0; line < lineCount; line++) {
+                appendLine(sb);
+                sb.append(eol);
+                if (random.nextBoolean()) {
+                    sb.append(eol);
+                }
+            }
+            sb.append(eol).append(eol);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Replaces "/" outside of the chords, so that the song can be parsed by the single state grammar
+     * which does not allow "/" in the lyrics.
+     * @param song Song in the ChordPro format.
+     * @return Song with "-" instead of "/" in the title and lyrics.
+     */
+    public static String withoutLyricSlashes(String song) {
+        return song.replaceAll("/(?![^\\[]*\\])", "-");
+    }
+
+
+    /**
+     * Generates a song with random syntax noise (the song may or may not be valid).
+     * @param verseCount Number of verses.
+     * @param lineCount  Number of lines per verse.
+     * @return Song in the ChordPro format with noise.
+     */
+    public String generateNoisySong(int verseCount, int lineCount) {
+        StringBuilder sb = new StringBuilder(generateSong(verseCount, lineCount));
+        int noiseCount = 1 + random.nextInt(3);
+        for (int i = 0; i < noiseCount; i++) {
+            sb.insert(random.nextInt(sb.length() + 1), NOISE[random.nextInt(NOISE.length)]);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Generates the songs and parses them - the song i has (1 + i % maxVerseCount) verses of (1 + i % maxLineCount) lines.
+     * @param count         Number of songs.
+     * @param maxVerseCount Maximum number of verses.
+     * @param maxLineCount  Maximum number of lines per verse.
+     * @return Parsed songs.
+     */
+    public List<SongNode> generateSongNodes(int count, int maxVerseCount, int maxLineCount) {
+        ChordProFastParser parser = new ChordProFastParser();
+        List<SongNode> songList = new ArrayList<SongNode>(count);
+        for (int i = 0; i < count; i++) {
+            String song = generateSong(1 + i % maxVerseCount, 1 + i % maxLineCount);
+            try {
+                songList.add(parser.parse(song));
+            } catch (ParserException ex) {
+                throw new RuntimeException("Failed to parse the generated song: " + song, ex);
+            }
+        }
+        return songList;
+    }
+
+
+    /**
+     * Reference full-text search - scans the search texts of all songs.
+     * @param songList Searched songs.
+     * @param query    Searched text (normalized as the search text).
+     * @return Ids (indexes to the song list) of the songs containing the text, in ascending order.
+     */
+    public static int[] findSongsContaining(List<SongNode> songList, String query) {
+        String text = StringUtil.removeAccentsAndNonStandardCharacters(query);
+        List<Integer> songIds = new ArrayList<Integer>();
+        for (int songId = 0; songId < songList.size(); songId++) {
+            if (songList.get(songId).getSearchText().contains(text)) {
+                songIds.add(songId);
+            }
+        }
+        int[] result = new int[songIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = songIds.get(i);
+        }
+        return result;
+    }
+
+
+    private void appendLine(StringBuilder sb) {
+        int fragments = 1 + random.nextInt(6);
+        for (int i = 0; i < fragments; i++) {
+            if (random.nextInt(3) == 0) {
+                sb.append("[").append(CHORDS[random.nextInt(CHORDS.length)]);
+                if (random.nextInt(5) == 0) {
+                    sb.append("/").append(CHORDS[random.nextInt(CHORDS.length)]);
+                }
+                sb.append("]");
+            } else {
+                sb.append(words(1 + random.nextInt(4))).append(' ');
+            }
+        }
+    }
+
+
+    private String words(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.parser.IncrementalSongParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChordProgressionIndexTest {
+    private static final int SONG_COUNT = 300;
+    private static final int QUERY_COUNT = 500;
+
+    private final IncrementalSongParser parser = new IncrementalSongParser();
+
+
+    @Test
+    public void progressionIsFoundInAnyKey() throws Exception {
+        ChordProgressionIndex index = new ChordProgressionIndex();
+        index.put("a.txt", parser.parse("{title:A}\n\n[G]la [D]la [Emi]la [C]la\n\n\n[Ami]li [F]li\n"));
+        index.put("b.txt", parser.parse("{title:B}\n\n[C]la [C7]la [G]la\n[Ami]la [F]la\n"));
+        index.put("c.txt", parser.parse("{title:C}\n\n[C]la [G]la [A]la [F]la\n"));
+
+        Assert.assertEquals("[Match[a.txt, verse=0, chord=0, transposition=0], Match[b.txt, verse=0, chord=0, transposition=5]]",
+                index.search("G D Em C").toString());
+        Assert.assertEquals("[Match[a.txt, verse=0, chord=0, transposition=7], Match[b.txt, verse=0, chord=0, transposition=0]]",
+                index.search("I-V-vi-IV").toString());
+        Assert.assertEquals("[Match[a.txt, verse=0, chord=0, transposition=5], Match[b.txt, verse=0, chord=0, transposition=10]]",
+                index.search("D A Hmi G").toString());
+        Assert.assertEquals(1, index.search("Ami F").get(2).getLineIndex());
+        Assert.assertEquals(2, index.search("Ami F").get(2).getChordIndex());
+        Assert.assertEquals("[Match[a.txt, verse=0, chord=2, transposition=7], Match[a.txt, verse=1, chord=0, transposition=0], "
+                + "Match[b.txt, verse=0, chord=2, transposition=0]]", index.search("vi, IV").toString());
+        Assert.assertEquals("[Match[c.txt, verse=0, chord=0, transposition=5]]", index.search("G D E C").toString());
+    }
+
+
+    @Test
+    public void savedSongIsReindexed() throws Exception {
+        ChordProgressionIndex index = new ChordProgressionIndex();
+        index.put("a.txt", parser.parse("{title:A}\n\n[G]la [D]la [Emi]la [C]la\n"));
+        index.put("b.txt", parser.parse("{title:B}\n\n[E]la [H]la [C#mi]la [A]la\n"));
+        Assert.assertEquals(2, index.search("I V vi IV").size());
+
+        index.put("a.txt", parser.parse("{title:A}\n\n[G]la [Emi]la [C]la [D]la\n"));
+        Assert.assertEquals("[Match[b.txt, verse=0, chord=0, transposition=4]]", index.search("I V vi IV").toString());
+        Assert.assertEquals("[Match[a.txt, verse=0, chord=0, transposition=7]]", index.search("I vi IV V").toString());
+
+        Assert.assertTrue(index.remove("b.txt"));
+        Assert.assertFalse(index.remove("b.txt"));
+        Assert.assertEquals(0, index.search("I V vi IV").size());
+        Assert.assertEquals(1, index.size());
+    }
+
+
+    @Test
+    public void unknownChordsBreakTheProgression() throws Exception {
+        ChordProgressionIndex index = new ChordProgressionIndex();
+        index.put("a.txt", parser.parse("{title:A}\n\n[C]la [X]la [G]la [Ami]la\n"));
+
+        Assert.assertEquals(0, index.search("C G").size());
+        Assert.assertEquals(0, index.search("C G Ami").size());
+        Assert.assertEquals(1, index.search("G Ami").size());
+        try {
+            index.search("C X");
+            Assert.fail("Unknown chord accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void incrementalIndexMatchesRebuiltIndex() throws Exception {
+        List<SongNode> songList = new SongCorpusGenerator(1).generateSongNodes(SONG_COUNT, 4, 5);
+        List<SongNode> changedSongs = new SongCorpusGenerator(2).generateSongNodes(SONG_COUNT, 4, 5);
+        Random random = new Random(23);
+
+        ChordProgressionIndex index = new ChordProgressionIndex();
+        for (int i = 0; i < songList.size(); i++) {
+            index.put("song" + i, songList.get(i));
+        }
+        for (int i = 0; i < songList.size() / 3; i++) {
+            int songId = random.nextInt(songList.size());
+            if (random.nextBoolean()) {
+                songList.set(songId, changedSongs.get(songId));
+                index.put("song" + songId, songList.get(songId));
+            } else {
+                songList.set(songId, null);
+                index.remove("song" + songId);
+            }
+        }
+        ChordProgressionIndex rebuiltIndex = new ChordProgressionIndex();
+        for (int i = 0; i < songList.size(); i++) {
+            if (songList.get(i) != null) {
+                rebuiltIndex.put("song" + i, songList.get(i));
+            }
+        }
+        Assert.assertEquals(rebuiltIndex.size(), index.size());
+        Assert.assertEquals(rebuiltIndex.getGramCount(), index.getGramCount());
+
+        // Transposed parts of the verses are found
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            int songId = random.nextInt(songList.size());
+            if (songList.get(songId) == null || songList.get(songId).getVerseList().isEmpty()) {
+                continue;
+            }
+            int verse = random.nextInt(songList.get(songId).getVerseList().size());
+            List<ChordNode> chords = getChords(songList.get(songId).getVerseList().get(verse));
+            int start = random.nextInt(chords.size() + 1);
+            int transposition = random.nextInt(12);
+            StringBuilder query = new StringBuilder();
+            for (int j = start; j < Math.min(chords.size(), start + 2 + random.nextInt(4)); j++) {
+                query.append(chords.get(j).getText(transposition)).append(' ');
+            }
+
+            List<ChordProgressionIndex.Match> matches;
+            try {
+                matches = index.search(query.toString());
+            } catch (IllegalArgumentException ex) {
+                continue;   // Unknown chord or less than 2 different chords
+            }
+            Assert.assertEquals(rebuiltIndex.search(query.toString()).toString(), matches.toString());
+            boolean found = false;
+            for (ChordProgressionIndex.Match match : matches) {
+                found |= match.getKey().equals("song" + songId) && match.getVerseIndex() == verse && match.getTransposition() == (12 - transposition) % 12;
+            }
+            Assert.assertTrue("Not found: " + query, found || hasUnknownChord(chords, start, query.toString()));
+        }
+    }
+
+
+    private static boolean hasUnknownChord(List<ChordNode> chords, int start, String query) {
+        for (int j = start; j < chords.size() && j - start < query.split(" ").length; j++) {
+            if (!chords.get(j).getSymbol().isKnown()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static List<ChordNode> getChords(VerseNode verseNode) {
+        List<ChordNode> chords = new ArrayList<ChordNode>();
+        for (LineNode lineNode : verseNode.getLineNodes()) {
+            for (Node node : lineNode.getContentList()) {
+                if (node instanceof ChordNode) {
+                    chords.add((ChordNode) node);
+                }
+            }
+        }
+        return chords;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.songbook.core.model.ChordNode;
+import com.songbook.core.model.ChordSymbol;
+import com.songbook.core.model.LineNode;
+import com.songbook.core.model.Node;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.parser.IncrementalSongParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChordVocabularyIndexTest {
+    private static final int SONG_COUNT = 1000;
+    private static final int QUERY_COUNT = 200;
+
+    private final IncrementalSongParser parser = new IncrementalSongParser();
+
+
+    @Test
+    public void songsArePlayableWithTheChords() throws Exception {
+        ChordVocabularyIndex index = new ChordVocabularyIndex(Arrays.asList(
+                parser.parse("{title:A}\n\n[G]la [C]la [D/Fis]la [Em]la\n"),
+                parser.parse("{title:B}\n\n[G]la [C]la [Hmi]la\n"),
+                parser.parse("{title:C}\n\n[C]la [F]la [G]la [Ami]la\n"),
+                parser.parse("{title:D}\n\nla la\n"),
+                parser.parse("{title:E}\n\n[G]la [X]la\n")));
+
+        Assert.assertArrayEquals(new int[] { 0 }, index.findPlayable("G, C, D, Emi", 0));
+        Assert.assertArrayEquals(new int[] { 0, 1, 4 }, index.findPlayable("G C D Emin", 1));
+        Assert.assertArrayEquals(new int[] { 4 }, index.findPlayable("G X", 0));
+        Assert.assertArrayEquals(new int[] { 0, 1, 2 }, index.findContaining("G C"));
+        Assert.assertArrayEquals(new int[] { 0 }, index.findContaining("Em D/A"));
+        Assert.assertEquals(0, index.findContaining("G Cmaj7").length);
+        Assert.assertEquals("[Match[A, transposition=0, extraChords=0], Match[C, transposition=7, extraChords=0], "
+                + "Match[B, transposition=0, extraChords=1], Match[E, transposition=0, extraChords=1]]", index.findPlayableInAnyKey("G C D Emi", 1).toString());
+    }
+
+
+    @Test
+    public void queriesMatchLinearScan() throws Exception {
+        List<SongNode> songList = new SongCorpusGenerator(24).generateSongNodes(SONG_COUNT, 4, 5);
+        ChordVocabularyIndex index = new ChordVocabularyIndex(songList);
+        List<Set<String>> songChords = new ArrayList<Set<String>>();
+        List<List<Set<String>>> transposedSongChords = new ArrayList<List<Set<String>>>();
+        Set<String> allChords = new HashSet<String>();
+        for (SongNode songNode : songList) {
+            songChords.add(getChords(songNode, 0));
+            allChords.addAll(songChords.get(songChords.size() - 1));
+            List<Set<String>> transposedChords = new ArrayList<Set<String>>();
+            for (int transposition = 0; transposition < 12; transposition++) {
+                transposedChords.add(getChords(songNode, transposition));
+            }
+            transposedSongChords.add(transposedChords);
+        }
+        List<String> chordList = new ArrayList<String>(allChords);
+
+        Random random = new Random(24);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            Set<String> query = new HashSet<String>();
+            for (int j = random.nextInt(12); j >= 0; j--) {
+                query.add(chordList.get(random.nextInt(chordList.size())));
+            }
+            String chords = String.join(" ", query);
+            int maxExtraChords = random.nextInt(3);
+
+            List<Integer> playable = new ArrayList<Integer>();
+            List<Integer> containing = new ArrayList<Integer>();
+            List<String> playableInAnyKey = new ArrayList<String>();
+            for (int songId = 0; songId < songList.size(); songId++) {
+                if (songChords.get(songId).isEmpty()) {
+                    continue;
+                }
+                if (countExtraChords(songChords.get(songId), query) <= maxExtraChords) {
+                    playable.add(songId);
+                }
+                if (songChords.get(songId).containsAll(query)) {
+                    containing.add(songId);
+                }
+                int bestExtraChords = Integer.MAX_VALUE;
+                for (int transposition = 0; transposition < 12; transposition++) {
+                    bestExtraChords = Math.min(bestExtraChords, countExtraChords(transposedSongChords.get(songId).get(transposition), query));
+                }
+                if (bestExtraChords <= maxExtraChords) {
+                    playableInAnyKey.add(songId + ":" + bestExtraChords);
+                }
+            }
+
+            Assert.assertEquals("Query " + chords, playable.toString(), Arrays.toString(index.findPlayable(chords, maxExtraChords)));
+            Assert.assertEquals("Query " + chords, containing.toString(), Arrays.toString(index.findContaining(chords)));
+            List<String> found = new ArrayList<String>();
+            for (ChordVocabularyIndex.Match match : index.findPlayableInAnyKey(chords, maxExtraChords)) {
+                Assert.assertEquals(match.getExtraChords(), countExtraChords(transposedSongChords.get(match.getSongId()).get(match.getTransposition()), query));
+                found.add(match.getSongId() + ":" + match.getExtraChords());
+            }
+            found.sort(null);
+            playableInAnyKey.sort(null);
+            Assert.assertEquals("Query " + chords, playableInAnyKey, found);
+        }
+    }
+
+
+    private static int countExtraChords(Set<String> songChords, Set<String> query) {
+        Set<String> extraChords = new HashSet<String>(songChords);
+        extraChords.removeAll(query);
+        return extraChords.size();
+    }
+
+
+    /** @return Main chords of the transposed song (as written by the transposition, minor suffixes normalized). */
+    private static Set<String> getChords(SongNode songNode, int transposition) {
+        Set<String> chords = new HashSet<String>();
+        for (VerseNode verseNode : songNode.getVerseList()) {
+            for (LineNode lineNode : verseNode.getLineNodes()) {
+                for (Node node : lineNode.getContentList()) {
+                    if (node instanceof ChordNode) {
+                        ChordSymbol symbol = ChordSymbol.of(((ChordNode) node).getSymbol().getChord(), "");
+                        String chord = symbol.getChord(transposition);
+                        chords.add(symbol.isKnown() ? chord.replaceFirst("^([A-H][s#]?)m(in)?(?!aj|i)", "$1mi") : chord);
+                    }
+                }
+            }
+        }
+        return chords;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.model.VerseNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of the typo-tolerant title search (top 10 songs) over 100k titles for different distance
+ * limits - the queries are titles of the songs with 0-3 typos. Run from songbook-core:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main FuzzyTitleIndexBenchmark"
+ * </pre>
+ * @author Tomas Janecek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FuzzyTitleIndexBenchmark {
+    private static final String[] SYLLABLES = {
+            "la", "lo", "ve", "me", "do", "when", "ti", "mes", "tro", "ub", "le", "ma", "ry", "co", "mes",
+            "spe", "ak", "wor", "ds", "wis", "let", "it", "be", "zlu", "ty", "kun", "pri", "lis", "up", "el" };
+    private static final int SONG_COUNT = 100000;
+    private static final int QUERY_COUNT = 1024;
+    private static final int MAX_RESULTS = 10;
+
+    @Param({ "1", "2", "3" })
+    private int maxDistance;
+
+    private FuzzyTitleIndex index;
+    private String[] queries;
+    private int query;
+
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(22);
+        List<SongNode> songList = new ArrayList<SongNode>(SONG_COUNT);
+        for (int i = 0; i < SONG_COUNT; i++) {
+            TitleNode titleNode = new TitleNode(randomTitle(random), random.nextBoolean() ? randomTitle(random) : null);
+            songList.add(new SongNode(titleNode, Collections.<VerseNode>emptyList()));
+        }
+        index = new FuzzyTitleIndex(songList);
+
+        queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            StringBuilder sb = new StringBuilder(songList.get(random.nextInt(SONG_COUNT)).getTitleNode().getTitle());
+            for (int typos = random.nextInt(4); typos > 0; typos--) {
+                int position = random.nextInt(sb.length());
+                sb.setCharAt(position, (char) ('a' + random.nextInt(26)));
+            }
+            queries[i] = sb.toString();
+        }
+    }
+
+
+    @Benchmark
+    public List<FuzzyTitleIndex.Match> search() {
+        query = (query + 1) % QUERY_COUNT;
+        return index.search(queries[query], maxDistance, MAX_RESULTS);
+    }
+
+
+    private static String randomTitle(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        return sb.toString();
+    }
+}
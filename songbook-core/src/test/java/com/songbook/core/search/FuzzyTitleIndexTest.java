@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.model.TitleNode;
+import com.songbook.core.model.VerseNode;
+import com.songbook.core.util.StringUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FuzzyTitleIndexTest {
+    private static final int SONG_COUNT = 2000;
+    private static final int QUERY_COUNT = 120;
+
+
+    @Test
+    public void misspelledTitlesAreFound() {
+        List<SongNode> songList = new ArrayList<SongNode>();
+        songList.add(createSong("Let It Be", null));
+        songList.add(createSong("Yesterday", "Beatles"));
+        songList.add(createSong("\u017dlut\u00fd k\u016f\u0148", null));
+        songList.add(createSong("Yellow Submarine", null));
+        FuzzyTitleIndex index = new FuzzyTitleIndex(songList);
+
+        List<FuzzyTitleIndex.Match> matches = index.search("Yestrday", 2, 10);
+        Assert.assertEquals(1, matches.size());
+        Assert.assertSame(songList.get(1), matches.get(0).getSongNode());
+        Assert.assertEquals(1, matches.get(0).getDistance());
+
+        Assert.assertEquals(2, index.search("zluty kun", 0, 10).get(0).getSongId());
+        Assert.assertEquals(1, index.search("beatls", 1, 10).get(0).getSongId());
+        Assert.assertEquals(0, index.search("let it bee", 1, 10).get(0).getSongId());
+        Assert.assertTrue(index.search("Yestrday", 0, 10).isEmpty());
+    }
+
+
+    @Test
+    public void searchReturnsTheClosestTitles() {
+        Random random = new Random(22);
+        List<SongNode> songList = new ArrayList<SongNode>();
+        for (int i = 0; i < SONG_COUNT; i++) {
+            songList.add(createSong(randomTitle(random), random.nextBoolean() ? randomTitle(random) : null));
+        }
+        FuzzyTitleIndex index = new FuzzyTitleIndex(songList);
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String query = misspell(songList.get(random.nextInt(SONG_COUNT)).getTitleNode().getTitle(), random);
+            int maxDistance = i % 4;
+            int maxResults = 1 + i % 10;
+            Assert.assertEquals("Query " + query, bruteForce(songList, query, maxDistance, maxResults),
+                    describe(index.search(query, maxDistance, maxResults)));
+        }
+    }
+
+
+    private static String bruteForce(List<SongNode> songList, String query, int maxDistance, int maxResults) {
+        List<FuzzyTitleIndex.Match> matches = new ArrayList<FuzzyTitleIndex.Match>();
+        for (int songId = 0; songId < songList.size(); songId++) {
+            TitleNode titleNode = songList.get(songId).getTitleNode();
+            int distance = distance(query, titleNode.getTitle());
+            if (titleNode.getSubTitle() != null) {
+                distance = Math.min(distance, distance(query, titleNode.getSubTitle()));
+            }
+            if (distance <= maxDistance) {
+                matches.add(new FuzzyTitleIndex.Match(songId, songList.get(songId), distance));
+            }
+        }
+        matches.sort((match1, match2) -> (match1.getDistance() != match2.getDistance())
+                ? Integer.compare(match1.getDistance(), match2.getDistance())
+                : Integer.compare(match1.getSongId(), match2.getSongId()));
+        return describe(matches.subList(0, Math.min(maxResults, matches.size())));
+    }
+
+
+    /** @return Levenshtein distance of the normalized texts (full matrix). */
+    private static int distance(String text1, String text2) {
+        String s1 = StringUtil.removeAccentsAndNonStandardCharacters(text1);
+        String s2 = StringUtil.removeAccentsAndNonStandardCharacters(text2);
+        int[][] matrix = new int[s1.length() + 1][s2.length() + 1];
+        for (int i = 0; i <= s1.length(); i++) {
+            for (int j = 0; j <= s2.length(); j++) {
+                if (i == 0 || j == 0) {
+                    matrix[i][j] = i + j;
+                } else {
+                    int substitution = matrix[i - 1][j - 1] + (s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1);
+                    matrix[i][j] = Math.min(substitution, Math.min(matrix[i - 1][j], matrix[i][j - 1]) + 1);
+                }
+            }
+        }
+        return matrix[s1.length()][s2.length()];
+    }
+
+
+    private static String describe(List<FuzzyTitleIndex.Match> matches) {
+        StringBuilder sb = new StringBuilder();
+        for (FuzzyTitleIndex.Match match : matches) {
+            sb.append(match.getSongId()).append(':').append(match.getDistance()).append(' ');
+        }
+        return sb.toString();
+    }
+
+
+    private static SongNode createSong(String title, String subTitle) {
+        return new SongNode(new TitleNode(title, subTitle), Collections.<VerseNode>emptyList());
+    }
+
+
+    private static String randomTitle(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 4 + random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(6)));
+        }
+        return sb.toString();
+    }
+
+
+    private static String misspell(String title, Random random) {
+        StringBuilder sb = new StringBuilder(title);
+        for (int i = random.nextInt(4); i > 0; i--) {
+            int position = random.nextInt(sb.length() + 1);
+            if (random.nextBoolean() && position < sb.length()) {
+                sb.deleteCharAt(position);
+            } else {
+                sb.insert(position, (char) ('a' + random.nextInt(6)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SearchSessionTest {
+    private static final int SONG_COUNT = 1000;
+    private static final long DEBOUNCE_MILLIS = 200;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<String>();
+
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void typedQueriesNarrowThePreviousResults() throws Exception {
+        List<SongNode> songList = new SongCorpusGenerator(25).generateSongNodes(SONG_COUNT, 4, 5);
+        final TrigramIndex index = new TrigramIndex(songList, null);
+        for (SearchSession session : Arrays.asList(createSession(songList, null, 0), createSession(songList, index, 0))) {
+            String typed = songList.get(7).getSearchText().substring(0, 12);
+            for (int length = 0; length <= typed.length(); length++) {
+                String query = typed.substring(0, length);
+                session.search(query);
+                Assert.assertEquals(expected(songList, query), results.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            }
+            session.search("x" + typed);
+            Assert.assertEquals(expected(songList, "x" + typed), results.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            session.close();
+        }
+    }
+
+
+    @Test
+    public void onlyTheLastQueryIsDelivered() throws Exception {
+        List<SongNode> songList = new SongCorpusGenerator(26).generateSongNodes(SONG_COUNT, 4, 5);
+        SearchSession session = createSession(songList, null, DEBOUNCE_MILLIS);
+        for (String query : Arrays.asList("l", "la", "la l", "la la")) {
+            session.search(query);
+        }
+        Assert.assertEquals(expected(songList, "la la"), results.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Assert.assertNull(results.poll(DEBOUNCE_MILLIS * 2, TimeUnit.MILLISECONDS));
+
+        // Replaced songs are searched, closed session delivers nothing
+        List<SongNode> otherSongList = new SongCorpusGenerator(27).generateSongNodes(SONG_COUNT, 4, 5);
+        session.setSongList(otherSongList);
+        session.search("la la");
+        Assert.assertEquals(expected(otherSongList, "la la"), results.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        session.search("la");
+        session.close();
+        Assert.assertNull(results.poll(DEBOUNCE_MILLIS * 2, TimeUnit.MILLISECONDS));
+    }
+
+
+    /** @return Result of the query delivered to the listener - as found by the linear scan. */
+    private static String expected(List<SongNode> songList, String query) {
+        return query + "=" + Arrays.toString(SongCorpusGenerator.findSongsContaining(songList, query));
+    }
+
+
+    private SearchSession createSession(List<SongNode> songList, final TrigramIndex index, long debounceMillis) {
+        return new SearchSession(songList, (index == null) ? null : () -> index, executor, Runnable::run, debounceMillis,
+                (query, songIds) -> results.add(query + "=" + Arrays.toString(songIds)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.IncrementalSongParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrigramIndexTest {
+    private static final int SONG_COUNT = 2000;
+    private static final int QUERY_COUNT = 2000;
+
+
+    @Test
+    public void searchFindsSameSongsAsLinearScan() throws Exception {
+        List<SongNode> songList = new SongCorpusGenerator(21).generateSongNodes(SONG_COUNT, 3, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TrigramIndex index = new TrigramIndex(songList, executor);
+            TrigramIndex sequentialIndex = new TrigramIndex(songList, null);
+            Assert.assertEquals(sequentialIndex.getTrigramCount(), index.getTrigramCount());
+
+            Random random = new Random(21);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                String text = songList.get(random.nextInt(songList.size())).getSearchText();
+                int start = random.nextInt(text.length() + 1);
+                String query = text.substring(start, Math.min(text.length(), start + random.nextInt(12)));
+                if (random.nextInt(4) == 0) {
+                    query = query.toUpperCase() + "x";
+                }
+
+                int[] expected = SongCorpusGenerator.findSongsContaining(songList, query);
+                Assert.assertArrayEquals("Query " + query, expected, index.search(query));
+                Assert.assertArrayEquals("Query " + query, expected, sequentialIndex.search(query));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void queryIsNormalized() throws Exception {
+        IncrementalSongParser parser = new IncrementalSongParser();
+        List<SongNode> songList = Arrays.asList(
+                parser.parse("{title:\u017dlut\u00fd k\u016f\u0148}\n\n[C]P\u0159\u00edli\u0161 \u017elu\u0165ou\u010dk\u00fd k\u016f\u0148\n"),
+                parser.parse("{title:Other}\n\n[C]la la\n"));
+        TrigramIndex index = new TrigramIndex(songList, null);
+
+        Assert.assertArrayEquals(new int[] { 0 }, index.search("PRILIS zlut"));
+        Assert.assertArrayEquals(new int[] { 0, 1 }, index.search(""));
+        Assert.assertArrayEquals(new int[] { 1 }, index.search("la-la"));
+        Assert.assertEquals(0, index.search("kun la").length);
+    }
+}
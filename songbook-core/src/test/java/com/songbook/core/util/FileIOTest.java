@@ -0,0 +1,41 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileIOTest {
+    @Test
+    public void expectedSizeOnlyHintsTheBufferSize() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 7];
+        Arrays.fill(content, (byte) 'a');
+
+        // Declared size far above the content (e.g. a forged zip entry) - must not be allocated up-front
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+                FileIO.readStreamToBytes(new ByteArrayInputStream(new byte[] { 1, 2, 3 }), Integer.MAX_VALUE));
+        // Declared size below the content - the buffer grows
+        Assert.assertArrayEquals(content, FileIO.readStreamToBytes(new ByteArrayInputStream(content), 10));
+        Assert.assertArrayEquals(content, FileIO.readStreamToBytes(new ByteArrayInputStream(content), content.length));
+        Assert.assertArrayEquals(content, FileIO.readStreamToBytes(new ByteArrayInputStream(content), -1));
+        Assert.assertArrayEquals(new byte[0], FileIO.readStreamToBytes(new ByteArrayInputStream(new byte[0]), 0));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogSongRepositoryTest {
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void songsSurviveReopeningWithAndWithoutIndex() throws IOException {
+        File logFile = new File(folder.getRoot(), "songs.log");
+        LogSongRepository repository = new LogSongRepository(logFile, null);
+        repository.write("b.txt", bytes("B\n\nla"));
+        repository.write("a.txt", bytes("A\n\nla"));
+        repository.write("c.txt", bytes("C\n\nla"));
+        repository.write("b.txt", bytes("B2\n\nli"));
+        repository.delete("c.txt");
+        repository.close();
+
+        // Reopen with the index, append a record and reopen without the index (full scan)
+        repository = new LogSongRepository(logFile, null);
+        Assert.assertEquals("[a.txt, b.txt]", names(repository));
+        repository.write("d.txt", bytes("D\n\nlu"));
+        repository.close();
+        Assert.assertTrue(new File(logFile.getPath() + LogSongRepository.INDEX_FILE_SUFFIX).delete());
+
+        repository = new LogSongRepository(logFile, null);
+        try {
+            Assert.assertEquals("[a.txt, b.txt, d.txt]", names(repository));
+            Assert.assertEquals("B2\n\nli", read(repository, "b.txt"));
+            Assert.assertEquals("D\n\nlu", read(repository, "d.txt"));
+        } finally {
+            repository.close();
+        }
+    }
+
+
+    @Test
+    public void damagedEndOfLogIsDropped() throws IOException {
+        File logFile = new File(folder.getRoot(), "songs.log");
+        LogSongRepository repository = new LogSongRepository(logFile, null);
+        repository.write("a.txt", bytes("A\n\nla"));
+        repository.close();
+        long validSize = logFile.length();
+        repository = new LogSongRepository(logFile, null);
+        repository.write("b.txt", bytes("B\n\nla la la"));
+        repository.close();
+
+        // Torn write of the last record (the index does not cover it)
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.setLength(logFile.length() - 3);
+        }
+        Assert.assertTrue(new File(logFile.getPath() + LogSongRepository.INDEX_FILE_SUFFIX).delete());
+
+        repository = new LogSongRepository(logFile, null);
+        try {
+            Assert.assertEquals("[a.txt]", names(repository));
+            Assert.assertEquals(validSize, repository.getLogSize());
+            Assert.assertEquals(validSize, logFile.length());
+            repository.write("c.txt", bytes("C\n\nla"));
+            Assert.assertEquals("C\n\nla", read(repository, "c.txt"));
+        } finally {
+            repository.close();
+        }
+    }
+
+
+    @Test
+    public void rewritesAreCompactedAndLoaded() throws IOException {
+        File logFile = new File(folder.getRoot(), "songs.log");
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(5);
+        LogSongRepository repository = new LogSongRepository(logFile, null);
+        long writtenBytes = 0;
+        try {
+            for (int round = 0; round < 60; round++) {
+                for (int i = 0; i < 50; i++) {
+                    String name = String.format("song%02d.txt", i);
+                    String song = generator.generateSong(2, 4);
+                    repository.write(name, bytes(song));
+                    writtenBytes += bytes(song).length;
+                    FileIO.writeStringToFile(new File(directory, name).getPath(), ENCODING, song);
+                }
+            }
+            // Superseded versions of the songs were dropped by the compaction
+            Assert.assertTrue(repository.getLogSize() < writtenBytes / 2);
+
+            SongNodeLoader loader = new SongNodeLoader(ChordProFastParser.createParser());
+            List<SongNode> expected = loader.loadSongNodesFromDirectory(directory, ENCODING);
+            List<SongNode> songs = loader.loadSongNodes(repository, ENCODING);
+            Assert.assertEquals(50, songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                Assert.assertEquals(expected.get(i).getSourceFile().getName(), songs.get(i).getSourceFile().getName());
+                Assert.assertEquals(expected.get(i).toString(), songs.get(i).toString());
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+
+    @Test
+    public void songsWrittenDuringCompactionAreKept() throws Exception {
+        File logFile = new File(folder.getRoot(), "songs.log");
+        SongCorpusGenerator generator = new SongCorpusGenerator(6);
+        Map<String, String> expected = new TreeMap<String, String>();
+        BlockingQueue<Runnable> compactions = new LinkedBlockingQueue<Runnable>();
+        LogSongRepository repository = new LogSongRepository(logFile, compactions::add);
+        try {
+            // Rewrites until the compaction is scheduled, then rewrites and deletes while the log is compacted
+            Thread compaction = null;
+            for (int round = 0; compaction == null || compaction.isAlive(); round++) {
+                for (int i = 0; i < 200; i++) {
+                    String name = String.format("song%03d.txt", i);
+                    if ((round + i) % 7 == 0) {
+                        repository.delete(name);
+                        expected.remove(name);
+                    } else {
+                        String song = generator.generateSong(2, 4);
+                        repository.write(name, bytes(song));
+                        expected.put(name, song);
+                    }
+                }
+                if (compaction == null && !compactions.isEmpty()) {
+                    compaction = new Thread(compactions.poll());
+                    compaction.start();
+                }
+            }
+            assertSongs(expected, repository);
+        } finally {
+            repository.close();
+        }
+
+        // Reopen with the index and without it (the compacted log is scanned)
+        for (int i = 0; i < 2; i++) {
+            repository = new LogSongRepository(logFile, null);
+            try {
+                assertSongs(expected, repository);
+            } finally {
+                repository.close();
+            }
+            Assert.assertTrue(new File(logFile.getPath() + LogSongRepository.INDEX_FILE_SUFFIX).delete());
+        }
+    }
+
+
+    private static void assertSongs(Map<String, String> expected, SongRepository repository) throws IOException {
+        Assert.assertEquals(expected.keySet().toString(), names(repository));
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), read(repository, entry.getKey()));
+        }
+    }
+
+
+    private static String names(SongRepository repository) {
+        return repository.list().stream().map(SongEntry::getName).collect(Collectors.toList()).toString();
+    }
+
+
+    private static String read(SongRepository repository, String name) throws IOException {
+        ByteBuffer content = repository.read(name);
+        return ENCODING.decode(content).toString();
+    }
+
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(ENCODING);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.songbook.core.comparator.SongNodeIndexComparator;
+import com.songbook.core.comparator.SongNodeTitleComparator;
+import com.songbook.core.model.CompactSongBook;
+import com.songbook.core.model.SongBook;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SongBookSnapshotTest {
+    private static final Charset ENCODING = Charset.forName("windows-1250");
+    private static final Locale LOCALE = new Locale("cs", "CZ");
+
+    // Open a large snapshot with -Dsongbook.snapshotSongCount=100000
+    private static final int SONG_COUNT = Integer.getInteger("songbook.snapshotSongCount", 2000);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void openedSnapshotServesTheWrittenSongs() throws Exception {
+        List<SongNode> songs = generateSongs(SONG_COUNT);
+        File file = folder.newFile("songbook" + SongBookSnapshot.FILE_SUFFIX);
+        new SongBookSnapshot(file).write(new SongBook(songs), 42, LOCALE);
+
+        CompactSongBook songBook = new SongBookSnapshot(file).open(42);
+
+        Assert.assertNotNull(songBook);
+        Assert.assertEquals(LOCALE, songBook.getTitleLocale());
+        Assert.assertEquals(songs.size(), songBook.getSongNodeList().size());
+        for (int i = 0; i < songs.size(); i += 1 + songs.size() / 500) {
+            SongNode expected = songs.get(i);
+            SongNode actual = songBook.getSongNodeList().get(i);
+            Assert.assertEquals(expected.toString(), actual.toString());
+            Assert.assertEquals(expected.getIndex(), actual.getIndex());
+            Assert.assertEquals(expected.getSourceFile(), actual.getSourceFile());
+        }
+
+        // Other fingerprint, truncated or missing snapshot is ignored
+        Assert.assertNull(new SongBookSnapshot(file).open(43));
+        Assert.assertNull(new SongBookSnapshot(new File(folder.getRoot(), "missing")).open(42));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - 2);
+        }
+        Assert.assertNull(new SongBookSnapshot(file).open(42));
+    }
+
+
+    @Test
+    public void titleIndexSortsAsCollator() throws Exception {
+        List<SongNode> songs = generateSongs(500);
+        File file = folder.newFile("songbook" + SongBookSnapshot.FILE_SUFFIX);
+        new SongBookSnapshot(file).write(new SongBook(songs), 1, LOCALE);
+        CompactSongBook songBook = new SongBookSnapshot(file).open(1);
+
+        for (boolean byIndex : new boolean[] { false, true }) {
+            List<SongNode> expected = new ArrayList<SongNode>(songs);
+            List<SongNode> actual = new ArrayList<SongNode>(songBook.getSongNodeList());
+            Collections.sort(expected, byIndex ? new SongNodeIndexComparator(LOCALE) : new SongNodeTitleComparator(LOCALE));
+            Collections.sort(actual, byIndex ? new SongNodeIndexComparator(LOCALE) : new SongNodeTitleComparator(LOCALE));
+            Assert.assertEquals(titles(expected), titles(actual));
+        }
+        Assert.assertEquals(titles(sorted(songs)), titles(songBook.getSongNodeListByTitle()));
+    }
+
+
+    @Test
+    public void loaderUsesSnapshotUntilRepositoryChanges() throws Exception {
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(3);
+        for (int i = 0; i < 30; i++) {
+            FileIO.writeStringToFile(new File(directory, String.format("song%02d.txt", i)).getPath(), ENCODING, generator.generateSong(2, 3));
+        }
+        final AtomicInteger readCount = new AtomicInteger();
+        SongRepository repository = new DirectorySongRepository(directory) {
+            @Override
+            public ByteBuffer read(String name) throws IOException {
+                readCount.incrementAndGet();
+                return super.read(name);
+            }
+        };
+        SongNodeLoader loader = new SongNodeLoader(ChordProFastParser.createParser(), true, null, true);
+        List<SongNode> expected = loader.loadSongNodes(repository, ENCODING);
+        Assert.assertEquals(30, readCount.get());
+
+        // Unchanged repository - no file is read
+        readCount.set(0);
+        List<SongNode> songs = loader.loadSongNodes(repository, ENCODING);
+        Assert.assertEquals(0, readCount.get());
+        Assert.assertEquals(expected.toString(), songs.toString());
+
+        // Changed repository - the files are loaded again (only the new one is read, the others come from the cache)
+        FileIO.writeStringToFile(new File(directory, "song30.txt").getPath(), ENCODING, "New\n\n[C]la\n");
+        readCount.set(0);
+        songs = loader.loadSongNodes(repository, ENCODING);
+        Assert.assertEquals(1, readCount.get());
+        Assert.assertEquals(31, songs.size());
+        Assert.assertEquals("New", songs.get(30).getTitle());
+    }
+
+
+    private static List<SongNode> generateSongs(int count) {
+        List<SongNode> songs = new ArrayList<SongNode>(count);
+        for (SongNode songNode : new SongCorpusGenerator(9).generateSongNodes(count, 4, 6)) {
+            int i = songs.size();
+            songs.add(songNode.withSourceFileAndIndex(new File("song" + i + ".txt"), i % 5 == 0 ? i : null));
+        }
+        return songs;
+    }
+
+
+    private static List<SongNode> sorted(List<SongNode> songs) {
+        List<SongNode> result = new ArrayList<SongNode>(songs);
+        Collections.sort(result, new SongNodeTitleComparator(LOCALE));
+        return result;
+    }
+
+
+    private static List<String> titles(List<SongNode> songs) {
+        List<String> titles = new ArrayList<String>();
+        for (SongNode songNode : songs) {
+            titles.add(songNode.getTitle() + "#" + songNode.getIndex());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.ParseResult;
+import com.songbook.core.parser.Parser;
+import com.songbook.core.parser.ParserException;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SongDirectoryWatcherTest {
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+    private static final int SONG_COUNT = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger parseCount = new AtomicInteger();
+    private final Parser<SongNode> countingParser = new Parser<SongNode>() {
+        private final Parser<SongNode> parser = ChordProFastParser.createParser();
+
+        @Override
+        public SongNode parse(Reader reader) throws ParserException {
+            return parser.parse(reader);
+        }
+
+        @Override
+        public ParseResult<SongNode> parseRecovering(Reader reader) {
+            parseCount.incrementAndGet();
+            return parser.parseRecovering(reader);
+        }
+    };
+
+
+    @Test
+    public void onlyChangedSongsAreReloaded() throws Exception {
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(9);
+        for (int i = 0; i < SONG_COUNT; i++) {
+            write(new File(directory, String.format("song%03d.txt", i)), generator.generateSong(2, 3));
+        }
+        write(new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME), "song002.txt\n");
+
+        SongNodeLoader loader = new SongNodeLoader(countingParser);
+        Assert.assertEquals(SONG_COUNT, loader.loadSongNodesFromDirectory(directory, ENCODING).size());
+        parseCount.set(0);
+
+        BlockingQueue<SongDirectoryChange> changes = new LinkedBlockingQueue<>();
+        try (SongDirectoryWatcher watcher = new SongDirectoryWatcher(directory, loader, ENCODING, 200, changes::add)) {
+            watcher.start();
+
+            write(new File(directory, "song001.txt"), "Modified\n\nla\n");
+            write(new File(directory, "song002.txt"), "Also Modified\n\nli\n");
+            Assert.assertTrue(new File(directory, "song003.txt").delete());
+            write(new File(directory, "new.txt"), "New\n\nlu\n");
+            write(new File(directory, "ignored.tmp"), "-");
+            write(new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME), "new.txt\nsong002.txt\n");
+
+            // The changes may be split into several batches - wait for all of them
+            Map<String, SongNode> updated = new HashMap<>();
+            Set<String> removed = new TreeSet<>();
+            Map<String, Integer> songIndexMap = null;
+            long deadline = System.currentTimeMillis() + 20000;
+            while (!(updated.size() == 3 && removed.size() == 1 && songIndexMap != null) && System.currentTimeMillis() < deadline) {
+                SongDirectoryChange change = changes.poll(1, TimeUnit.SECONDS);
+                if (change != null) {
+                    Assert.assertFalse(change.isFullReloadRequired());
+                    for (SongNode songNode : change.getUpdatedSongs()) {
+                        updated.put(songNode.getSourceFile().getName(), songNode);
+                    }
+                    removed.addAll(change.getRemovedFileNames());
+                    songIndexMap = (change.getSongIndexMap() != null) ? change.getSongIndexMap() : songIndexMap;
+                }
+            }
+
+            Assert.assertEquals("[new.txt, song001.txt, song002.txt]", new TreeSet<>(updated.keySet()).toString());
+            Assert.assertEquals("[song003.txt]", removed.toString());
+            Assert.assertEquals("Modified", updated.get("song001.txt").getTitle());
+            Assert.assertEquals(Integer.valueOf(1), updated.get("new.txt").getIndex());
+            Assert.assertEquals(Integer.valueOf(2), songIndexMap.get("song002.txt"));
+            Assert.assertTrue("Parsed " + parseCount.get() + " songs", parseCount.get() < 10);
+        }
+    }
+
+
+    @Test
+    public void unreadableSongIsKeptAndRetried() throws Exception {
+        File directory = folder.newFolder("songs");
+        write(new File(directory, "song001.txt"), "Song 1\n\nla\n");
+        write(new File(directory, "song002.txt"), "Song 2\n\nla\n");
+        final AtomicInteger failures = new AtomicInteger(1);
+        SongNodeLoader loader = new SongNodeLoader(new Parser<SongNode>() {
+            private final Parser<SongNode> parser = ChordProFastParser.createParser();
+
+            @Override
+            public SongNode parse(Reader reader) throws ParserException {
+                return parser.parse(reader);
+            }
+
+            @Override
+            public ParseResult<SongNode> parseRecovering(Reader reader) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("File is being written");
+                }
+                return parser.parseRecovering(reader);
+            }
+        });
+
+        BlockingQueue<SongDirectoryChange> changes = new LinkedBlockingQueue<>();
+        try (SongDirectoryWatcher watcher = new SongDirectoryWatcher(directory, loader, ENCODING, 200, changes::add)) {
+            watcher.start();
+
+            // Failed load is neither an update nor a removal
+            write(new File(directory, "song001.txt"), "Modified 1\n\nla\n");
+            SongDirectoryChange change = changes.poll(20, TimeUnit.SECONDS);
+            Assert.assertNotNull(change);
+            Assert.assertTrue(change.getUpdatedSongs().isEmpty());
+            Assert.assertTrue(change.getRemovedFileNames().isEmpty());
+
+            // The song is loaded with the next batch
+            write(new File(directory, "song002.txt"), "Modified 2\n\nla\n");
+            Set<String> updated = new TreeSet<>();
+            long deadline = System.currentTimeMillis() + 20000;
+            while (updated.size() < 2 && System.currentTimeMillis() < deadline) {
+                change = changes.poll(1, TimeUnit.SECONDS);
+                if (change != null) {
+                    Assert.assertTrue(change.getRemovedFileNames().isEmpty());
+                    for (SongNode songNode : change.getUpdatedSongs()) {
+                        updated.add(songNode.getTitle());
+                    }
+                }
+            }
+            Assert.assertEquals("[Modified 1, Modified 2]", updated.toString());
+        }
+    }
+
+
+    private static void write(File file, String content) {
+        FileIO.writeStringToFile(file.getPath(), ENCODING, content);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the sequential loading of a synthetic directory with 20k songs without the cache and with the warm cache,
+ * both eager and lazy (the eager variants are dominated by building the song trees, so they are close to each other).
+ * Run like {@link com.songbook.core.parser.ChordProParserBenchmark}.
+ * @author Tomas Janecek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SongNodeCacheBenchmark {
+    private static final int FILE_COUNT = 20000;
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+    private File directory;
+    private final SongNodeLoader loader = new SongNodeLoader(ChordProFastParser.createParser());
+    private final SongNodeLoader lazyLoader = new SongNodeLoader(ChordProFastParser.createParser(), true);
+    private final SongNodeLoader cachingLoader = new SongNodeLoader(ChordProFastParser.createParser(), false, null, true);
+    private final SongNodeLoader lazyCachingLoader = new SongNodeLoader(ChordProFastParser.createParser(), true, null, true);
+
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("songbook-benchmark").toFile();
+        SongCorpusGenerator generator = new SongCorpusGenerator(1);
+        for (int i = 0; i < FILE_COUNT; i++) {
+            String fileName = String.format("song%05d.txt", i);
+            FileIO.writeStringToFile(new File(directory, fileName).getPath(), ENCODING, generator.generateSong(3, 6));
+        }
+        cachingLoader.loadSongNodesFromDirectory(directory, ENCODING);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        FileIO.deleteDirectory(directory);
+    }
+
+
+    @Benchmark
+    public List<SongNode> parse() {
+        return loader.loadSongNodesFromDirectory(directory, ENCODING);
+    }
+
+
+    @Benchmark
+    public List<SongNode> parseLazy() {
+        return lazyLoader.loadSongNodesFromDirectory(directory, ENCODING);
+    }
+
+
+    @Benchmark
+    public List<SongNode> warmCache() {
+        return cachingLoader.loadSongNodesFromDirectory(directory, ENCODING);
+    }
+
+
+    @Benchmark
+    public List<SongNode> warmCacheLazy() {
+        return lazyCachingLoader.loadSongNodesFromDirectory(directory, ENCODING);
+    }
+}
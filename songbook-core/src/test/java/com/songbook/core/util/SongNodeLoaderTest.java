@@ -0,0 +1,359 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.songbook.core.model.LazySongNode;
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.ChordProFastParser;
+import com.songbook.core.parser.ParseResult;
+import com.songbook.core.parser.Parser;
+import com.songbook.core.parser.ParserDiagnostic;
+import com.songbook.core.parser.ParserException;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SongNodeLoaderTest {
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SongNodeLoader loader = new SongNodeLoader(ChordProFastParser.createParser());
+
+
+    @Test
+    public void syntaxErrorsDoNotAbortZipLoading() throws IOException {
+        byte[] zip = buildZip(
+                "a.txt", "Song A\n\n[C]la la\n",
+                "b.txt", "Song B\n\n[C la la\n\n\n[D]li li\n",
+                "c.txt", "Song C\n\nlu [E]lu\n",
+                SongNodeLoader.SONG_INDEX_FILE_NAME, "c.txt\nb.txt\na.txt\n");
+
+        Map<String, List<ParserDiagnostic>> errorReport = new HashMap<>();
+        List<SongNode> songs = loader.loadSongNodesFromZip(new ByteArrayInputStream(zip), ENCODING, errorReport);
+
+        Assert.assertEquals(3, songs.size());
+        Assert.assertEquals("Song B", songs.get(1).getTitle());
+        Assert.assertEquals(1, songs.get(1).getVerseList().size());
+        Assert.assertEquals(Integer.valueOf(2), songs.get(1).getIndex());
+        Assert.assertEquals(1, errorReport.size());
+        Assert.assertEquals(3, errorReport.get("b.txt").get(0).getLine());
+    }
+
+
+    @Test
+    public void songsBeforeAndAfterZipIndexGetTheirIndexes() throws IOException {
+        byte[] zip = buildZip(
+                "a.txt", "Song A\n\n[C]la la\n",
+                SongNodeLoader.SONG_INDEX_FILE_NAME, "c.txt\nb.txt\na.txt\n",
+                "b.txt", "Song B\n\n[D]li li\n",
+                "c.txt", "Song C\n\nlu [E]lu\n");
+
+        List<SongNode> songs = loader.loadSongNodesFromZip(new ByteArrayInputStream(zip), ENCODING);
+
+        Assert.assertEquals(3, songs.size());
+        for (int i = 0; i < songs.size(); i++) {
+            Assert.assertEquals(new File((char) ('a' + i) + ".txt"), songs.get(i).getSourceFile());
+            Assert.assertEquals(Integer.valueOf(3 - i), songs.get(i).getIndex());
+        }
+    }
+
+
+    @Test
+    public void lazyLoadingParsesBodiesOnFirstAccess() throws IOException {
+        File directory = folder.newFolder("songs");
+        FileIO.writeStringToFile(new File(directory, "a.txt").getPath(), ENCODING, "{title:A}\n{subtitle:S}\n\n[C]la\n");
+        FileIO.writeStringToFile(new File(directory, "b.txt").getPath(), ENCODING, "B - X\n\nli [D]li\n\n\n\nlu [E\n");
+        FileIO.writeStringToFile(new File(directory, "c.txt").getPath(), ENCODING, "{title:C\n\nlo\n");
+
+        List<SongNode> eagerSongs = loader.loadSongNodesFromDirectory(directory, ENCODING);
+        Map<String, List<ParserDiagnostic>> errorReport = new HashMap<>();
+        List<SongNode> lazySongs = new SongNodeLoader(ChordProFastParser.createParser(), true)
+                .loadSongNodesFromDirectory(directory, ENCODING, errorReport);
+
+        // Titles are parsed right away, bodies are not (except of the song with broken title)
+        Assert.assertEquals(3, lazySongs.size());
+        Assert.assertFalse(((LazySongNode) lazySongs.get(0)).isBodyParsed());
+        Assert.assertFalse(((LazySongNode) lazySongs.get(1)).isBodyParsed());
+        Assert.assertFalse(lazySongs.get(2) instanceof LazySongNode);
+        Assert.assertEquals("[c.txt]", errorReport.keySet().toString());
+
+        for (int i = 0; i < eagerSongs.size(); i++) {
+            Assert.assertEquals(eagerSongs.get(i).getTitle(), lazySongs.get(i).getTitle());
+            Assert.assertEquals(eagerSongs.get(i).toString(), lazySongs.get(i).toString());
+        }
+        Assert.assertTrue(((LazySongNode) lazySongs.get(1)).isBodyParsed());
+    }
+
+
+    @Test
+    public void parallelLoadingKeepsOrderIndexAndFailures() throws IOException {
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(3);
+        StringBuilder index = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String fileName = String.format("song%03d.txt", i);
+            FileIO.writeStringToFile(new File(directory, fileName).getPath(), ENCODING, generator.generateSong(2, 4));
+            index.insert(0, fileName + "\n");
+        }
+        FileIO.writeStringToFile(new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME).getPath(), ENCODING, index.toString());
+        FileIO.writeStringToFile(new File(directory, "broken1.txt").getPath(), ENCODING, "-\n\nla\n");
+        FileIO.writeStringToFile(new File(directory, "broken2.txt").getPath(), ENCODING, "T\n\nla [C\n");
+
+        Map<String, List<ParserDiagnostic>> expectedReport = new HashMap<>();
+        List<SongNode> expected = loader.loadSongNodesFromDirectory(directory, ENCODING, expectedReport);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, List<ParserDiagnostic>> errorReport = new HashMap<>();
+            List<SongNode> songs = new SongNodeLoader(ChordProFastParser.createParser(), false, executor)
+                    .loadSongNodesFromDirectory(directory, ENCODING, errorReport);
+
+            Assert.assertEquals(201, songs.size());
+            Assert.assertEquals(expected.size(), songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                Assert.assertEquals(expected.get(i).getSourceFile(), songs.get(i).getSourceFile());
+                Assert.assertEquals(expected.get(i).getIndex(), songs.get(i).getIndex());
+                Assert.assertEquals(expected.get(i).toString(), songs.get(i).toString());
+            }
+            Assert.assertEquals(Integer.valueOf(200), songs.get(1).getIndex());
+            Assert.assertEquals(expectedReport.keySet(), errorReport.keySet());
+            Assert.assertEquals(2, errorReport.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void streamingLoadingPassesIndexedSongsInOrder() throws IOException {
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(4);
+        for (int i = 0; i < 1000; i++) {
+            FileIO.writeStringToFile(new File(directory, String.format("song%04d.txt", i)).getPath(), ENCODING, generator.generateSong(1, 2));
+        }
+        FileIO.writeStringToFile(new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME).getPath(), ENCODING, "song0999.txt\nsong0000.txt\n");
+        List<SongNode> expected = loader.loadSongNodesFromDirectory(directory, ENCODING);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<String> events = new ArrayList<>();
+            new SongNodeLoader(ChordProFastParser.createParser(), false, executor).loadSongNodesFromDirectory(directory, ENCODING, null, new SongNodeSink() {
+                @Override
+                public void songLoaded(SongNode songNode) {
+                    events.add(songNode.getSourceFile().getName() + ":" + songNode.getIndex());
+                }
+
+                @Override
+                public void loadingFinished() {
+                    events.add("finished");
+                }
+            });
+
+            Assert.assertEquals(expected.size() + 1, events.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getSourceFile().getName() + ":" + expected.get(i).getIndex(), events.get(i));
+            }
+            Assert.assertEquals("song0000.txt:2", events.get(0));
+            Assert.assertEquals("song0999.txt:1", events.get(999));
+            Assert.assertEquals("finished", events.get(1000));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void zipFileLoadingMatchesZipStreamLoading() throws IOException {
+        SongCorpusGenerator generator = new SongCorpusGenerator(5);
+        StringBuilder index = new StringBuilder();
+        String[] namesAndContents = new String[2 * 102];
+        for (int i = 0; i < 100; i++) {
+            namesAndContents[2 * i] = String.format("song%03d.txt", i);
+            namesAndContents[2 * i + 1] = generator.generateSong(1 + i % 3, i == 7 ? 800 : 4);
+            index.insert(0, namesAndContents[2 * i] + "\n");
+        }
+        namesAndContents[200] = "broken.txt";
+        namesAndContents[201] = "T\n\nla [C\n";
+        namesAndContents[202] = SongNodeLoader.SONG_INDEX_FILE_NAME;
+        namesAndContents[203] = index.toString();
+        byte[] zip = buildZip(namesAndContents);
+        File zipFile = folder.newFile("songs.zip");
+        Files.write(zipFile.toPath(), zip);
+
+        Map<String, List<ParserDiagnostic>> expectedReport = new HashMap<>();
+        List<SongNode> expected = loader.loadSongNodesFromZip(new ByteArrayInputStream(zip), ENCODING, expectedReport);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (SongNodeLoader zipFileLoader : new SongNodeLoader[] {
+                    loader,
+                    new SongNodeLoader(ChordProFastParser.createParser(), false, executor),
+                    new SongNodeLoader(ChordProFastParser.createParser(), true, executor) }) {
+                Map<String, List<ParserDiagnostic>> errorReport = new HashMap<>();
+                List<SongNode> songs = zipFileLoader.loadSongNodesFromZip(zipFile, ENCODING, errorReport);
+
+                Assert.assertEquals(101, songs.size());
+                Assert.assertEquals(expected.size(), songs.size());
+                for (int i = 0; i < songs.size(); i++) {
+                    Assert.assertEquals(expected.get(i).getSourceFile(), songs.get(i).getSourceFile());
+                    Assert.assertEquals(expected.get(i).getIndex(), songs.get(i).getIndex());
+                    Assert.assertEquals(expected.get(i).toString(), songs.get(i).toString());
+                }
+                Assert.assertEquals(Integer.valueOf(100), songs.get(0).getIndex());
+                if (!(songs.get(0) instanceof LazySongNode)) {
+                    // Lazy loading only logs the syntax errors in the bodies
+                    Assert.assertEquals(expectedReport.keySet(), errorReport.keySet());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void cachedLoadingParsesOnlyChangedFiles() throws IOException {
+        File directory = folder.newFolder("songs");
+        SongCorpusGenerator generator = new SongCorpusGenerator(7);
+        for (int i = 0; i < 20; i++) {
+            FileIO.writeStringToFile(new File(directory, String.format("song%02d.txt", i)).getPath(), ENCODING, generator.generateSong(2, 3));
+        }
+        FileIO.writeStringToFile(new File(directory, "broken.txt").getPath(), ENCODING, "T\n\nla [C\n\n\n[D/F#]lu\n");
+
+        final AtomicInteger parseCount = new AtomicInteger();
+        Parser<SongNode> countingParser = new Parser<SongNode>() {
+            private final Parser<SongNode> parser = ChordProFastParser.createParser();
+
+            @Override
+            public SongNode parse(Reader reader) throws ParserException {
+                return parser.parse(reader);
+            }
+
+            @Override
+            public ParseResult<SongNode> parseRecovering(Reader reader) {
+                parseCount.incrementAndGet();
+                return parser.parseRecovering(reader);
+            }
+        };
+        Map<String, List<ParserDiagnostic>> expectedReport = new HashMap<>();
+        List<SongNode> expected = loader.loadSongNodesFromDirectory(directory, ENCODING, expectedReport);
+
+        // Cold start parses and caches all, warm start parses nothing
+        for (int expectedParseCount : new int[] { 21, 0 }) {
+            parseCount.set(0);
+            Map<String, List<ParserDiagnostic>> errorReport = new HashMap<>();
+            List<SongNode> songs = new SongNodeLoader(countingParser, false, null, true).loadSongNodesFromDirectory(directory, ENCODING, errorReport);
+            Assert.assertEquals(expectedParseCount, parseCount.get());
+            Assert.assertEquals(expected.toString(), songs.toString());
+            Assert.assertEquals(expectedReport.toString(), errorReport.toString());
+            Assert.assertEquals(expected.get(3).getSourceFile(), songs.get(3).getSourceFile());
+        }
+
+        // Touched file is verified by the hash, modified file is parsed again
+        File touched = new File(directory, "song01.txt");
+        File modified = new File(directory, "song02.txt");
+        Assert.assertTrue(touched.setLastModified(touched.lastModified() - 10000));
+        FileIO.writeStringToFile(modified.getPath(), ENCODING, "Changed\n\n[Ami]la\n");
+        Assert.assertTrue(modified.setLastModified(modified.lastModified() - 20000));
+        parseCount.set(0);
+        List<SongNode> songs = new SongNodeLoader(countingParser, true, null, true).loadSongNodesFromDirectory(directory, ENCODING);
+        Assert.assertEquals(1, parseCount.get());
+        Assert.assertEquals("Changed", songs.get(3).getTitle());
+        Assert.assertTrue(songs.get(2) instanceof LazySongNode);
+        Assert.assertEquals(expected.get(2).toString(), songs.get(2).toString());
+
+        // Broken cache is ignored (the snapshot of the song book is removed, otherwise it would be used instead)
+        Files.write(new File(directory, SongNodeCache.CACHE_FILE_NAME).toPath(), new byte[] { 1, 2, 3 });
+        Assert.assertTrue(new File(directory, SongNodeCache.CACHE_FILE_NAME + SongBookSnapshot.FILE_SUFFIX).delete());
+        parseCount.set(0);
+        songs = new SongNodeLoader(countingParser, false, null, true).loadSongNodesFromDirectory(directory, ENCODING);
+        Assert.assertEquals(21, parseCount.get());
+        Assert.assertEquals(21, songs.size());
+    }
+
+
+    @Test
+    public void loadingReleasesAllFileHandles() throws IOException {
+        File fdDirectory = new File("/proc/self/fd");
+        Assume.assumeTrue(fdDirectory.isDirectory());
+
+        // Stress with -Dsongbook.stressFileCount=100000 under a low "ulimit -n"
+        int fileCount = Integer.getInteger("songbook.stressFileCount", 2000);
+        Charset encoding = Charset.forName("windows-1250");
+        File directory = folder.newFolder("songs");
+        StringBuilder index = new StringBuilder();
+        for (int i = 0; i < fileCount; i++) {
+            String fileName = String.format("song%06d.txt", i);
+            FileIO.writeStringToFile(new File(directory, fileName).getPath(), encoding, "\u017dlu\u0165ou\u010dk\u00fd k\u016f\u0148 " + i + "\n\n[C]la\n");
+            index.append(fileName).append('\n');
+        }
+        FileIO.writeStringToFile(new File(directory, SongNodeLoader.SONG_INDEX_FILE_NAME).getPath(), encoding, index.toString());
+
+        SongNodeLoader[] loaders = {
+                loader,
+                new SongNodeLoader(ChordProFastParser.createParser(), true),
+                new SongNodeLoader(ChordProFastParser.createParser(), false, null, true)
+        };
+        loaders[2].loadSongNodesFromDirectory(directory, encoding);   // Warms up the classes and creates the cache
+        int openFiles = fdDirectory.list().length;
+        for (SongNodeLoader songNodeLoader : loaders) {
+            List<SongNode> songs = songNodeLoader.loadSongNodesFromDirectory(directory, encoding);
+            Assert.assertEquals(fileCount, songs.size());
+            Assert.assertEquals("\u017dlu\u0165ou\u010dk\u00fd k\u016f\u0148 7", songs.get(7).getTitle());
+            Assert.assertEquals(Integer.valueOf(8), songs.get(7).getIndex());
+            Assert.assertEquals(1, songs.get(7).getVerseList().size());
+        }
+        Assert.assertEquals(openFiles, fdDirectory.list().length);
+    }
+
+
+    private static byte[] buildZip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(out);
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            zipStream.putNextEntry(new ZipEntry(namesAndContents[i]));
+            zipStream.write(namesAndContents[i + 1].getBytes(ENCODING));
+            zipStream.closeEntry();
+        }
+        zipStream.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransposeStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void transpositionsSurviveReopeningAndIncompleteRecord() throws Exception {
+        File file = new File(folder.getRoot(), "songs.transpose");
+        TransposeStore store = new TransposeStore(file);
+        store.setTransposition("a.txt", 2);
+        store.setTransposition("b.txt", -3);
+        store.setTransposition("c.txt", 1);
+        store.setTransposition("c.txt", 0);
+        store.setTransposition("b.txt", -4);
+        store.close();
+        long validLength = file.length();
+
+        store = new TransposeStore(file);
+        Assert.assertEquals(2, store.getTransposition("a.txt"));
+        Assert.assertEquals(-4, store.getTransposition("b.txt"));
+        Assert.assertEquals(0, store.getTransposition("c.txt"));
+        Assert.assertEquals(2, store.getTransposedCount());
+        store.setTransposition("d\u0161.txt", 5);
+        store.close();
+
+        // Interrupted write of the last record
+        RandomAccessFile journal = new RandomAccessFile(file, "rw");
+        journal.setLength(file.length() - 1);
+        journal.close();
+
+        store = new TransposeStore(file);
+        Assert.assertEquals(0, store.getTransposition("d\u0161.txt"));
+        Assert.assertEquals(-4, store.getTransposition("b.txt"));
+        store.setTransposition("e.txt", 7);
+        store.close();
+        Assert.assertEquals(7, new TransposeStore(file).getTransposition("e.txt"));
+        Assert.assertTrue(file.length() > validLength);
+    }
+
+
+    @Test
+    public void textFormatIsConverted() throws Exception {
+        File file = new File(folder.getRoot(), "songs.transpose");
+        FileIO.writeStringToFile(file.getPath(), StandardCharsets.UTF_8, "a.txt|3\nb b.txt|-2\nbroken\nc.txt|x\n");
+
+        TransposeStore store = new TransposeStore(file);
+        Assert.assertEquals(3, store.getTransposition("a.txt"));
+        Assert.assertEquals(-2, store.getTransposition("b b.txt"));
+        Assert.assertEquals(2, store.getTransposedCount());
+        store.close();
+        Assert.assertEquals(-2, new TransposeStore(file).getTransposition("b b.txt"));
+    }
+
+
+    @Test
+    public void journalIsCompacted() {
+        File file = new File(folder.getRoot(), "songs.transpose");
+        TransposeStore store = new TransposeStore(file);
+        for (int i = 0; i < 100000; i++) {
+            store.setTransposition("song" + (i % 50) + ".txt", i % 12 - 6);
+        }
+        store.close();
+
+        Assert.assertTrue(file.length() < 8 * 1024);
+        store = new TransposeStore(file);
+        for (int i = 99950; i < 100000; i++) {
+            Assert.assertEquals(i % 12 - 6, store.getTransposition("song" + (i % 50) + ".txt"));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2008 - Tomas Janecek.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.songbook.core.visitor;
+
+import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.IncrementalSongParser;
+import com.songbook.core.parser.SongCorpusGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RenderCacheTest {
+    private final IncrementalSongParser parser = new IncrementalSongParser();
+
+
+    @Test
+    public void renderingsAreCachedByContentTranspositionAndMode() throws Exception {
+        RenderCache renderCache = new RenderCache(1024 * 1024);
+        SongNode songNode = parser.parse("{title:Song}\n\n[C]la la [G/H]li\n");
+
+        StringBuffer expected = new StringBuffer();
+        songNode.accept(new HtmlBuilderVisitor(expected, 2, HtmlBuilderVisitor.Mode.CHORDS_ON));
+        Assert.assertEquals(expected.toString(), renderCache.getHtml(songNode, 2, HtmlBuilderVisitor.Mode.CHORDS_ON, null));
+        Assert.assertEquals(expected.toString(), renderCache.getHtml(parser.parse("{title:Song}\n\n[C]la la [G/H]li\r\n"), 2, HtmlBuilderVisitor.Mode.CHORDS_ON));
+        Assert.assertEquals(1, renderCache.getHitCount());
+        Assert.assertEquals(1, renderCache.getMissCount());
+
+        renderCache.getHtml(songNode, 3, HtmlBuilderVisitor.Mode.CHORDS_ON);
+        renderCache.getHtml(songNode, 2);
+        renderCache.getHtml(songNode.withIndex(5), 2, HtmlBuilderVisitor.Mode.CHORDS_ON);
+        renderCache.getText(songNode, 2);
+        renderCache.getHtml(parser.parse("{title:Song}\n\n[C]la la [G/H]lu\n"), 2, HtmlBuilderVisitor.Mode.CHORDS_ON);
+        Assert.assertEquals(1, renderCache.getHitCount());
+        Assert.assertEquals(6, renderCache.getMissCount());
+
+        renderCache.invalidate(songNode);
+        Assert.assertEquals(1, renderCache.size());
+        renderCache.getText(songNode, 2);
+        Assert.assertEquals(7, renderCache.getMissCount());
+    }
+
+
+    @Test
+    public void leastRecentlyUsedRenderingsAreEvicted() {
+        SongCorpusGenerator generator = new SongCorpusGenerator(20);
+        SongNode[] songNodes = new SongNode[50];
+        int maxLength = 0;
+        for (int i = 0; i < songNodes.length; i++) {
+            songNodes[i] = parseOrFail(generator.generateSong(2, 4));
+            maxLength = Math.max(maxLength, new RenderCache(Integer.MAX_VALUE).getText(songNodes[i], 0).length());
+        }
+
+        RenderCache renderCache = new RenderCache(maxLength * 10);
+        for (SongNode songNode : songNodes) {
+            renderCache.getText(songNode, 0);
+            renderCache.getText(songNodes[0], 0);
+            Assert.assertTrue(renderCache.getCharCount() <= maxLength * 10);
+        }
+        Assert.assertTrue(renderCache.size() < songNodes.length);
+        Assert.assertEquals(songNodes.length, renderCache.getHitCount());
+    }
+
+
+    private SongNode parseOrFail(String content) {
+        try {
+            return parser.parse(content);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -21,13 +21,17 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 import com.songbook.core.model.SongBook;
 import com.songbook.core.model.SongNode;
-import com.songbook.core.parser.ChordProParser;
+import com.songbook.core.parser.ChordProFastParser;
 import com.songbook.core.parser.Parser;
+import com.songbook.core.util.DirectorySongRepository;
+import com.songbook.core.util.LogSongRepository;
 import com.songbook.core.util.SongNodeLoader;
+import com.songbook.core.util.SongRepository;
 import com.songbook.pc.exporter.EPubExporter;
 import com.songbook.pc.exporter.Exporter;
 import com.songbook.pc.exporter.HtmlExporter;
@@ -54,7 +58,7 @@ public class Main {
     public static void main(String[] args) {
         try {
             if (args.length != 1 && args.length != 2) {
-                System.err.println("Usage: java -jar ./songbook.jar <docs-directory> {commands}");
+                System.err.println("Usage: java -jar ./songbook.jar <docs-directory|song-log-file> {commands}");
                 System.err.println("Commands:");
                 System.err.println("empty - start UI");
                 System.err.println("exportJson - exports the songbook to JSON (does not start the UI)");
@@ -64,20 +68,32 @@ public class Main {
             // Build objects (could use DI container but the project is too small for that)
 
             // Parser
-            Parser<SongNode> parser = ChordProParser.createParser();
+            Parser<SongNode> parser = ChordProFastParser.createParser();
 
-            // Loader
-            SongNodeLoader loader = new SongNodeLoader(parser);
+            // Loader (files are loaded in parallel, song bodies are parsed when the song is displayed or exported,
+            // parsed songs are cached in the songbook directory together with a memory-mapped snapshot of the whole
+            // song book, which is used as it is while no song file changes)
+            SongNodeLoader loader = new SongNodeLoader(parser, true, ForkJoinPool.commonPool(), true);
 
-            // BaseDir
+            // BaseDir and the songs - the songs are stored either as files in the directory or in a single song log file
             File docsDirectory = new File(args[0]);
+            SongRepository repository = docsDirectory.isFile()
+                    ? new LogSongRepository(docsDirectory, ForkJoinPool.commonPool())
+                    : new DirectorySongRepository(docsDirectory);
+            File baseDir = docsDirectory.isFile() ? docsDirectory.getAbsoluteFile().getParentFile() : docsDirectory;
 
             if (args.length == 1) {
-                runUI(docsDirectory, parser, loader);
-            } else if (Objects.equals(args[1], "exportJson")) {
-                runExport(docsDirectory, loader, new JSONExporter());
-            } else if (Objects.equals(args[1], "exportPdf")) {
-                runExport(docsDirectory, loader, new PdfExporter(loader, false));
+                runUI(baseDir, repository, parser, loader);
+            } else {
+                try {
+                    if (Objects.equals(args[1], "exportJson")) {
+                        runExport(baseDir, repository, loader, new JSONExporter(true));
+                    } else if (Objects.equals(args[1], "exportPdf")) {
+                        runExport(baseDir, repository, loader, new PdfExporter(loader, false));
+                    }
+                } finally {
+                    repository.close();
+                }
             }
         } catch (Exception ex) {
             System.err.println("Exception occurred during initialization :" + ex.getMessage());
@@ -85,13 +101,13 @@ public class Main {
         }
     }
 
-    private static void runExport(File docsDirectory, SongNodeLoader loader, Exporter exporter) {
-        List<SongNode> songs = loader.loadSongNodesFromDirectory(docsDirectory, Charset.forName("CP1250"));
-        File outputFile = exporter.export(docsDirectory, new SongBook(songs));
+    private static void runExport(File baseDir, SongRepository repository, SongNodeLoader loader, Exporter exporter) {
+        List<SongNode> songs = loader.loadSongNodes(repository, Charset.forName("CP1250"));
+        File outputFile = exporter.export(baseDir, new SongBook(songs));
         System.out.println(outputFile.getAbsolutePath());
     }
 
-    private static void runUI(File docsDirectory, Parser<SongNode> parser, SongNodeLoader loader) {
+    private static void runUI(File baseDir, SongRepository repository, Parser<SongNode> parser, SongNodeLoader loader) {
         // Dialog provider
         UIDialog<String> newNextFileDialog = ownerFrame -> {
             TextDialogPresentationModel textDialogPM = new TextDialogPresentationModel(
@@ -103,18 +119,25 @@ public class Main {
         };
 
         // Main Presentation Model
+        SongListPresentationModel songListPM = new SongListPresentationModel(baseDir, repository, loader, true);
         MainFormPresentationModel mainPM = new MainFormPresentationModel(
                 parser,
-                new SongListPresentationModel(docsDirectory, loader),
+                songListPM,
                 newNextFileDialog,
                 new HtmlExporter(),
                 new LaTexExporter(),
                 new PdfExporter(loader, true),
                 new EPubExporter(),
-                new JSONExporter());
+                new JSONExporter(true));
 
         // Form
         MainFormView mainFormView = new MainFormView(mainPM);
         mainFormView.setVisible(true);
+
+        // Apply changes of the songs made by other programs
+        songListPM.startWatching();
+
+        // Song log saves its index when closed
+        Runtime.getRuntime().addShutdownHook(new Thread(repository::close));
     }
 }
@@ -19,15 +19,16 @@ package com.songbook.pc.exporter;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.songbook.core.model.ChordCodeTable;
+import com.songbook.core.model.ChordSymbol;
+import com.songbook.core.model.ContentHash;
 import com.songbook.core.model.SongBook;
+import com.songbook.core.model.SongNode;
 import com.songbook.core.util.FileIO;
-import com.songbook.core.util.StringUtil;
 import com.songbook.pc.util.FreeMakerUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,25 @@ import org.slf4j.LoggerFactory;
 public class JSONExporter implements Exporter {
     private static final Logger logger = LoggerFactory.getLogger(EPubExporter.class);
     private static final String SONGBOOK_JSON_SONG_TEMPLATE = "/export/json/json.ftl";
+    private final boolean encodeChords;
+
+
+    public JSONExporter() {
+        this(false);
+    }
+
+
+    /**
+     * Constructor - creates the exporter.
+     * @param encodeChords If true the chords are exported with their int code (see {@link ChordCodeTable})
+     *                     together with the tables of the roots and suffixes, so the clients can transpose them
+     *                     without parsing the chord texts. The table of the suffixes is built from the exported
+     *                     songs, so the same songs are always exported with the same codes.
+     */
+    public JSONExporter(boolean encodeChords) {
+        this.encodeChords = encodeChords;
+    }
+
 
     @Override
     public File export(File baseDir, SongBook songBook) {
@@ -44,10 +64,8 @@ public class JSONExporter implements Exporter {
         File outputDir = new File(baseDir, "json");
         FileIO.createDirectory(outputDir);
 
-        // Export to JSON using FreeMarker template (content only)
-        String content = exportJson(songBook, null);
-        String hash = generateHash(content);
-
+        // Export to JSON using FreeMarker template (named by the hash of the content)
+        String hash = generateHash(songBook);
         String contentWithDate = exportJson(songBook, new Date());
 
         File outputFileName = new File(outputDir, "songbook-" + hash + ".json");
@@ -62,17 +80,22 @@ public class JSONExporter implements Exporter {
         Map<String, Object> model = new HashMap<>();
         model.put("songNodes", songBook.getSongNodeList());
         model.put("generatedOn", generatedOn);
+        model.put("encodeChords", encodeChords);
+        model.put("chordRoots", ChordSymbol.getRootNames());
+        model.put("chordTable", encodeChords ? ChordCodeTable.of(songBook.getSongNodeList()) : null);
         return FreeMakerUtil.processTemplate(model, SONGBOOK_JSON_SONG_TEMPLATE);
     }
 
-    private String generateHash(String content) {
-         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hashBytes = digest.digest(content.getBytes());
-            return StringUtil.bytesToHex(hashBytes);
-        } catch (NoSuchAlgorithmException ex) {
-            throw new RuntimeException("Unable to calculate hash JSON songbook " + ex.getMessage(), ex);
+    /**
+     * @return Hash of the exported content - combined from the content hashes of the songs, without rendering them
+     *         (the table of the chord suffixes is built from the songs, so it is covered by their hashes).
+     */
+    private String generateHash(SongBook songBook) {
+        ContentHash.Hasher hasher = new ContentHash.Hasher(0).putInt(encodeChords ? 1 : 0);
+        for (SongNode songNode : songBook.getSongNodeList()) {
+            Integer index = songNode.getIndex();
+            hasher.putHash(songNode.getContentHash()).putLong(index == null ? Long.MIN_VALUE : index);
         }
-
+        return hasher.hash().toString();
     }
 }
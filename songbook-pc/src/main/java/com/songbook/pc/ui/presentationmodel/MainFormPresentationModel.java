@@ -30,9 +30,11 @@ import com.jgoodies.binding.list.SelectionInList;
 import com.jgoodies.binding.value.ValueHolder;
 import com.jgoodies.binding.value.ValueModel;
 import com.songbook.core.model.SongNode;
+import com.songbook.core.parser.IncrementalSongParser;
 import com.songbook.core.parser.Parser;
 import com.songbook.core.parser.ParserException;
 import com.songbook.core.visitor.HtmlBuilderVisitor;
+import com.songbook.core.visitor.RenderCache;
 import com.songbook.core.visitor.TextBuilderVisitor;
 import com.songbook.pc.exporter.Exporter;
 import com.songbook.pc.ui.UIDialog;
@@ -42,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 public class MainFormPresentationModel extends BasePresentationModel {
     private static final Logger logger = LoggerFactory.getLogger(MainFormPresentationModel.class);
+    private static final int RENDER_CACHE_SIZE = 1024 * 1024;
     private Action editAction;
     private final ValueHolder transposeModel = new ValueHolder(0);
     private final ValueHolder viewModeModel = new ValueHolder(true);
@@ -66,10 +69,13 @@ public class MainFormPresentationModel extends BasePresentationModel {
     private final Exporter ePubExporter;
     private final Exporter jsonExporter;
     private final Parser<SongNode> parser;
+    private final IncrementalSongParser incrementalParser = new IncrementalSongParser();
+    private final RenderCache renderCache = new RenderCache(RENDER_CACHE_SIZE);
 
     // State
     private SongNode songNode;
     private int songNodeTransposition = 0;
+    private String songNodeContent;   // Text from which the songNode was parsed (null if not known)
 
 
     public MainFormPresentationModel(
@@ -111,9 +117,14 @@ public class MainFormPresentationModel extends BasePresentationModel {
 
 
     private void rebuildSongNode(String content, int songTranspose) {
-        // Rebuild song node
+        // Rebuild song node (only the edited verses are re-parsed if the text of the current song node is known)
         try {
-            songNode = parser.parse(new StringReader(content));
+            if (songNodeContent == null) {
+                songNode = parser.parse(new StringReader(content));
+            } else if (!content.equals(songNodeContent)) {
+                songNode = incrementalParser.reparse(songNode, songNodeContent, content);
+            }
+            songNodeContent = content;
             songNodeTransposition = songTranspose;
         } catch (ParserException ex) {
             throw new RuntimeException("Parsing failed - " + ex.getMessage(), ex);
@@ -125,13 +136,13 @@ public class MainFormPresentationModel extends BasePresentationModel {
         // Update view
         int transposition = transposeModel.intValue() - songNodeTransposition;
         if (viewModeModel.booleanValue()) {
-            StringBuffer sb = new StringBuffer();
-            songNode.accept(new HtmlBuilderVisitor(sb, transposition, HtmlBuilderVisitor.Mode.CHORDS_ON));
-            getEditorModel().setHtmlText(sb.toString());
+            getEditorModel().setHtmlText(renderCache.getHtml(songNode, transposition, HtmlBuilderVisitor.Mode.CHORDS_ON));
         } else {
-            StringBuilder sb = new StringBuilder();
-            songNode.accept(new TextBuilderVisitor(sb, transposition));
-            getEditorModel().setPlainText(sb.toString());
+            String plainText = renderCache.getText(songNode, transposition);
+            if (!plainText.equals(songNodeContent)) {
+                songNodeContent = null;
+            }
+            getEditorModel().setPlainText(plainText);
         }
     }
 
@@ -192,12 +203,17 @@ public class MainFormPresentationModel extends BasePresentationModel {
                 onEditActionPerformed(false);
             }
 
-            // Save file
+            // Save file - renderings are keyed by the content hash, only those of the replaced content are dropped
+            SongNode replacedSong = songListPresentationModel.getSongListModel().getValue();
             StringBuilder sb = new StringBuilder();
             songNode.accept(new TextBuilderVisitor(sb, transposeModel.intValue() - songNodeTransposition));
             songListPresentationModel.saveCurrent(
                     Charset.forName(encodingModel.getValue()),
                     sb.toString());
+            SongNode savedSong = songListPresentationModel.getSongListModel().getValue();
+            if (replacedSong != null && savedSong != null && !replacedSong.getContentHash().equals(savedSong.getContentHash())) {
+                renderCache.invalidate(replacedSong);
+            }
         } catch (RuntimeException ex) {
             handleError("Saving of a song failed -" + songNode.getTitle(), ex);
         }
@@ -210,6 +226,7 @@ public class MainFormPresentationModel extends BasePresentationModel {
             transposeModel.setValue(0);
             songNode = selectedSong;
             songNodeTransposition = 0;
+            songNodeContent = null;
             titleModel.setValue("Guitar Song Book Editor - " + songNode.getSourceFile().getName());
             refreshContent();
         }
@@ -20,62 +20,345 @@ package com.songbook.pc.ui.presentationmodel;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
 
 import com.jgoodies.binding.list.SelectionInList;
+import com.jgoodies.binding.value.ValueHolder;
 import com.songbook.core.model.SongBook;
 import com.songbook.core.model.SongNode;
-import com.songbook.core.util.FileIO;
+import com.songbook.core.search.SearchSession;
+import com.songbook.core.util.DirectorySongRepository;
+import com.songbook.core.util.SongDirectoryChange;
+import com.songbook.core.util.SongDirectoryWatcher;
 import com.songbook.core.util.SongNodeLoader;
+import com.songbook.core.util.SongNodeSink;
+import com.songbook.core.util.SongRepository;
+import com.songbook.core.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SongListPresentationModel {
+    private static final Logger logger = LoggerFactory.getLogger(SongListPresentationModel.class);
+    private static final long WATCH_DEBOUNCE_MILLIS = 300;
+    private static final long PUBLISH_INTERVAL_MILLIS = 50;
+    private static final long FILTER_DEBOUNCE_MILLIS = 150;
+    private static final ScheduledExecutorService FILTER_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SongListFilter");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final File baseDir;
+    private final SongRepository repository;
     private final SongNodeLoader loader;
+    private final boolean loadInBackground;
     private final SelectionInList<SongNode> songListModel = new SelectionInList<SongNode>();
+    private Charset encoding;
+    private SongDirectoryWatcher watcher;
+    private boolean watching;
+    private boolean loading;
+    private int loadGeneration;   // Incremented by every reload - songs still coming from older reloads are ignored
+    private final ValueHolder filterModel = new ValueHolder("");
+    private final ValueHolder filteredSongsModel = new ValueHolder(null);   // Songs matching the filter (null - no filter)
+    private final SearchSession filterSession;
+    private List<SongNode> filterSongList = new ArrayList<SongNode>();   // Copy of the song list searched by the filter
+    private boolean filterSongListChanged;
 
 
     public SongListPresentationModel(File baseDir, SongNodeLoader loader) {
+        this(baseDir, loader, false);
+    }
+
+
+    public SongListPresentationModel(File baseDir, SongNodeLoader loader, boolean loadInBackground) {
+        this(baseDir, new DirectorySongRepository(baseDir), loader, loadInBackground);
+    }
+
+
+    /**
+     * Constructor - creates the presentation model.
+     * @param baseDir          Base directory of the song book (the exported files are created there).
+     * @param repository       Repository with the songs - the songs are loaded and saved only through the repository.
+     * @param loader           Loader of the songs.
+     * @param loadInBackground If true the songs are loaded on a background thread and added to the song list
+     *                         in batches as they are loaded (so the first songs are shown right away).
+     */
+    public SongListPresentationModel(File baseDir, SongRepository repository, SongNodeLoader loader, boolean loadInBackground) {
         this.baseDir = baseDir;
+        this.repository = repository;
         this.loader = loader;
+        this.loadInBackground = loadInBackground;
+        this.filterSession = new SearchSession(filterSongList, null, FILTER_EXECUTOR, SwingUtilities::invokeLater, FILTER_DEBOUNCE_MILLIS,
+                this::onFilterFinished);
+        filterModel.addValueChangeListener(evt -> filter());
     }
 
 
     public void reloadFromDisk(Charset encoding) {
-        // Reload songs form disk
-        List<SongNode> newSongList = loader.loadSongNodesFromDirectory(baseDir, encoding);
+        this.encoding = encoding;
+        final int generation = ++loadGeneration;
+        loading = true;
+        stopWatcher();   // Restarted with the new encoding once the songs are loaded
 
-        // Refresh song list
+        // Reload songs form disk
         songListModel.getList().clear();
-        songListModel.getList().addAll(newSongList);
+        onSongsChanged();
+        if (loadInBackground) {
+            Thread thread = new Thread(() -> loadSongs(encoding, generation), "SongListLoader");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            songListModel.getList().addAll(loader.loadSongNodes(repository, encoding));
+            onSongsLoaded(generation);
+        }
+    }
+
+
+    /** Loads the songs on the background thread - the loaded songs are published to the event dispatch thread in batches. */
+    private void loadSongs(Charset encoding, final int generation) {
+        try {
+            loader.loadSongNodes(repository, encoding, null, new SongNodeSink() {
+                private List<SongNode> batch = new ArrayList<SongNode>();
+                private long publishTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MILLIS);
+
+                @Override
+                public void songLoaded(SongNode songNode) {
+                    batch.add(songNode);
+                    if (System.nanoTime() - publishTime >= TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MILLIS)) {
+                        publish();
+                    }
+                }
+
+                @Override
+                public void loadingFinished() {
+                    publish();
+                }
+
+                private void publish() {
+                    final List<SongNode> songs = batch;
+                    batch = new ArrayList<SongNode>();
+                    publishTime = System.nanoTime();
+                    SwingUtilities.invokeLater(() -> addLoadedSongs(songs, generation));
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Loading of the songs failed - " + ex.getMessage(), ex);
+        } finally {
+            SwingUtilities.invokeLater(() -> onSongsLoaded(generation));
+        }
+    }
+
+
+    private void addLoadedSongs(List<SongNode> songs, int generation) {
+        if (generation != loadGeneration) {
+            return;
+        }
+        songListModel.getList().addAll(songs);
+        onSongsChanged();
+        if (songListModel.getSelection() == null && !songListModel.getList().isEmpty()) {
+            songListModel.setSelectionIndex(0);
+        }
+    }
+
+
+    private void onSongsLoaded(int generation) {
+        if (generation == loadGeneration) {
+            loading = false;
+            if (watching) {
+                startWatcher();
+            }
+        }
+    }
+
+
+    /**
+     * Starts watching the base directory (once the songs are loaded) - songs created, modified or deleted by other programs
+     * are reloaded (and only those) and the changes are applied to the song list on the event dispatch thread.
+     */
+    public void startWatching() {
+        if (encoding == null) {
+            throw new IllegalStateException("Songs must be loaded before watching the directory !");
+        }
+        watching = true;
+        if (!loading) {
+            startWatcher();
+        }
+    }
+
+
+    public void stopWatching() {
+        watching = false;
+        stopWatcher();
+    }
+
+
+    private void startWatcher() {
+        stopWatcher();
+        if (!(repository instanceof DirectorySongRepository)) {
+            return;   // Only the song directories are edited by other programs
+        }
+        watcher = new SongDirectoryWatcher(((DirectorySongRepository) repository).getDirectory(), loader, encoding, WATCH_DEBOUNCE_MILLIS,
+                change -> SwingUtilities.invokeLater(() -> applyChange(change)));
+        watcher.start();
+    }
+
+
+    private void stopWatcher() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+
+    void applyChange(SongDirectoryChange change) {
+        if (change.isFullReloadRequired()) {
+            reloadFromDisk(encoding);
+            return;
+        }
+
+        List<SongNode> songList = songListModel.getList();
+        SongNode selectedSong = songListModel.getSelection();
+
+        // Remove deleted songs (from the end, so that the positions of the remaining ones stay valid)
+        Set<String> removedFileNames = new HashSet<String>(change.getRemovedFileNames());
+        for (int i = songList.size() - 1; i >= 0 && !removedFileNames.isEmpty(); i--) {
+            if (removedFileNames.remove(getFileName(songList.get(i)))) {
+                songList.remove(i);
+            }
+        }
+
+        // Replace modified songs, add created songs
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = 0; i < songList.size(); i++) {
+            positions.put(getFileName(songList.get(i)), i);
+        }
+        for (SongNode songNode : change.getUpdatedSongs()) {
+            Integer position = positions.get(getFileName(songNode));
+            if (position == null) {
+                songList.add(songNode);
+            } else if (songList.set(position, songNode) == selectedSong) {
+                songListModel.setSelection(songNode);
+            }
+        }
+
+        // Update song book indexes (the songs are immutable - they are replaced by their copies)
+        Map<String, Integer> songIndexMap = change.getSongIndexMap();
+        if (songIndexMap != null) {
+            selectedSong = songListModel.getSelection();
+            for (int i = 0; i < songList.size(); i++) {
+                SongNode songNode = songList.get(i).withIndex(songIndexMap.get(getFileName(songList.get(i))));
+                if (songList.set(i, songNode) == selectedSong) {
+                    songListModel.setSelection(songNode);
+                }
+            }
+        }
+        onSongsChanged();
+    }
+
+
+    private static String getFileName(SongNode songNode) {
+        return (songNode.getSourceFile() == null) ? null : songNode.getSourceFile().getName();
     }
 
 
     public void saveCurrent(Charset encoding, String content) {
         SongNode currentSong = songListModel.getValue();
-        File sourceFile = currentSong.getSourceFile();
-        FileIO.writeStringToFile(sourceFile.getAbsolutePath(), encoding, content);
+        String fileName = getFileName(currentSong);
+        repository.write(fileName, content.getBytes(encoding));
 
         // Load file from disk
-        SongNode newSongNode = loader.loadSongNodeFromFile(sourceFile, encoding);
+        SongNode newSongNode = loader.loadSongNode(repository, fileName, encoding);
 
         // Update songListModel
         songListModel.getList().remove(currentSong);
         songListModel.getList().add(newSongNode);
+        onSongsChanged();
         songListModel.setSelection(newSongNode);
     }
 
 
     public void addNew(String songName, Charset encoding) {
         // Create file
-        File fileName = new File(baseDir.getAbsolutePath(), songName.replaceAll(" ", "_") + ".txt");
-        FileIO.writeStringToFile(fileName.getAbsolutePath(), encoding, songName + "\n\nVerse1");
+        String fileName = songName.replaceAll(" ", "_") + ".txt";
+        repository.write(fileName, (songName + "\n\nVerse1").getBytes(encoding));
 
         // Load file from disk
-        SongNode songNode = loader.loadSongNodeFromFile(fileName, encoding);
+        SongNode songNode = loader.loadSongNode(repository, fileName, encoding);
 
         // Update songListModel
         songListModel.getList().add(songNode);
         songListModel.setSelection(songNode);
+        onSongsChanged();
+    }
+
+
+    /** Songs were added, replaced or removed - the filter is applied to the changed song list. */
+    private void onSongsChanged() {
+        filterSongListChanged = true;
+        if (filteredSongsModel.getValue() != null || !isFilterEmpty()) {
+            filter();
+        }
+    }
+
+
+    /** Searches the songs by the filter (in the background) - the matching songs are then set to the filtered songs model. */
+    private void filter() {
+        if (filterSongListChanged) {
+            filterSongList = new ArrayList<SongNode>(songListModel.getList());
+            filterSession.setSongList(filterSongList);
+            filterSongListChanged = false;
+        }
+        filterSession.search(isFilterEmpty() ? "" : (String) filterModel.getValue());
+    }
+
+
+    private void onFilterFinished(String query, int[] songIds) {
+        if (isFilterEmpty()) {
+            filteredSongsModel.setValue(null);
+            return;
+        }
+        Set<SongNode> filteredSongs = Collections.newSetFromMap(new IdentityHashMap<SongNode, Boolean>());
+        for (int songId : songIds) {
+            filteredSongs.add(filterSongList.get(songId));
+        }
+        filteredSongsModel.setValue(filteredSongs);
+    }
+
+
+    private boolean isFilterEmpty() {
+        String filter = (String) filterModel.getValue();
+        return filter == null || StringUtil.removeAccentsAndNonStandardCharacters(filter).isEmpty();
+    }
+
+
+    /** @return False if the song does not match the filter. */
+    public boolean isVisible(SongNode songNode) {
+        @SuppressWarnings("unchecked")
+        Set<SongNode> filteredSongs = (Set<SongNode>) filteredSongsModel.getValue();
+        return filteredSongs == null || filteredSongs.contains(songNode);
+    }
+
+
+    /** @return Text filtering the songs (searched in the titles and the lyrics as typed). */
+    public ValueHolder getFilterModel() {
+        return filterModel;
+    }
+
+
+    /** @return Songs matching the filter (null if the songs are not filtered) - changed whenever the filter is applied. */
+    public ValueHolder getFilteredSongsModel() {
+        return filteredSongsModel;
     }
 
 
@@ -17,6 +17,7 @@
  */
 package com.songbook.pc.ui.view;
 
+import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.event.FocusAdapter;
@@ -30,11 +31,14 @@ import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JEditorPane;
 import javax.swing.JFrame;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.RowFilter;
 import javax.swing.RowSorter;
 import javax.swing.SortOrder;
 import javax.swing.event.ListSelectionEvent;
@@ -48,8 +52,10 @@ import com.jgoodies.binding.adapter.SpinnerToValueModelConnector;
 import com.jgoodies.binding.beans.PropertyConnector;
 import com.jgoodies.binding.list.SelectionInList;
 import com.jgoodies.binding.value.ValueModel;
+import com.songbook.core.model.SongNode;
 import com.songbook.core.util.FileIO;
 import com.songbook.pc.ui.presentationmodel.MainFormPresentationModel;
+import com.songbook.pc.ui.presentationmodel.SongListPresentationModel;
 
 
 /** View for the MainForm (implementation of the Model-View-PresentationModel). */
@@ -67,6 +73,7 @@ public class MainFormView extends JFrame {
 
     private final JEditorPane editorPane;
     private final JEditorPane logPane;
+    private final JTextField filterTextField;
     private final JTable songSelectionTable;
 
 
@@ -117,10 +124,27 @@ public class MainFormView extends JFrame {
         });
 
         // == SONG SELECTION ==
-        TableModel tableModel = new SongListTableAdapter(presentationModel.getSongListPresentationModel().getSongListModel());
+        final SongListPresentationModel songListModel = presentationModel.getSongListPresentationModel();
+        filterTextField = BasicComponentFactory.createTextField(songListModel.getFilterModel(), false);
+        TableModel tableModel = new SongListTableAdapter(songListModel.getSongListModel());
         songSelectionTable = new JTable(tableModel);
-        songSelectionTable.setRowSorter(new TableRowSorter<TableModel>(tableModel));
+        final TableRowSorter<TableModel> rowSorter = new TableRowSorter<TableModel>(tableModel);
+        rowSorter.setRowFilter(new RowFilter<TableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends TableModel, ? extends Integer> entry) {
+                SongNode songNode = songListModel.getSongListModel().getList().get(entry.getIdentifier());
+                return songListModel.isVisible(songNode);
+            }
+        });
+        songSelectionTable.setRowSorter(rowSorter);
         songSelectionTable.getRowSorter().setSortKeys(Collections.singletonList(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+        // Filter the rows again whenever the filter finds the songs
+        songListModel.getFilteredSongsModel().addValueChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                rowSorter.sort();
+            }
+        });
         bind2Way(songSelectionTable, presentationModel.getSongListPresentationModel().getSongListModel());
         if (!presentationModel.getSongListPresentationModel().getSongListModel().isEmpty()) {
             songSelectionTable.getSelectionModel().setSelectionInterval(0,0);
@@ -185,7 +209,10 @@ public class MainFormView extends JFrame {
         centerPane.setDividerLocation(500);
         centerPane.setResizeWeight(1);
         centerPane.setLeftComponent(new JScrollPane(editorPane));
-        centerPane.setRightComponent(new JScrollPane(songSelectionTable));
+        JPanel songSelectionPanel = new JPanel(new BorderLayout());
+        songSelectionPanel.add(filterTextField, BorderLayout.NORTH);
+        songSelectionPanel.add(new JScrollPane(songSelectionTable), BorderLayout.CENTER);
+        centerPane.setRightComponent(songSelectionPanel);
 
         // MAIN PANE
         JSplitPane mainPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
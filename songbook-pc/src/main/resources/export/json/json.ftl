@@ -1,6 +1,11 @@
 {
     "type": "SongBook",
     <#if generatedOn??>"generatedOn": "${generatedOn?string("yyyy-MM-dd'T'HH:mm:ssZ")}",</#if>
+    <#if encodeChords>
+    <#-- Tables of the chord codes - code bits 0-3 root, 4-15 suffix, 16-19 bass root (15 = no bass), 20-31 bass suffix -->
+    "chordRoots": [<#list chordRoots as root>"${root?json_string}"<#if root?has_next>, </#if></#list>],
+    "chordSuffixes": [<#list chordTable.suffixes as suffix>"${suffix?json_string}"<#if suffix?has_next>, </#if></#list>],
+    </#if>
     "songs": [
         <#list songNodes as songNode>
         {
@@ -28,12 +33,14 @@
                                         <#-- Simple chord e.g. "C" (#t = ignore leading and trailing whitespace) -->
                                         {
                                             "type": "Chord",
+                                            <#if encodeChords><#assign code = chordTable.encode(lineFragment.symbol)><#if code != -1>"code": ${code?c},</#if></#if>
                                             "chord1": "${lineFragment.getChord1(0)?trim}"
                                         }<#if lineFragment?has_next>,</#if>
                                     <#elseif lineFragment.type == "MultiChordNode">
                                         <#-- Complex code e.g. "C/G" (#t = ignore leading and trailing whitespace) -->
                                         {
                                             "type": "Chord",
+                                            <#if encodeChords><#assign code = chordTable.encode(lineFragment.symbol)><#if code != -1>"code": ${code?c},</#if></#if>
                                             "chord1": "${lineFragment.getChord1(0)?trim}",
                                             "chord2": "${lineFragment.getChord2(0)?trim}"
                                         }<#if lineFragment?has_next>,</#if>